@@ -0,0 +1,301 @@
+import java.util.Arrays;
+
+/**
+ * Pre-aggregated price statistics per (month, town, floor-area bucket).
+ *
+ * Each cell holds the mergeable moments of a PriceAggregate (count, mean,
+ * sum of squared deviations, min and max price, min price per sqm) of the
+ * rows in one month and town whose floor area is at least
+ * bucket * AREA_BUCKET_SQM. Cells are cumulative over the area buckets, like
+ * the range-encoded area index, so a (town, window, minimum area) question is
+ * answered by merging one cell per month of the window, without reading any
+ * rows. Minimum areas that are not a multiple of AREA_BUCKET_SQM are not
+ * covered; callers scan instead.
+ *
+ * Each (month, town, bucket) also keeps a QuantileSketch of the prices of
+ * exactly that bucket, so percentiles of a window merge the sketches of the
+ * buckets at or above the minimum area (windowQuantiles).
+ *
+ * A cube never changes after it is built. appended() returns a cube that
+ * shares the slices of every month the new rows do not touch.
+ */
+public final class AggregateCube {
+    public static final int AREA_BUCKET_SQM = 10;
+
+    private final int rowCount;
+    private final int firstYearMonth;
+    private final Slice[] slices; // slices[ym - firstYearMonth], null for months without rows
+
+    private AggregateCube(int rowCount, int firstYearMonth, Slice[] slices) {
+        this.rowCount = rowCount;
+        this.firstYearMonth = firstYearMonth;
+        this.slices = slices;
+    }
+
+    /**
+     * Build the cube of rows 0..rows-1 in one pass. towns is the number of
+     * town codes in use.
+     */
+    public static AggregateCube build(int[] yearMonths, int[] townCodes, double[] floorAreas, double[] resalePrices,
+                                      int towns, int rows) {
+        return new AggregateCube(0, 0, new Slice[0])
+            .appended(yearMonths, townCodes, floorAreas, resalePrices, towns, 0, rows);
+    }
+
+    /**
+     * Cube of this table plus rows from..to-1. Months that receive rows get a
+     * copied slice, widened when new towns or a larger floor area appeared;
+     * every other slice is shared with this cube.
+     */
+    public AggregateCube appended(int[] yearMonths, int[] townCodes, double[] floorAreas, double[] resalePrices,
+                                  int towns, int from, int to) {
+        if (from >= to) return this;
+        int minYm = Integer.MAX_VALUE, maxYm = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            minYm = Math.min(minYm, yearMonths[i]);
+            maxYm = Math.max(maxYm, yearMonths[i]);
+        }
+        if (slices.length > 0) {
+            minYm = Math.min(minYm, firstYearMonth);
+            maxYm = Math.max(maxYm, firstYearMonth + slices.length - 1);
+        }
+        Slice[] next = new Slice[maxYm - minYm + 1];
+        if (slices.length > 0) System.arraycopy(slices, 0, next, firstYearMonth - minYm, slices.length);
+
+        // Exact bucket of every new row, and the widest bucket per touched month
+        int[] buckets = new int[to - from];
+        int[] maxBucket = new int[next.length];
+        Arrays.fill(maxBucket, -1);
+        for (int i = from; i < to; i++) {
+            int bucket = bucketOf(floorAreas[i]);
+            buckets[i - from] = bucket;
+            int s = yearMonths[i] - minYm;
+            maxBucket[s] = Math.max(maxBucket[s], Math.max(bucket, 0));
+        }
+
+        // Copy on write: first touch of a month widens a private copy of its slice
+        boolean[] copied = new boolean[next.length];
+        for (int s = 0; s < next.length; s++) {
+            if (maxBucket[s] < 0) continue;
+            Slice slice = next[s];
+            int width = Math.max(maxBucket[s] + 1, slice == null ? 0 : slice.buckets);
+            next[s] = slice == null ? new Slice(towns, width) : slice.widened(towns, width);
+            copied[s] = true;
+        }
+
+        // Rows go into their exact bucket first; the per-month suffix pass then makes the cells cumulative
+        Slice[] exact = new Slice[next.length];
+        for (int i = from; i < to; i++) {
+            int bucket = buckets[i - from];
+            if (bucket < 0) continue; // Missing or negative area: no bucket holds it
+            int s = yearMonths[i] - minYm;
+            if (exact[s] == null) exact[s] = new Slice(towns, next[s].buckets);
+            exact[s].add(exact[s].cell(townCodes[i], bucket), resalePrices[i], floorAreas[i]);
+        }
+        for (int s = 0; s < next.length; s++) {
+            if (copied[s] && exact[s] != null) next[s].mergeCumulative(exact[s]);
+        }
+
+        // Price sketches stay per exact bucket: cumulative ones would hold each row several times
+        boolean[][] ownSketch = new boolean[next.length][];
+        for (int i = from; i < to; i++) {
+            int bucket = buckets[i - from];
+            if (bucket < 0) continue;
+            int s = yearMonths[i] - minYm;
+            Slice slice = next[s];
+            int c = slice.cell(townCodes[i], bucket);
+            if (ownSketch[s] == null) ownSketch[s] = new boolean[slice.sketches.length];
+            if (!ownSketch[s][c]) {
+                slice.sketches[c] = slice.sketches[c] == null ? new QuantileSketch() : slice.sketches[c].copy();
+                ownSketch[s][c] = true;
+            }
+            slice.sketches[c].add(resalePrices[i]);
+        }
+        for (int s = 0; s < next.length; s++) {
+            if (ownSketch[s] == null) continue;
+            for (int c = 0; c < ownSketch[s].length; c++) {
+                if (ownSketch[s][c]) next[s].sketches[c].trim();
+            }
+        }
+        return new AggregateCube(to, minYm, next);
+    }
+
+    // Bucket of a floor area, -1 for areas no minimum-area query can select
+    private static int bucketOf(double floorArea) {
+        return floorArea >= 0 ? (int) (floorArea / AREA_BUCKET_SQM) : -1;
+    }
+
+    // Number of table rows the cube covers
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // True if window() can answer queries with this minimum floor area
+    public boolean covers(double minArea) {
+        return minArea >= 0 && minArea % AREA_BUCKET_SQM == 0;
+    }
+
+    /**
+     * Aggregate of the rows of town in months fromYearMonth..toYearMonth
+     * (packed, inclusive) with floor area >= minArea, merged from one cell
+     * per month. minArea must be covered.
+     */
+    public PriceAggregate window(int townCode, int fromYearMonth, int toYearMonth, double minArea) {
+        if (!covers(minArea)) throw new IllegalArgumentException("Minimum area " + minArea + " is not a bucket boundary");
+        int bucket = (int) (minArea / AREA_BUCKET_SQM);
+        PriceAggregate agg = new PriceAggregate();
+        for (int ym = Math.max(fromYearMonth, firstYearMonth); ym <= toYearMonth; ym++) {
+            int s = ym - firstYearMonth;
+            if (s >= slices.length) break;
+            Slice slice = slices[s];
+            if (slice == null || townCode >= slice.towns || bucket >= slice.buckets) continue;
+            int c = slice.cell(townCode, bucket);
+            if (slice.count[c] > 0) {
+                agg.merge(PriceAggregate.ofMoments(slice.count[c], slice.mean[c], slice.m2[c],
+                    slice.minPrice[c], slice.maxPrice[c], slice.minPricePerSqm[c]));
+            }
+        }
+        return agg;
+    }
+
+    /**
+     * Sketch of the prices of the same rows as window(), merged from the
+     * per-bucket sketches of each month. minArea must be covered.
+     */
+    public QuantileSketch windowQuantiles(int townCode, int fromYearMonth, int toYearMonth, double minArea) {
+        if (!covers(minArea)) throw new IllegalArgumentException("Minimum area " + minArea + " is not a bucket boundary");
+        int bucket = (int) (minArea / AREA_BUCKET_SQM);
+        QuantileSketch sketch = new QuantileSketch();
+        for (int ym = Math.max(fromYearMonth, firstYearMonth); ym <= toYearMonth; ym++) {
+            int s = ym - firstYearMonth;
+            if (s >= slices.length) break;
+            Slice slice = slices[s];
+            if (slice == null || townCode >= slice.towns) continue;
+            for (int b = bucket; b < slice.buckets; b++) {
+                QuantileSketch cell = slice.sketches[slice.cell(townCode, b)];
+                if (cell != null) sketch.merge(cell);
+            }
+        }
+        return sketch;
+    }
+
+    // Approximate heap footprint of the cells and their sketches
+    public long estimatedBytes() {
+        long bytes = 16 + 4L * slices.length;
+        for (Slice slice : slices) {
+            if (slice == null) continue;
+            bytes += 52L * slice.count.length + 7 * 16;
+            for (QuantileSketch sketch : slice.sketches) {
+                if (sketch != null) bytes += sketch.estimatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        int months = 0;
+        long cells = 0;
+        for (Slice slice : slices) {
+            if (slice == null) continue;
+            months++;
+            cells += slice.count.length;
+        }
+        return String.format("rows=%d months=%d cells=%d size=%.1fMB", rowCount, months, cells,
+            estimatedBytes() / (1024.0 * 1024.0));
+    }
+
+    // Cells of one month, town-major: cell(town, bucket) = town * buckets + bucket
+    private static final class Slice {
+        final int towns;
+        final int buckets;
+        final long[] count;
+        final double[] mean;
+        final double[] m2; // Sum of squared deviations from the mean
+        final double[] minPrice;
+        final double[] maxPrice;
+        final double[] minPricePerSqm;
+        final QuantileSketch[] sketches; // Prices of the rows in exactly this bucket, null when none
+
+        Slice(int towns, int buckets) {
+            this.towns = towns;
+            this.buckets = buckets;
+            int cells = towns * buckets;
+            count = new long[cells];
+            mean = new double[cells];
+            m2 = new double[cells];
+            minPrice = new double[cells];
+            maxPrice = new double[cells];
+            minPricePerSqm = new double[cells];
+            sketches = new QuantileSketch[cells];
+            Arrays.fill(minPrice, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxPrice, Double.NEGATIVE_INFINITY);
+            Arrays.fill(minPricePerSqm, Double.POSITIVE_INFINITY);
+        }
+
+        int cell(int town, int bucket) {
+            return town * buckets + bucket;
+        }
+
+        // Copy with at least the given towns and buckets; new buckets above the old maximum are empty
+        Slice widened(int towns, int buckets) {
+            Slice copy = new Slice(Math.max(towns, this.towns), Math.max(buckets, this.buckets));
+            for (int t = 0; t < this.towns; t++) {
+                int src = cell(t, 0), dst = copy.cell(t, 0);
+                System.arraycopy(count, src, copy.count, dst, this.buckets);
+                System.arraycopy(mean, src, copy.mean, dst, this.buckets);
+                System.arraycopy(m2, src, copy.m2, dst, this.buckets);
+                System.arraycopy(minPrice, src, copy.minPrice, dst, this.buckets);
+                System.arraycopy(maxPrice, src, copy.maxPrice, dst, this.buckets);
+                System.arraycopy(minPricePerSqm, src, copy.minPricePerSqm, dst, this.buckets);
+                System.arraycopy(sketches, src, copy.sketches, dst, this.buckets); // Shared until written
+            }
+            return copy;
+        }
+
+        // Welford update of one cell, as PriceAggregate.add
+        void add(int c, double price, double floorArea) {
+            long n = ++count[c];
+            double delta = price - mean[c];
+            mean[c] += delta / n;
+            m2[c] += delta * (price - mean[c]);
+            if (price < minPrice[c]) minPrice[c] = price;
+            if (price > maxPrice[c]) maxPrice[c] = price;
+            double ppsm = price / floorArea;
+            if (ppsm < minPricePerSqm[c]) minPricePerSqm[c] = ppsm;
+        }
+
+        // Pairwise merge of src cell s into cell c, as PriceAggregate.merge
+        void merge(int c, Slice src, int s) {
+            long n = src.count[s];
+            if (n == 0) return;
+            if (count[c] == 0) {
+                mean[c] = src.mean[s];
+                m2[c] = src.m2[s];
+            } else {
+                long total = count[c] + n;
+                double delta = src.mean[s] - mean[c];
+                mean[c] += delta * n / total;
+                m2[c] += src.m2[s] + delta * delta * ((double) count[c] * n / total);
+            }
+            count[c] += n;
+            minPrice[c] = Math.min(minPrice[c], src.minPrice[s]);
+            maxPrice[c] = Math.max(maxPrice[c], src.maxPrice[s]);
+            minPricePerSqm[c] = Math.min(minPricePerSqm[c], src.minPricePerSqm[s]);
+        }
+
+        // Add exact per-bucket aggregates (same shape as this slice) to every cumulative cell at or below their bucket
+        void mergeCumulative(Slice exact) {
+            Slice suffix = new Slice(1, 1);
+            for (int t = 0; t < exact.towns; t++) {
+                suffix.count[0] = 0;
+                suffix.minPrice[0] = suffix.minPricePerSqm[0] = Double.POSITIVE_INFINITY;
+                suffix.maxPrice[0] = Double.NEGATIVE_INFINITY;
+                for (int b = exact.buckets - 1; b >= 0; b--) {
+                    suffix.merge(0, exact, exact.cell(t, b));
+                    merge(cell(t, b), suffix, 0);
+                }
+            }
+        }
+    }
+}
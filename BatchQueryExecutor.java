@@ -0,0 +1,233 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers many (town, year, month) queries with one shared pass over the data.
+ *
+ * Queries are grouped by their two-month window. Each group keeps one
+ * PriceAggregate per town, and queries with the same town and window share
+ * that state. The pass visits every block whose month range overlaps a
+ * requested window and adds each qualifying row (floor area >= DataAnalyzer.MIN_AREA) to the
+ * states of the at most two windows that contain its month. Results match
+ * DataAnalyzer.aggregateWindow for every query.
+ */
+public class BatchQueryExecutor {
+
+    private final DataAnalyzer analyzer;
+
+    public BatchQueryExecutor(DataAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * A single scan request, usually derived from a matriculation number.
+     */
+    public static class Query {
+        private final String matricNo;
+        private final String town;
+        private final int year;
+        private final int month;
+
+        public Query(String matricNo, String town, int year, int month) {
+            this.matricNo = matricNo;
+            this.town = town;
+            this.year = year;
+            this.month = month;
+        }
+
+        public static Query fromMatriculation(String matricNo) {
+            MatriculationProcessor processor = new MatriculationProcessor(matricNo);
+            return new Query(matricNo, processor.getTown(), processor.getTargetYear(), processor.getMonth());
+        }
+
+        public String getMatricNo() { return matricNo; }
+        public String getTown() { return town; }
+        public int getYear() { return year; }
+        public int getMonth() { return month; }
+
+        // Packed yearMonth of the first month of the window
+        int windowStart() {
+            return YearMonths.pack(year, month);
+        }
+    }
+
+    public static List<Query> fromMatriculations(List<String> matricNos) {
+        List<Query> queries = new ArrayList<>(matricNos.size());
+        for (String matricNo : matricNos) {
+            queries.add(Query.fromMatriculation(matricNo));
+        }
+        return queries;
+    }
+
+    /**
+     * Evaluate all queries in one pass. The result at index i belongs to
+     * queries.get(i); queries for unknown towns get an empty aggregate.
+     */
+    public PriceAggregate[] execute(List<Query> queries) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "batch")) {
+            if (op == null) return executeUntimed(queries);
+            op.index(analyzer.hasAggregateCube() ? "aggregate cube" : "zone maps").bytesPerRow(24);
+            PriceAggregate[] results = executeUntimed(queries);
+            long count = 0;
+            for (PriceAggregate agg : results) count += agg.getCount();
+            op.qualified(count);
+            return results;
+        }
+    }
+
+    private PriceAggregate[] executeUntimed(List<Query> queries) {
+        PriceAggregate[] results = new PriceAggregate[queries.size()];
+        DictionaryColumn towns = analyzer.getTowns();
+        int minStart = Integer.MAX_VALUE, maxStart = Integer.MIN_VALUE;
+        for (Query q : queries) {
+            minStart = Math.min(minStart, q.windowStart());
+            maxStart = Math.max(maxStart, q.windowStart());
+        }
+        if (queries.isEmpty() || towns == null) {
+            for (int i = 0; i < results.length; i++) results[i] = new PriceAggregate();
+            return results;
+        }
+
+        // states[windowStart - minStart][townCode], null where nothing was asked
+        PriceAggregate[][] states = new PriceAggregate[maxStart - minStart + 1][];
+        boolean[] townRequested = new boolean[towns.cardinality()];
+        for (int i = 0; i < results.length; i++) {
+            Query q = queries.get(i);
+            int townCode = towns.lookup(q.getTown());
+            if (townCode < 0) {
+                results[i] = new PriceAggregate();
+                continue;
+            }
+            int w = q.windowStart() - minStart;
+            if (states[w] == null) states[w] = new PriceAggregate[towns.cardinality()];
+            if (states[w][townCode] == null) states[w][townCode] = new PriceAggregate();
+            results[i] = states[w][townCode];
+            townRequested[townCode] = true;
+        }
+
+        // A built aggregate cube answers every window without the pass
+        if (analyzer.hasAggregateCube()) {
+            AggregateCube cube = analyzer.getAggregateCube();
+            for (int w = 0; w < states.length; w++) {
+                if (states[w] == null) continue;
+                for (int townCode = 0; townCode < states[w].length; townCode++) {
+                    if (states[w][townCode] == null) continue;
+                    states[w][townCode].merge(cube.window(townCode, minStart + w, minStart + w + 1, DataAnalyzer.MIN_AREA));
+                }
+            }
+            return results;
+        }
+
+        int[] windowStarts = requestedWindows(states, minStart);
+        if (windowStarts.length > 0) {
+            scan(states, minStart, windowStarts, townRequested);
+        }
+        return results;
+    }
+
+    private static int[] requestedWindows(PriceAggregate[][] states, int minStart) {
+        IntList starts = new IntList();
+        for (int w = 0; w < states.length; w++) {
+            if (states[w] != null) starts.add(minStart + w);
+        }
+        return starts.toArray();
+    }
+
+    // The shared pass: route each row to the states of the windows containing its month
+    private void scan(PriceAggregate[][] states, int minStart, int[] windowStarts, boolean[] townRequested) {
+        int[] yearMonths = analyzer.getYearMonths();
+        int[] townCodes = analyzer.getTowns().codes();
+        double[] floorAreas = analyzer.getFloorAreas();
+        double[] resalePrices = analyzer.getResalePrices();
+        BlockStatistics stats = analyzer.getBlockStatistics();
+        long rows = 0;
+        int skipped = 0;
+        for (int b = 0; b < stats.getBlockCount(); b++) {
+            if (!blockMayMatch(stats, b, windowStarts, townRequested)) {
+                skipped++;
+                continue;
+            }
+            rows += stats.blockEnd(b) - stats.blockStart(b);
+            for (int i = stats.blockStart(b), to = stats.blockEnd(b); i < to; i++) {
+                double area = floorAreas[i];
+                if (area < DataAnalyzer.MIN_AREA) continue;
+                int townCode = townCodes[i];
+                if (!townRequested[townCode]) continue;
+                // The row falls in the window starting this month and the one starting last month
+                int w = yearMonths[i] - minStart;
+                for (int k = w - 1; k <= w; k++) {
+                    if (k < 0 || k >= states.length || states[k] == null) continue;
+                    PriceAggregate agg = states[k][townCode];
+                    if (agg != null) agg.add(resalePrices[i], area);
+                }
+            }
+        }
+        QueryMetrics.Operation op = QueryMetrics.current();
+        if (op != null) op.scanned(rows, stats.getBlockCount() - skipped, skipped);
+    }
+
+    private static boolean blockMayMatch(BlockStatistics stats, int block, int[] windowStarts, boolean[] townRequested) {
+        if (stats.getMaxArea(block) < DataAnalyzer.MIN_AREA) return false;
+        // First requested window that ends at or after the block's first month
+        int idx = Arrays.binarySearch(windowStarts, stats.getMinYearMonth(block) - 1);
+        if (idx < 0) idx = -idx - 1;
+        if (idx == windowStarts.length || windowStarts[idx] > stats.getMaxYearMonth(block)) return false;
+        for (int townCode = 0; townCode < townRequested.length; townCode++) {
+            if (townRequested[townCode] && stats.containsTown(block, townCode)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write ScanResult_<matricNo>.csv for every query that matched at least one row.
+     * Returns the number of files written.
+     */
+    public static int writeResults(List<Query> queries, PriceAggregate[] results, String outputDir) {
+        int written = 0;
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < queries.size(); i++) {
+            if (results[i].isEmpty()) continue;
+            Query q = queries.get(i);
+            sb.setLength(0);
+            appendScanResult(sb, q, results[i]);
+            File file = new File(outputDir, "ScanResult_" + q.getMatricNo() + ".csv");
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                writer.write(sb.toString());
+                written++;
+            } catch (IOException e) {
+                System.err.println("Error writing " + file + ": " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    // Same layout as Main.generateCSV
+    static void appendScanResult(StringBuilder sb, Query q, PriceAggregate stats) {
+        sb.append("Year,Month,Location,Category,Value\n");
+        appendRow(sb, q, "Minimum Price", stats.getMinPrice());
+        appendRow(sb, q, "Average Price", stats.getAveragePrice());
+        appendRow(sb, q, "Standard Deviation of Price", stats.getStdDev());
+        appendRow(sb, q, "Minimum Price per Square Meter", stats.getMinPricePerSqm());
+    }
+
+    // Percentile rows in the same layout, appended after appendScanResult
+    static void appendQuantiles(StringBuilder sb, Query q, QuantileSketch prices) {
+        appendRow(sb, q, "10th Percentile Price", prices.getQuantile(0.1));
+        appendRow(sb, q, "Median Price", prices.getMedian());
+        appendRow(sb, q, "90th Percentile Price", prices.getQuantile(0.9));
+    }
+
+    private static void appendRow(StringBuilder sb, Query q, String category, double value) {
+        sb.append(q.getYear()).append(',')
+          .append(String.format("%02d", q.getMonth())).append(',')
+          .append(q.getTown()).append(',')
+          .append(category).append(',')
+          .append(value == 0 ? "No result" : String.format("%.2f", value))
+          .append('\n');
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Per-block min/max statistics ("zone maps") used to skip whole blocks of
+ * rows during full scans. The HDB data arrives in month order, so the
+ * yearMonth range of most blocks is disjoint from a query window.
+ *
+ * Each block of at most blockRows consecutive rows records min/max
+ * yearMonth, floor area and resale price plus a bitmask of the town codes it
+ * contains. Blocks are uniform when built over one set of columns; a store
+ * with appended segments concatenates the statistics of each segment, so
+ * the last block of a segment may be short.
+ */
+public class BlockStatistics {
+    public static final int DEFAULT_BLOCK_ROWS = 16384;
+
+    private static final int MAGIC = 0x53544B42; // "BKTS"
+    private static final int VERSION = 2; // Version 1 files have uniform blocks and no boundaries
+
+    private final int rows;
+    private final int blockRows;
+    private final int blocks;
+    private final int maskWords;
+    private final int[] starts; // Block b covers rows [starts[b], starts[b + 1])
+    private final int[] minYearMonth, maxYearMonth;
+    private final double[] minArea, maxArea, minPrice, maxPrice;
+    private final long[] townMask; // maskWords words per block
+
+    private BlockStatistics(int rows, int blockRows, int maskWords) {
+        this(rows, blockRows, maskWords, uniformStarts(rows, blockRows));
+    }
+
+    private BlockStatistics(int rows, int blockRows, int maskWords, int[] starts) {
+        this.rows = rows;
+        this.blockRows = blockRows;
+        this.blocks = starts.length - 1;
+        this.maskWords = maskWords;
+        this.starts = starts;
+        minYearMonth = new int[blocks];
+        maxYearMonth = new int[blocks];
+        minArea = new double[blocks];
+        maxArea = new double[blocks];
+        minPrice = new double[blocks];
+        maxPrice = new double[blocks];
+        townMask = new long[blocks * maskWords];
+    }
+
+    private static int[] uniformStarts(int rows, int blockRows) {
+        int blocks = (rows + blockRows - 1) / blockRows;
+        int[] starts = new int[blocks + 1];
+        for (int b = 0; b < blocks; b++) starts[b] = b * blockRows;
+        starts[blocks] = rows;
+        return starts;
+    }
+
+    public static BlockStatistics build(int[] yearMonths, double[] floorAreas, double[] resalePrices,
+                                        int[] townCodes, int rows, int townCardinality, int blockRows) {
+        return build(yearMonths, floorAreas, resalePrices, townCodes, 0, rows, townCardinality, blockRows);
+    }
+
+    // Statistics of rows [firstRow, lastRow) only, numbered from 0; see concat
+    public static BlockStatistics build(int[] yearMonths, double[] floorAreas, double[] resalePrices,
+                                        int[] townCodes, int firstRow, int lastRow, int townCardinality, int blockRows) {
+        int rows = lastRow - firstRow;
+        BlockStatistics stats = new BlockStatistics(rows, blockRows, Math.max(1, (townCardinality + 63) / 64));
+        for (int b = 0; b < stats.blocks; b++) {
+            int from = firstRow + b * blockRows;
+            int to = Math.min(lastRow, from + blockRows);
+            int minYm = Integer.MAX_VALUE, maxYm = Integer.MIN_VALUE;
+            double minA = Double.POSITIVE_INFINITY, maxA = Double.NEGATIVE_INFINITY;
+            double minP = Double.POSITIVE_INFINITY, maxP = Double.NEGATIVE_INFINITY;
+            int maskBase = b * stats.maskWords;
+            for (int i = from; i < to; i++) {
+                minYm = Math.min(minYm, yearMonths[i]);
+                maxYm = Math.max(maxYm, yearMonths[i]);
+                // Comparisons skip NaN, which matches no range and would otherwise poison the block's bounds
+                double a = floorAreas[i], p = resalePrices[i];
+                if (a < minA) minA = a;
+                if (a > maxA) maxA = a;
+                if (p < minP) minP = p;
+                if (p > maxP) maxP = p;
+                int code = townCodes[i];
+                stats.townMask[maskBase + (code >>> 6)] |= 1L << code;
+            }
+            stats.minYearMonth[b] = minYm;
+            stats.maxYearMonth[b] = maxYm;
+            stats.minArea[b] = minA;
+            stats.maxArea[b] = maxA;
+            stats.minPrice[b] = minP;
+            stats.maxPrice[b] = maxP;
+        }
+        return stats;
+    }
+
+    /**
+     * Statistics of the parts laid end to end, e.g. a loaded store followed by
+     * an appended segment. Only the per-block arrays are copied, so the cost is
+     * proportional to the number of blocks, not rows.
+     */
+    public static BlockStatistics concat(BlockStatistics... parts) {
+        int rows = 0, blocks = 0, blockRows = 1, maskWords = 1;
+        for (BlockStatistics part : parts) {
+            rows += part.rows;
+            blocks += part.blocks;
+            blockRows = Math.max(blockRows, part.blockRows);
+            maskWords = Math.max(maskWords, part.maskWords);
+        }
+        int[] starts = new int[blocks + 1];
+        BlockStatistics stats = new BlockStatistics(rows, blockRows, maskWords, starts);
+        int b = 0, rowBase = 0;
+        for (BlockStatistics part : parts) {
+            for (int pb = 0; pb < part.blocks; pb++, b++) {
+                starts[b] = rowBase + part.starts[pb];
+                stats.minYearMonth[b] = part.minYearMonth[pb];
+                stats.maxYearMonth[b] = part.maxYearMonth[pb];
+                stats.minArea[b] = part.minArea[pb];
+                stats.maxArea[b] = part.maxArea[pb];
+                stats.minPrice[b] = part.minPrice[pb];
+                stats.maxPrice[b] = part.maxPrice[pb];
+                System.arraycopy(part.townMask, pb * part.maskWords, stats.townMask, b * maskWords, part.maskWords);
+            }
+            rowBase += part.rows;
+        }
+        starts[blocks] = rows;
+        return stats;
+    }
+
+    public int getRowCount() { return rows; }
+    public int getBlockRows() { return blockRows; } // Upper bound on the rows of any block
+    public int getBlockCount() { return blocks; }
+
+    public int blockStart(int block) {
+        return starts[block];
+    }
+
+    public int blockEnd(int block) {
+        return starts[block + 1];
+    }
+
+    // Block containing row, for 0 <= row < getRowCount()
+    public int blockOf(int row) {
+        int lo = 0, hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    public int getMinYearMonth(int block) { return minYearMonth[block]; }
+    public int getMaxYearMonth(int block) { return maxYearMonth[block]; }
+    public double getMinArea(int block) { return minArea[block]; }
+    public double getMaxArea(int block) { return maxArea[block]; }
+    public double getMinPrice(int block) { return minPrice[block]; }
+    public double getMaxPrice(int block) { return maxPrice[block]; }
+
+    public boolean containsTown(int block, int townCode) {
+        if (townCode < 0 || (townCode >>> 6) >= maskWords) return false;
+        return (townMask[block * maskWords + (townCode >>> 6)] & (1L << townCode)) != 0;
+    }
+
+    // Can any row of the block fall in [fromYearMonth, toYearMonth] with area >= minArea?
+    public boolean mayMatch(int block, int fromYearMonth, int toYearMonth, double minArea) {
+        return maxYearMonth[block] >= fromYearMonth && minYearMonth[block] <= toYearMonth
+            && maxArea[block] >= minArea;
+    }
+
+    // As above, and the block must also contain the town (townCode < 0 matches nothing)
+    public boolean mayMatch(int block, int fromYearMonth, int toYearMonth, double minArea, int townCode) {
+        return mayMatch(block, fromYearMonth, toYearMonth, minArea) && containsTown(block, townCode);
+    }
+
+    public void writeTo(String filePath) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(blockRows);
+            out.writeInt(maskWords);
+            out.writeInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                out.writeInt(starts[b]);
+                out.writeInt(minYearMonth[b]);
+                out.writeInt(maxYearMonth[b]);
+                out.writeDouble(minArea[b]);
+                out.writeDouble(maxArea[b]);
+                out.writeDouble(minPrice[b]);
+                out.writeDouble(maxPrice[b]);
+                for (int w = 0; w < maskWords; w++) {
+                    out.writeLong(townMask[b * maskWords + w]);
+                }
+            }
+        }
+    }
+
+    public static BlockStatistics readFrom(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
+            int version;
+            if (in.readInt() != MAGIC || ((version = in.readInt()) != VERSION && version != 1)) {
+                throw new IOException("Not a block statistics file: " + filePath);
+            }
+            int rows = in.readInt();
+            int blockRows = in.readInt();
+            int maskWords = in.readInt();
+            int[] starts;
+            if (version == 1) {
+                starts = uniformStarts(rows, blockRows);
+            } else {
+                starts = new int[in.readInt() + 1];
+                starts[starts.length - 1] = rows;
+            }
+            BlockStatistics stats = new BlockStatistics(rows, blockRows, maskWords, starts);
+            for (int b = 0; b < stats.blocks; b++) {
+                if (version != 1) starts[b] = in.readInt();
+                stats.minYearMonth[b] = in.readInt();
+                stats.maxYearMonth[b] = in.readInt();
+                stats.minArea[b] = in.readDouble();
+                stats.maxArea[b] = in.readDouble();
+                stats.minPrice[b] = in.readDouble();
+                stats.maxPrice[b] = in.readDouble();
+                for (int w = 0; w < maskWords; w++) {
+                    stats.townMask[b * maskWords + w] = in.readLong();
+                }
+            }
+            return stats;
+        }
+    }
+}
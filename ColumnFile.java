@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Fixed-width binary column file, opened read-only through FileChannel.map.
+ *
+ * Layout (little-endian):
+ *   0  int   magic "SCCF"
+ *   4  short format version
+ *   6  byte  value type (INT32, FLOAT64, DICT32, ROW_INDEX, or ENCODED_* for the
+ *            compressed forms of the first three)
+ *   7  byte  reserved
+ *   8  long  row count
+ *   16 long  payload length in bytes
+ *   24 long  CRC32C of the payload
+ *   32 int   dictionary entry count (DICT32) or key count (ROW_INDEX)
+ *   40 long  source checksum (ROW_INDEX: checksum of the columns it was built from)
+ *   64       payload: one fixed-width value per row, followed by the
+ *            dictionary (int length + UTF-8 bytes per entry) for DICT32.
+ *            ROW_INDEX payloads are laid out by RowIndexFile. ENCODED_* payloads
+ *            start with an EncodedColumn; ENCODED_DICT32 puts the dictionary
+ *            right after it.
+ *
+ * Opening a file only reads the header, so it costs the same for 1K or 10M
+ * rows, and every JVM that maps the same file shares the OS page cache.
+ */
+public class ColumnFile {
+    public static final int MAGIC = 0x46434353; // "SCCF" in little-endian
+    public static final short VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+
+    public static final byte TYPE_INT32 = 1;
+    public static final byte TYPE_FLOAT64 = 2;
+    public static final byte TYPE_DICT32 = 3;
+    public static final byte TYPE_ROW_INDEX = 4;
+    public static final byte TYPE_ENCODED_INT32 = 5;
+    public static final byte TYPE_ENCODED_FLOAT64 = 6;
+    public static final byte TYPE_ENCODED_DICT32 = 7;
+
+    // Set -Dcolumnstore.verify=true to check payload checksums on open (O(n))
+    private static final boolean VERIFY_ON_OPEN = Boolean.getBoolean("columnstore.verify");
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path path;
+    private final byte type;
+    private final int rowCount;
+    private final long checksum;
+    private final int entryCount;
+    private final long sourceChecksum;
+    private final ByteBuffer payload;
+    private final String[] dictionary;
+    private final EncodedColumn encoded; // Block directory of an ENCODED_* file, null otherwise
+
+    private ColumnFile(Path path, byte type, int rowCount, long checksum, int entryCount, long sourceChecksum,
+                       ByteBuffer payload, String[] dictionary, EncodedColumn encoded) {
+        this.path = path;
+        this.type = type;
+        this.rowCount = rowCount;
+        this.checksum = checksum;
+        this.entryCount = entryCount;
+        this.sourceChecksum = sourceChecksum;
+        this.payload = payload;
+        this.dictionary = dictionary;
+        this.encoded = encoded;
+    }
+
+    // Map a column file and validate its header
+    public static ColumnFile open(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Column file too small: " + filePath);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not a column file: " + filePath);
+        }
+        short version = mapped.getShort(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported column file version " + version + " in " + filePath);
+        }
+        byte type = mapped.get(6);
+        long rows = mapped.getLong(8);
+        long payloadBytes = mapped.getLong(16);
+        long checksum = mapped.getLong(24);
+        int dictEntries = mapped.getInt(32);
+        long sourceChecksum = mapped.getLong(40);
+        if (rows < 0 || rows > Integer.MAX_VALUE || HEADER_BYTES + payloadBytes != mapped.capacity()) {
+            throw new IOException("Corrupt column header in " + filePath);
+        }
+
+        ByteBuffer payload = mapped.slice(HEADER_BYTES, (int) payloadBytes).order(ByteOrder.LITTLE_ENDIAN);
+        String[] dictionary = null;
+        EncodedColumn encoded = null;
+        if (type == TYPE_ENCODED_INT32 || type == TYPE_ENCODED_FLOAT64 || type == TYPE_ENCODED_DICT32) {
+            encoded = EncodedColumn.open(payload);
+        }
+        if (type == TYPE_DICT32) {
+            dictionary = readDictionary(payload, (int) rows * 4, dictEntries);
+        } else if (type == TYPE_ENCODED_DICT32) {
+            dictionary = readDictionary(payload, encoded.getByteLength(), dictEntries);
+        }
+        ColumnFile column = new ColumnFile(path, type, (int) rows, checksum, dictEntries, sourceChecksum,
+            payload, dictionary, encoded);
+        if (VERIFY_ON_OPEN && !column.verifyChecksum()) {
+            throw new IOException("Checksum mismatch in " + filePath);
+        }
+        return column;
+    }
+
+    private static String[] readDictionary(ByteBuffer payload, int offset, int entries) {
+        String[] dictionary = new String[entries];
+        int pos = offset;
+        for (int i = 0; i < entries; i++) {
+            int len = payload.getInt(pos);
+            byte[] bytes = new byte[len];
+            payload.get(pos + 4, bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            pos += 4 + len;
+        }
+        return dictionary;
+    }
+
+    // Recompute the payload checksum and compare it with the header
+    public boolean verifyChecksum() {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return crc.getValue() == checksum;
+    }
+
+    public Path getPath() { return path; }
+    public byte getType() { return type; }
+    public int getRowCount() { return rowCount; }
+    public String[] getDictionary() { return dictionary; }
+    public long getChecksum() { return checksum; }
+    public int getEntryCount() { return entryCount; }
+    public long getSourceChecksum() { return sourceChecksum; }
+
+    // Compressed column of an ENCODED_* file, or null for fixed-width files
+    public EncodedColumn getEncodedColumn() { return encoded; }
+
+    public boolean isIntColumn() { return type == TYPE_INT32 || type == TYPE_ENCODED_INT32; }
+    public boolean isDictionaryColumn() { return type == TYPE_DICT32 || type == TYPE_ENCODED_DICT32; }
+    public boolean isDoubleColumn() { return type == TYPE_FLOAT64 || type == TYPE_ENCODED_FLOAT64; }
+
+    // Little-endian view of the payload for formats layered on top (see RowIndexFile)
+    ByteBuffer payload() {
+        return payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getInt(int row) {
+        return encoded != null ? encoded.getInt(row) : payload.getInt(row << 2);
+    }
+
+    public double getDouble(int row) {
+        return encoded != null ? encoded.getDouble(row) : payload.getDouble(row << 3);
+    }
+
+    // Bulk-copy an INT32 or DICT32 column out of the mapping, decoding it if compressed
+    public int[] readInts() {
+        if (encoded != null) return encoded.decodeInts();
+        int[] values = new int[rowCount];
+        payload.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values, 0, rowCount);
+        return values;
+    }
+
+    // Bulk-copy a FLOAT64 column out of the mapping
+    public double[] readDoubles() {
+        if (encoded != null) return encoded.decodeDoubles();
+        double[] values = new double[rowCount];
+        payload.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, 0, rowCount);
+        return values;
+    }
+
+    // Read a DICT32 column back as a dictionary column without decoding any rows
+    public DictionaryColumn readDictionaryColumn() {
+        return DictionaryColumn.of(dictionary, readInts());
+    }
+
+    // Decode a DICT32 value back to its string
+    public String getString(int row) {
+        return dictionary[getInt(row)];
+    }
+
+    public static void writeInts(String filePath, int[] values, int count) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_INT32)) {
+            for (int i = 0; i < count; i++) {
+                writer.putInt(values[i]);
+            }
+            writer.finish(count, 0);
+        }
+    }
+
+    public static void writeDoubles(String filePath, double[] values, int count) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_FLOAT64)) {
+            for (int i = 0; i < count; i++) {
+                writer.putDouble(values[i]);
+            }
+            writer.finish(count, 0);
+        }
+    }
+
+    // Write a string column as int codes plus a dictionary in first-seen order
+    public static void writeDictionary(String filePath, List<String> values) throws IOException {
+        DictionaryColumn column = new DictionaryColumn();
+        for (String value : values) {
+            column.add(value);
+        }
+        writeDictionary(filePath, column);
+    }
+
+    // Write an already dictionary-encoded column as-is
+    public static void writeDictionary(String filePath, DictionaryColumn column) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_DICT32)) {
+            int[] codes = column.codes();
+            for (int i = 0; i < column.size(); i++) {
+                writer.putInt(codes[i]);
+            }
+            writer.putDictionary(column.getDictionary());
+            writer.finish(column.size(), column.cardinality());
+        }
+    }
+
+    // Compressed forms, one codec per block of blockRows rows (see EncodedColumn)
+    public static void writeEncodedInts(String filePath, int[] values, int count, int blockRows) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_ENCODED_INT32)) {
+            writer.putBytes(EncodedColumn.encodeInts(values, count, blockRows));
+            writer.finish(count, 0);
+        }
+    }
+
+    public static void writeEncodedDoubles(String filePath, double[] values, int count, int blockRows) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_ENCODED_FLOAT64)) {
+            writer.putBytes(EncodedColumn.encodeDoubles(values, count, blockRows));
+            writer.finish(count, 0);
+        }
+    }
+
+    public static void writeEncodedDictionary(String filePath, DictionaryColumn column, int blockRows) throws IOException {
+        try (Writer writer = new Writer(filePath, TYPE_ENCODED_DICT32)) {
+            writer.putBytes(EncodedColumn.encodeInts(column.codes(), column.size(), blockRows));
+            writer.putDictionary(column.getDictionary());
+            writer.finish(column.size(), column.cardinality());
+        }
+    }
+
+    // Fill in the header of a file whose payload has been written after HEADER_BYTES
+    static void writeHeader(FileChannel channel, byte type, long rows, long payloadBytes, long checksum,
+                            int entries, long sourceChecksum) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put(type);
+        header.put((byte) 0);
+        header.putLong(rows);
+        header.putLong(payloadBytes);
+        header.putLong(checksum);
+        header.putInt(entries);
+        header.putInt(0);
+        header.putLong(sourceChecksum);
+        header.position(0);
+        channel.write(header, 0);
+    }
+
+    /**
+     * Streams the payload through a reusable buffer and fills in the header
+     * (row count, length, checksum) once the payload is complete.
+     */
+    static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private final byte type;
+        private long payloadBytes;
+
+        Writer(String filePath, byte type) throws IOException {
+            this.type = type;
+            this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_BYTES);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int off = 0;
+            while (off < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - off);
+                buffer.put(bytes, off, n);
+                off += n;
+            }
+        }
+
+        // Dictionary entries as int length + UTF-8 bytes, after the codes
+        void putDictionary(List<String> entries) throws IOException {
+            for (String entry : entries) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                putInt(bytes.length);
+                putBytes(bytes);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            payloadBytes += buffer.remaining();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void finish(long rows, int dictEntries) throws IOException {
+            finish(rows, dictEntries, 0);
+        }
+
+        void finish(long rows, int dictEntries, long sourceChecksum) throws IOException {
+            flush();
+            writeHeader(channel, type, rows, payloadBytes, crc.getValue(), dictEntries, sourceChecksum);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Composable filter over the loaded columns, e.g.
+ *
+ *   ColumnPredicate.and(
+ *       ColumnPredicate.in("town", "BEDOK", "TAMPINES"),
+ *       ColumnPredicate.monthBetween("2019-03", "2019-06"),
+ *       ColumnPredicate.atLeast("floor_area_sqm", 90),
+ *       ColumnPredicate.eq("flat_type", "4 ROOM"))
+ *
+ * Columns are named as in the CSV header: month, town, flat_type, block,
+ * street_name, storey_range, floor_area_sqm, flat_model,
+ * lease_commence_date and resale_price. String columns take IN-lists,
+ * numeric columns take inclusive ranges and IN-lists, and month takes
+ * "YYYY-MM" values. A predicate only describes the filter; DataAnalyzer
+ * compiles it into a ScanPipeline against its current columns.
+ */
+public abstract class ColumnPredicate {
+    public static final String MONTH = "month";
+    public static final String TOWN = "town";
+    public static final String FLAT_TYPE = "flat_type";
+    public static final String BLOCK = "block";
+    public static final String STREET_NAME = "street_name";
+    public static final String STOREY_RANGE = "storey_range";
+    public static final String FLOOR_AREA = "floor_area_sqm";
+    public static final String FLAT_MODEL = "flat_model";
+    public static final String LEASE_COMMENCE_DATE = "lease_commence_date";
+    public static final String RESALE_PRICE = "resale_price";
+
+    private ColumnPredicate() {}
+
+    // Bind to the columns of analyzer; fails for unknown or unloaded columns
+    abstract ScanPipeline.Step bind(DataAnalyzer analyzer);
+
+    abstract void addColumns(Set<String> columns);
+
+    // False when the partition's month range or towns rule out every row; other columns are not judged
+    abstract boolean mayMatch(PartitionedStore.Partition partition);
+
+    // Columns the predicate reads, i.e. the projection of a filter; the only ones a lazily opened store loads for it
+    public Set<String> columns() {
+        Set<String> columns = new LinkedHashSet<>();
+        addColumns(columns);
+        return columns;
+    }
+
+    public static ColumnPredicate eq(String column, String value) {
+        return in(column, value);
+    }
+
+    // String column equal to any of values; for month the values are "YYYY-MM"
+    public static ColumnPredicate in(String column, String... values) {
+        if (column.equals(MONTH)) {
+            List<ColumnPredicate> months = new ArrayList<>();
+            for (String value : values) months.add(monthBetween(value, value));
+            return months.size() == 1 ? months.get(0) : new Or(months);
+        }
+        return new StringIn(column, values.clone());
+    }
+
+    // Numeric column equal to any of values
+    public static ColumnPredicate in(String column, double... values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return new NumberIn(column, sorted);
+    }
+
+    // lo <= column <= hi
+    public static ColumnPredicate between(String column, double lo, double hi) {
+        if (column.equals(MONTH)) throw new IllegalArgumentException("Use monthBetween for the month column");
+        return new Range(column, lo, hi);
+    }
+
+    public static ColumnPredicate atLeast(String column, double lo) {
+        return between(column, lo, Double.POSITIVE_INFINITY);
+    }
+
+    public static ColumnPredicate atMost(String column, double hi) {
+        return between(column, Double.NEGATIVE_INFINITY, hi);
+    }
+
+    // Months from..to inclusive, both "YYYY-MM"
+    public static ColumnPredicate monthBetween(String from, String to) {
+        int lo = YearMonths.parse(from);
+        int hi = YearMonths.parse(to);
+        if (lo == YearMonths.INVALID || hi == YearMonths.INVALID) {
+            throw new IllegalArgumentException("Expected YYYY-MM months, got " + from + " and " + to);
+        }
+        return new MonthRange(lo, hi);
+    }
+
+    // The months consecutive months starting at year-startMonth, e.g. the two-month window of Main
+    public static ColumnPredicate window(int year, int startMonth, int months) {
+        int lo = YearMonths.pack(year, startMonth);
+        return new MonthRange(lo, lo + months - 1);
+    }
+
+    public static ColumnPredicate and(ColumnPredicate... terms) {
+        return new And(flatten(And.class, terms));
+    }
+
+    public static ColumnPredicate or(ColumnPredicate... terms) {
+        return new Or(flatten(Or.class, terms));
+    }
+
+    // Terms of a top-level AND, or just this predicate
+    List<ColumnPredicate> conjuncts() {
+        return this instanceof And ? ((And) this).terms : List.of(this);
+    }
+
+    private static List<ColumnPredicate> flatten(Class<?> kind, ColumnPredicate[] terms) {
+        if (terms.length == 0) throw new IllegalArgumentException("Need at least one predicate");
+        List<ColumnPredicate> flat = new ArrayList<>();
+        for (ColumnPredicate term : terms) {
+            if (kind.isInstance(term)) flat.addAll(kind == And.class ? ((And) term).terms : ((Or) term).terms);
+            else flat.add(term);
+        }
+        return flat;
+    }
+
+    private static final class StringIn extends ColumnPredicate {
+        private final String column;
+        private final String[] values;
+
+        StringIn(String column, String[] values) {
+            this.column = column;
+            this.values = values;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            if (!column.equals(TOWN)) return true;
+            for (String value : values) {
+                if (partition.containsTown(value)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            return ScanPipeline.stringIn(analyzer, column, values, toString());
+        }
+
+        @Override
+        public String toString() {
+            return values.length == 1 ? column + " = '" + values[0] + "'"
+                : column + " IN ('" + String.join("', '", values) + "')";
+        }
+    }
+
+    private static final class NumberIn extends ColumnPredicate {
+        private final String column;
+        private final double[] values;
+
+        NumberIn(String column, double[] values) {
+            this.column = column;
+            this.values = values;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            return true;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            return ScanPipeline.numberIn(analyzer, column, values, toString());
+        }
+
+        @Override
+        public String toString() {
+            return column + " IN " + Arrays.toString(values);
+        }
+    }
+
+    private static final class Range extends ColumnPredicate {
+        private final String column;
+        private final double lo, hi;
+
+        Range(String column, double lo, double hi) {
+            this.column = column;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            return true;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            return ScanPipeline.range(analyzer, column, lo, hi, toString());
+        }
+
+        @Override
+        public String toString() {
+            if (hi == Double.POSITIVE_INFINITY) return column + " >= " + lo;
+            if (lo == Double.NEGATIVE_INFINITY) return column + " <= " + hi;
+            return column + " BETWEEN " + lo + " AND " + hi;
+        }
+    }
+
+    private static final class MonthRange extends ColumnPredicate {
+        private final int lo, hi;
+
+        MonthRange(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(MONTH);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            return lo <= partition.getLastMonth() && partition.getFirstMonth() <= hi;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            return ScanPipeline.monthRange(analyzer, lo, hi, toString());
+        }
+
+        @Override
+        public String toString() {
+            return lo == hi ? MONTH + " = " + YearMonths.format(lo)
+                : MONTH + " BETWEEN " + YearMonths.format(lo) + " AND " + YearMonths.format(hi);
+        }
+    }
+
+    private static final class And extends ColumnPredicate {
+        private final List<ColumnPredicate> terms;
+
+        And(List<ColumnPredicate> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            for (ColumnPredicate term : terms) term.addColumns(columns);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            for (ColumnPredicate term : terms) {
+                if (!term.mayMatch(partition)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            List<ScanPipeline.Step> steps = new ArrayList<>();
+            for (ColumnPredicate term : terms) steps.add(term.bind(analyzer));
+            return ScanPipeline.and(steps, toString());
+        }
+
+        @Override
+        public String toString() {
+            return join(terms, " AND ");
+        }
+    }
+
+    private static final class Or extends ColumnPredicate {
+        private final List<ColumnPredicate> terms;
+
+        Or(List<ColumnPredicate> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            for (ColumnPredicate term : terms) term.addColumns(columns);
+        }
+
+        @Override
+        boolean mayMatch(PartitionedStore.Partition partition) {
+            for (ColumnPredicate term : terms) {
+                if (term.mayMatch(partition)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        ScanPipeline.Step bind(DataAnalyzer analyzer) {
+            List<ScanPipeline.Step> steps = new ArrayList<>();
+            for (ColumnPredicate term : terms) steps.add(term.bind(analyzer));
+            return ScanPipeline.or(steps, toString());
+        }
+
+        @Override
+        public String toString() {
+            return join(terms, " OR ");
+        }
+    }
+
+    private static String join(List<ColumnPredicate> terms, String operator) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < terms.size(); i++) {
+            if (i > 0) sb.append(operator);
+            sb.append(terms.get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -1,19 +1,66 @@
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.stream.Stream;
 
+/**
+ * Column store on disk: a base directory of column files, zone maps and
+ * indexes, plus zero or more appended segments (segment-0001, ...) laid out
+ * the same way. Segments hold only the rows ingested by appendCSV, with row
+ * numbers local to the segment and dictionary codes shared with the base, so
+ * loading them is a concatenation; compact() folds them back into the base.
+ * createPartitionedStore() lays the same files out per year (and town)
+ * instead, for PartitionedStore to open only the partitions a query needs.
+ */
 public class ColumnarStorage {
-    private DataAnalyzer dataAnalyzer;
+    private static final String SEGMENT_PREFIX = "segment-";
+    // Written into storeDir.compacting once it holds the whole merged store; see recoverCompaction
+    private static final String COMPACTED_MARKER = "compacted";
+    // Appends and compactions of one JVM are serialized; concurrent writers from other processes are not supported
+    private static final Object STORE_WRITE_LOCK = new Object();
+    // Columns are written compressed unless -Dcolumnstore.compress=false
+    private static final boolean COMPRESS = !"false".equals(System.getProperty("columnstore.compress"));
+    // Columns other than month and town are read when a query first needs them unless -Dcolumnstore.lazy=false
+    private static final boolean LAZY = !"false".equals(System.getProperty("columnstore.lazy"));
+    // Lazily read columns and their files
+    private static final Map<String, String> LAZY_COLUMN_FILES = new LinkedHashMap<>();
+    static {
+        LAZY_COLUMN_FILES.put(ColumnPredicate.FLOOR_AREA, "floor_areas.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.RESALE_PRICE, "resale_prices.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.FLAT_TYPE, "flat_types.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.BLOCK, "block.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.STREET_NAME, "street_name.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.STOREY_RANGE, "storey_range.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.FLAT_MODEL, "flat_model.bin");
+        LAZY_COLUMN_FILES.put(ColumnPredicate.LEASE_COMMENCE_DATE, "lease_commence_date.bin");
+    }
+
+    private volatile DataAnalyzer dataAnalyzer; // Current snapshot; appends publish a new one instead of changing it
+    private String storeDir; // Column store the current data was loaded from or written to, if any
     
     public ColumnarStorage() {
         dataAnalyzer = new DataAnalyzer();
     }
     
-    // Load CSV file with error handling
+    // Load CSV file with error handling, parsing byte ranges on all cores
     public void loadCSV(String filePath) {
-        dataAnalyzer.loadCSV(filePath);
+        loadCSV(filePath, Runtime.getRuntime().availableProcessors());
+    }
+
+    // parallelism 1 uses the single-threaded DataAnalyzer.loadCSV
+    public void loadCSV(String filePath, int parallelism) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.LOAD, filePath)) {
+            storeDir = null;
+            if (parallelism <= 1) {
+                dataAnalyzer.loadCSV(filePath);
+            } else {
+                ParallelCsvLoader.load(filePath, dataAnalyzer, parallelism);
+            }
+            if (op != null) op.read(new File(filePath).length()).qualified(dataAnalyzer.size());
+        }
     }
     
-    // Get the data analyzer instance
+    // Current snapshot of the data; keep using the same instance for all steps of one query
     public DataAnalyzer getDataAnalyzer() {
         return dataAnalyzer;
     }
@@ -26,45 +73,518 @@ public class ColumnarStorage {
             if (!dir.exists()) {
                 dir.mkdirs();
             }
-            
-            // Write each column to a separate file
-            writeColumnToFile(outputDir + "/months.txt", dataAnalyzer.getMonths());
-            writeColumnToFile(outputDir + "/towns.txt", dataAnalyzer.getTowns());
-            writeColumnToFile(outputDir + "/floor_areas.txt", dataAnalyzer.getFloorAreas());
-            writeColumnToFile(outputDir + "/resale_prices.txt", dataAnalyzer.getResalePrices());
+            // The new base holds every row, so segments appended to an older base must go, as must partitions
+            for (File segment : listSegments(outputDir)) {
+                deleteRecursively(segment.toPath());
+            }
+            PartitionedStore.delete(outputDir);
+
             dataAnalyzer.buildYearMonthTownIndex();
-            // Debug
-            // Check output directory for composite index
-            // System.err.println("composite index file: " + outputDir + "/composite_index.txt");
-            // Write composite index to file
-            dataAnalyzer.writeCompositeIndexToFile(outputDir + "/composite_index.txt");
+            writeStoreFiles(outputDir, dataAnalyzer);
+            storeDir = outputDir;
 
-            
             System.out.println("Column store created successfully in " + outputDir);
         } catch (IOException e) {
             System.err.println("Error creating column store: " + e.getMessage());
             e.printStackTrace();
         }
     }
-    
-    private void writeColumnToFile(String filePath, List<?> column) throws IOException {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            for (Object value : column) {
-                writer.println(value);
+
+    /**
+     * Write the column store for a CSV file without loading it, one row group
+     * at a time (see CsvStoreConverter), so files larger than the heap can be
+     * converted. The result is the store createColumnStore would write after
+     * loadCSV; segments appended to an older store in outputDir are removed.
+     * Returns the number of rows written.
+     */
+    public static int convertCSV(String csvPath, String outputDir) {
+        synchronized (STORE_WRITE_LOCK) {
+            long startTime = System.nanoTime();
+            try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.LOAD, "convert " + csvPath)) {
+                for (File segment : listSegments(outputDir)) {
+                    deleteRecursively(segment.toPath());
+                }
+                PartitionedStore.delete(outputDir);
+                int rows = CsvStoreConverter.convert(csvPath, outputDir, COMPRESS);
+                if (op != null) op.read(new File(csvPath).length()).qualified(rows);
+                long endTime = System.nanoTime();
+                System.out.println("Converted " + rows + " rows from " + csvPath + " into " + outputDir
+                    + " in " + (endTime - startTime) / 1_000_000 + " ms");
+                return rows;
+            } catch (IOException e) {
+                System.err.println("Error converting " + csvPath + ": " + e.getMessage());
+                e.printStackTrace();
+                return 0;
             }
         }
     }
-    
+
+    /**
+     * Write the loaded table as a partitioned store in outputDir: one store
+     * directory per year, or per year and town when byTown, and the manifest
+     * listing them (see PartitionedStore). The manifest is written once every
+     * partition is complete; a flat store, its segments or older partitions in
+     * outputDir are removed. Returns the number of partitions written.
+     */
+    public int createPartitionedStore(String outputDir, boolean byTown) {
+        synchronized (STORE_WRITE_LOCK) {
+            try {
+                long startTime = System.nanoTime();
+                DataAnalyzer analyzer = dataAnalyzer;
+                Map<String, int[]> groups = PartitionedStore.partitionRows(analyzer, byTown);
+                Files.createDirectories(Paths.get(outputDir));
+                PartitionedStore.delete(outputDir);
+                List<PartitionedStore.Partition> partitions = new ArrayList<>();
+                for (Map.Entry<String, int[]> group : groups.entrySet()) {
+                    String path = group.getKey();
+                    DataAnalyzer part = analyzer.subset(group.getValue()); // Reads every column of the flat store
+                    File dir = new File(outputDir, path);
+                    deleteRecursively(dir.toPath());
+                    dir.mkdirs();
+                    writeStoreFiles(dir.getPath(), part);
+                    partitions.add(PartitionedStore.describe(outputDir, path, part, byTown));
+                }
+                PartitionedStore.writeManifest(outputDir, partitions);
+                deleteFlatStore(outputDir);
+                storeDir = null;
+                long endTime = System.nanoTime();
+                System.out.println("Partitioned " + analyzer.size() + " rows into " + partitions.size()
+                    + " partitions by " + (byTown ? "year and town" : "year") + " in " + outputDir
+                    + " in " + (endTime - startTime) / 1_000_000 + " ms");
+                return partitions.size();
+            } catch (IOException e) {
+                System.err.println("Error creating partitioned store: " + e.getMessage());
+                e.printStackTrace();
+                return 0;
+            }
+        }
+    }
+
+    // Column files, zone maps and indexes of a flat store in dir, and its segments
+    private static void deleteFlatStore(String dir) throws IOException {
+        for (File segment : listSegments(dir)) {
+            deleteRecursively(segment.toPath());
+        }
+        File[] files = new File(dir).listFiles((d, name) -> name.endsWith(".bin") || name.endsWith(".idx"));
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isFile()) Files.delete(file.toPath());
+        }
+    }
+
+    // Write each column to a separate binary file, plus zone maps and indexes
+    private static void writeStoreFiles(String outputDir, DataAnalyzer analyzer) throws IOException {
+        int rows = analyzer.size();
+        writeInts(outputDir + "/months.bin", analyzer.getYearMonths(), rows);
+        writeDictionary(outputDir + "/towns.bin", analyzer.getTowns());
+        writeDictionary(outputDir + "/flat_types.bin", analyzer.getFlatTypes());
+        writeDictionary(outputDir + "/block.bin", analyzer.getBlocks());
+        writeDictionary(outputDir + "/street_name.bin", analyzer.getStreetNames());
+        writeDictionary(outputDir + "/storey_range.bin", analyzer.getStoreyRanges());
+        writeDictionary(outputDir + "/flat_model.bin", analyzer.getFlatModels());
+        analyzer.getBlockStatistics().writeTo(outputDir + "/block_stats.bin");
+        writeDoubles(outputDir + "/floor_areas.bin", analyzer.getFloorAreas(), rows);
+        writeDoubles(outputDir + "/resale_prices.bin", analyzer.getResalePrices(), rows);
+        // Empty when some of the data came from a store written before lease dates were persisted
+        if (analyzer.getLeaseCommenceDates().length >= rows) {
+            writeDoubles(outputDir + "/lease_commence_date.bin", analyzer.getLeaseCommenceDates(), rows);
+        }
+        writeIndexes(outputDir, analyzer);
+    }
+
+    // Compressed blocks line up with the zone-map blocks, so both describe the same rows
+    private static void writeInts(String filePath, int[] values, int rows) throws IOException {
+        if (COMPRESS) ColumnFile.writeEncodedInts(filePath, values, rows, BlockStatistics.DEFAULT_BLOCK_ROWS);
+        else ColumnFile.writeInts(filePath, values, rows);
+    }
+
+    private static void writeDoubles(String filePath, double[] values, int rows) throws IOException {
+        if (COMPRESS) ColumnFile.writeEncodedDoubles(filePath, values, rows, BlockStatistics.DEFAULT_BLOCK_ROWS);
+        else ColumnFile.writeDoubles(filePath, values, rows);
+    }
+
+    private static void writeDictionary(String filePath, DictionaryColumn column) throws IOException {
+        if (COMPRESS) ColumnFile.writeEncodedDictionary(filePath, column, BlockStatistics.DEFAULT_BLOCK_ROWS);
+        else ColumnFile.writeDictionary(filePath, column);
+    }
+
+    // Persist the town, year, month and composite indexes next to the columns they index
+    private static void writeIndexes(String outputDir, DataAnalyzer analyzer) throws IOException {
+        int rows = analyzer.size();
+        int[] yearMonths = analyzer.getYearMonths();
+        int[] townCodes = analyzer.getTowns().codes();
+        ColumnFile monthsFile = ColumnFile.open(outputDir + "/months.bin");
+        ColumnFile townsFile = ColumnFile.open(outputDir + "/towns.bin");
+        RowIndexFile.write(outputDir + "/town.idx", rows, i -> townCodes[i],
+            RowIndexFile.sourceChecksum(townsFile));
+        RowIndexFile.write(outputDir + "/year.idx", rows, i -> YearMonths.year(yearMonths[i]),
+            RowIndexFile.sourceChecksum(monthsFile));
+        RowIndexFile.write(outputDir + "/month.idx", rows, i -> YearMonths.month(yearMonths[i]),
+            RowIndexFile.sourceChecksum(monthsFile));
+        RowIndexFile.write(outputDir + "/composite.idx", rows, i -> DataAnalyzer.compositeKey(yearMonths[i], townCodes[i]),
+            RowIndexFile.sourceChecksum(monthsFile, townsFile));
+    }
+
+    /**
+     * Map the persisted indexes of the base and every segment and present each
+     * kind as one SegmentedRowIndex. An index kind that is missing or stale in
+     * any directory is left out and rebuilt from the columns on first use.
+     */
+    private static void attachIndexes(String inputDir, DataAnalyzer analyzer) throws IOException {
+        SegmentedRowIndex townIndex = new SegmentedRowIndex();
+        SegmentedRowIndex compositeIndex = new SegmentedRowIndex();
+        SegmentedRowIndex yearIndex = new SegmentedRowIndex();
+        SegmentedRowIndex monthIndex = new SegmentedRowIndex();
+        boolean townOk = true, compositeOk = true, yearOk = true, monthOk = true;
+        for (String dir : storeDirectories(inputDir)) {
+            ColumnFile monthsFile = ColumnFile.open(dir + "/months.bin");
+            ColumnFile townsFile = ColumnFile.open(dir + "/towns.bin");
+            townOk = addIndex(townIndex, townOk, dir + "/town.idx", townsFile);
+            compositeOk = addIndex(compositeIndex, compositeOk, dir + "/composite.idx", monthsFile, townsFile);
+            yearOk = addIndex(yearIndex, yearOk, dir + "/year.idx", monthsFile);
+            monthOk = addIndex(monthIndex, monthOk, dir + "/month.idx", monthsFile);
+        }
+        if (townOk) analyzer.setTownIndex(townIndex);
+        if (compositeOk) analyzer.setCompositeIndex(compositeIndex);
+        if (yearOk && monthOk) {
+            analyzer.setTownZoneMapper(TownZoneMapper.load(yearIndex, monthIndex, analyzer.size()));
+        }
+    }
+
+    private static boolean addIndex(SegmentedRowIndex segmented, boolean ok, String filePath, ColumnFile... sources)
+            throws IOException {
+        if (!ok) return false;
+        RowIndexFile index = openIndex(filePath, sources);
+        if (index == null) return false;
+        segmented.addSegment(index);
+        return true;
+    }
+
+    private static RowIndexFile openIndex(String filePath, ColumnFile... sources) throws IOException {
+        if (!new File(filePath).exists()) return null;
+        RowIndexFile index = RowIndexFile.open(filePath);
+        if (!index.matches(sources)) {
+            System.err.println("Ignoring stale index file: " + filePath);
+            return null;
+        }
+        return index;
+    }
+
+    // Check whether a directory holds a binary column store
+    public static boolean hasBinaryColumnStore(String dir) {
+        return new File(dir, "months.bin").exists();
+    }
+
+    /**
+     * Ingest a delta CSV, e.g. one month of new transactions, as a new segment of
+     * the column store in storeDir. Only the delta is parsed, encoded, indexed and
+     * written; its dictionaries extend those of the newest segment, so town codes
+     * and composite keys mean the same in every segment. If this storage holds
+     * that store, a copy of its analyzer is extended in memory and then published
+     * as the new snapshot, so queries running meanwhile are neither blocked nor
+     * see a half-appended table. Returns the number of rows appended.
+     */
+    public int appendCSV(String csvPath, String storeDir) {
+        if (PartitionedStore.exists(storeDir)) {
+            System.err.println("Appending to the partitioned store in " + storeDir + " is not supported");
+            return 0;
+        }
+        if (!hasBinaryColumnStore(storeDir)) {
+            System.err.println("No binary column store in " + storeDir + " to append to");
+            return 0;
+        }
+        synchronized (STORE_WRITE_LOCK) {
+            try {
+                long startTime = System.nanoTime();
+                ColumnarStorage deltaStorage = new ColumnarStorage();
+                deltaStorage.loadCSV(csvPath);
+                DataAnalyzer delta = deltaStorage.getDataAnalyzer();
+                if (delta.size() == 0) {
+                    System.out.println("No rows to append from " + csvPath);
+                    return 0;
+                }
+                DataAnalyzer segment = encodeSegment(delta, latestDirectory(storeDir));
+
+                // Write next to the store and rename, so a half-written segment is never loaded
+                List<File> segments = listSegments(storeDir);
+                String name = String.format("%s%04d", SEGMENT_PREFIX,
+                    segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size() - 1)) + 1);
+                File tmpDir = new File(storeDir, name + ".tmp");
+                tmpDir.mkdirs();
+                writeStoreFiles(tmpDir.getPath(), segment);
+                Files.move(tmpDir.toPath(), new File(storeDir, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+                if (storeDir.equals(this.storeDir)) {
+                    // Appending the segment as stored keeps the columns the snapshot has not read unread
+                    DataAnalyzer next = dataAnalyzer.copy();
+                    next.append(readStoreDirectory(storeDir + "/" + name));
+                    attachIndexes(storeDir, next);
+                    dataAnalyzer = next;
+                }
+                long endTime = System.nanoTime();
+                System.out.println("Appended " + segment.size() + " rows to " + storeDir + " as " + name
+                    + " in " + (endTime - startTime) / 1_000_000 + " ms");
+                return segment.size();
+            } catch (IOException e) {
+                System.err.println("Error appending to column store: " + e.getMessage());
+                e.printStackTrace();
+                return 0;
+            }
+        }
+    }
+
+    // Re-encode the delta's string columns against the dictionaries stored in dir
+    private static DataAnalyzer encodeSegment(DataAnalyzer delta, String dir) throws IOException {
+        DataAnalyzer segment = new DataAnalyzer();
+        segment.setYearMonths(delta.getYearMonths());
+        segment.setTowns(extendDictionary(dir + "/towns.bin", delta.getTowns()));
+        segment.setFloorAreas(delta.getFloorAreas());
+        segment.setResalePrices(delta.getResalePrices());
+        segment.setLeaseCommenceDates(delta.getLeaseCommenceDates());
+        segment.setFlatTypes(extendDictionary(dir + "/flat_types.bin", delta.getFlatTypes()));
+        segment.setBlocks(extendDictionary(dir + "/block.bin", delta.getBlocks()));
+        segment.setStreetNames(extendDictionary(dir + "/street_name.bin", delta.getStreetNames()));
+        segment.setStoreyRanges(extendDictionary(dir + "/storey_range.bin", delta.getStoreyRanges()));
+        segment.setFlatModels(extendDictionary(dir + "/flat_model.bin", delta.getFlatModels()));
+        return segment;
+    }
+
+    // Delta rows encoded with the stored dictionary, which only ever grows at the end
+    private static DictionaryColumn extendDictionary(String filePath, DictionaryColumn delta) throws IOException {
+        DictionaryColumn column = new File(filePath).exists()
+            ? DictionaryColumn.of(ColumnFile.open(filePath).getDictionary(), new int[0])
+            : new DictionaryColumn();
+        column.appendAll(delta);
+        return column;
+    }
+
+    public static int segmentCount(String storeDir) {
+        return listSegments(storeDir).size();
+    }
+
+    /**
+     * Fold every appended segment back into a single base directory. The merged
+     * store is written to storeDir.compacting, marked complete, and swapped in
+     * with two directory renames through storeDir.old. A crash between them
+     * leaves no storeDir; recoverCompaction, run before the store is next
+     * opened, finishes the swap or puts the old store back. Costs a full
+     * rewrite, which is why it runs apart from appendCSV.
+     */
+    public static void compact(String storeDir) {
+        synchronized (STORE_WRITE_LOCK) {
+            recoverCompaction(storeDir);
+            int segments = segmentCount(storeDir);
+            if (segments == 0) return;
+            Path store = Paths.get(storeDir);
+            Path compacting = Paths.get(storeDir + ".compacting");
+            Path old = Paths.get(storeDir + ".old");
+            try {
+                long startTime = System.nanoTime();
+                DataAnalyzer analyzer = readStore(storeDir);
+                deleteRecursively(compacting);
+                Files.createDirectories(compacting);
+                writeStoreFiles(compacting.toString(), analyzer);
+                Files.createFile(compacting.resolve(COMPACTED_MARKER)); // Last, so recovery never swaps in a partial store
+                deleteRecursively(old);
+                Files.move(store, old, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(compacting, store, StandardCopyOption.ATOMIC_MOVE);
+                deleteRecursively(old);
+                Files.delete(store.resolve(COMPACTED_MARKER));
+                long endTime = System.nanoTime();
+                System.out.println("Compacted " + segments + " segments of " + storeDir + " ("
+                    + analyzer.size() + " rows) in " + (endTime - startTime) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                System.err.println("Error compacting column store: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Repair what an interrupted compact() left behind. Without storeDir, a
+     * complete storeDir.compacting is moved into place, otherwise storeDir.old
+     * is moved back; either way no appended segment is lost. Leftovers beside
+     * an intact storeDir are deleted. Call before opening or writing the store.
+     */
+    public static void recoverCompaction(String storeDir) {
+        synchronized (STORE_WRITE_LOCK) {
+            Path store = Paths.get(storeDir);
+            Path compacting = Paths.get(storeDir + ".compacting");
+            Path old = Paths.get(storeDir + ".old");
+            try {
+                if (!Files.exists(store)) {
+                    if (Files.exists(compacting.resolve(COMPACTED_MARKER))) {
+                        Files.move(compacting, store, StandardCopyOption.ATOMIC_MOVE);
+                        System.out.println("Finished an interrupted compaction of " + storeDir);
+                    } else if (Files.exists(old)) {
+                        Files.move(old, store, StandardCopyOption.ATOMIC_MOVE);
+                        System.out.println("Restored " + storeDir + " after an interrupted compaction");
+                    }
+                }
+                if (!Files.exists(store)) return;
+                deleteRecursively(compacting);
+                deleteRecursively(old);
+                Files.deleteIfExists(store.resolve(COMPACTED_MARKER));
+            } catch (IOException e) {
+                System.err.println("Error recovering column store " + storeDir + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Run compact() on a background thread; the JVM does not exit until it finishes
+    public static Thread compactInBackground(String storeDir) {
+        Thread thread = new Thread(() -> compact(storeDir), "column-store-compaction");
+        thread.start();
+        return thread;
+    }
+
+    // Appended segment directories in append order
+    private static List<File> listSegments(String storeDir) {
+        File[] dirs = new File(storeDir).listFiles((dir, name) -> name.matches(SEGMENT_PREFIX + "\\d+"));
+        List<File> segments = new ArrayList<>();
+        if (dirs != null) {
+            segments.addAll(Arrays.asList(dirs));
+            segments.sort(Comparator.comparingInt(ColumnarStorage::segmentNumber));
+        }
+        return segments;
+    }
+
+    private static int segmentNumber(File segment) {
+        return Integer.parseInt(segment.getName().substring(SEGMENT_PREFIX.length()));
+    }
+
+    // The base directory followed by every segment directory
+    private static List<String> storeDirectories(String storeDir) {
+        List<String> dirs = new ArrayList<>();
+        dirs.add(storeDir);
+        for (File segment : listSegments(storeDir)) dirs.add(segment.getPath());
+        return dirs;
+    }
+
+    // Newest directory, whose dictionaries contain those of all earlier ones
+    private static String latestDirectory(String storeDir) {
+        List<String> dirs = storeDirectories(storeDir);
+        return dirs.get(dirs.size() - 1);
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(path)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList(); // Children before their directory
+        }
+        for (Path p : paths) Files.delete(p);
+    }
+
     public void loadColumnStore(String inputDir) {
+        if (hasBinaryColumnStore(inputDir)) {
+            loadBinaryColumnStore(inputDir);
+        } else {
+            loadTextColumnStore(inputDir);
+        }
+    }
+
+    // Map the binary column files of the base and its segments; only the headers and dictionaries are read eagerly
+    private void loadBinaryColumnStore(String inputDir) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.LOAD, inputDir)) {
+            DataAnalyzer analyzer = openStore(inputDir);
+            if (op != null) op.read(8L * analyzer.size()).qualified(analyzer.size()); // Months and towns; see readColumn for the rest
+            dataAnalyzer = analyzer;
+            storeDir = inputDir;
+            System.out.println("Column store loaded successfully from " + inputDir);
+        } catch (IOException e) {
+            System.err.println("Error loading column store: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // The store in inputDir with its persisted indexes; columns other than month and town stay unread
+    static DataAnalyzer openStore(String inputDir) throws IOException {
+        DataAnalyzer analyzer = readStore(inputDir);
+        attachIndexes(inputDir, analyzer);
+        return analyzer;
+    }
+
+    // Base columns followed by the rows of every appended segment, without indexes
+    private static DataAnalyzer readStore(String inputDir) throws IOException {
+        DataAnalyzer analyzer = readStoreDirectory(inputDir);
+        for (File segment : listSegments(inputDir)) {
+            analyzer.append(readStoreDirectory(segment.getPath()));
+        }
+        return analyzer;
+    }
+
+    /**
+     * Columns and zone maps of one directory: the base or a single segment.
+     * Only months and towns are read here; the other columns are mapped and
+     * their headers checked, and each is read the first time a query asks
+     * for it (DataAnalyzer.setUnreadColumns).
+     */
+    private static DataAnalyzer readStoreDirectory(String inputDir) throws IOException {
+        DataAnalyzer analyzer = new DataAnalyzer();
+
+        ColumnFile monthsFile = ColumnFile.open(inputDir + "/months.bin");
+        ColumnFile townsFile = ColumnFile.open(inputDir + "/towns.bin");
+        int rows = monthsFile.getRowCount();
+        if (townsFile.getRowCount() != rows) {
+            throw new IOException("Column files in " + inputDir + " have different row counts");
+        }
+        // Descriptive columns are optional in stores written before they were persisted
+        StoreColumns columns = StoreColumns.open(inputDir, rows, LAZY_COLUMN_FILES);
+        if (!columns.contains(ColumnPredicate.FLOOR_AREA) || !columns.contains(ColumnPredicate.RESALE_PRICE)) {
+            throw new IOException("Floor area or resale price column missing or mismatched in " + inputDir);
+        }
+
+        // Primitive columns are bulk-copied straight out of the mapping, no parsing needed
+        analyzer.setYearMonths(readYearMonths(monthsFile));
+        analyzer.setTowns(townsFile.readDictionaryColumn());
+        if (monthsFile.getEncodedColumn() != null) analyzer.setEncodedYearMonths(monthsFile.getEncodedColumn());
+        analyzer.setUnreadColumns(columns);
+        if (!LAZY) analyzer.loadColumns(columns.columns());
+
+        // Zone maps are persisted with the columns; rebuilt on first scan if missing or stale
+        File statsFile = new File(inputDir, "block_stats.bin");
+        if (statsFile.exists()) {
+            BlockStatistics stats = BlockStatistics.readFrom(statsFile.getPath());
+            if (stats.getRowCount() == rows) analyzer.setBlockStatistics(stats);
+        }
+        return analyzer;
+    }
+
+    // months.bin holds packed ints; stores written before that hold "YYYY-MM" dictionary codes
+    private static int[] readYearMonths(ColumnFile monthsFile) throws IOException {
+        if (monthsFile.isIntColumn()) {
+            return monthsFile.readInts();
+        }
+        if (monthsFile.getType() != ColumnFile.TYPE_DICT32) {
+            throw new IOException("Unexpected column type for " + monthsFile.getPath());
+        }
+        // Parse each distinct month once, then map the codes
+        String[] dictionary = monthsFile.getDictionary();
+        int[] packed = new int[dictionary.length];
+        for (int i = 0; i < dictionary.length; i++) {
+            packed[i] = YearMonths.parse(dictionary[i]);
+        }
+        int[] yearMonths = monthsFile.readInts();
+        for (int i = 0; i < yearMonths.length; i++) {
+            yearMonths[i] = packed[yearMonths[i]];
+        }
+        return yearMonths;
+    }
+
+    // Legacy one-value-per-line text column store
+    private void loadTextColumnStore(String inputDir) {
         try {
             // Clear existing data
             dataAnalyzer = new DataAnalyzer();
+            storeDir = null;
             
             // Load each column from its file
-            List<String> months = new ArrayList<>();
-            List<String> towns = new ArrayList<>();
-            List<Double> floorAreas = new ArrayList<>();
-            List<Double> resalePrices = new ArrayList<>();
+            IntList months = new IntList();
+            DictionaryColumn towns = new DictionaryColumn();
+            DoubleList floorAreas = new DoubleList();
+            DoubleList resalePrices = new DoubleList();
             
             // Load each column in parallel, dropping incomplete rows
             try (
@@ -89,10 +609,15 @@ public class ColumnarStorage {
                             + monthLine + ", " + townLine + ", " + areaLine + ", " + priceLine);
                         continue;  // drop incomplete row
                     }
+                    int yearMonth = YearMonths.parse(monthLine);
+                    if (yearMonth == YearMonths.INVALID) {
+                        System.err.println("Skipping row with invalid month: " + monthLine);
+                        continue;
+                    }
                     try {
                         double area  = Double.parseDouble(areaLine);
                         double price = Double.parseDouble(priceLine);
-                        months.add(monthLine);
+                        months.add(yearMonth);
                         towns.add(townLine);
                         floorAreas.add(area);
                         resalePrices.add(price);
@@ -105,10 +630,10 @@ public class ColumnarStorage {
             }
             
             // Load the data into the DataAnalyzer
-            dataAnalyzer.setMonths(months);
+            dataAnalyzer.setYearMonths(months.toArray());
             dataAnalyzer.setTowns(towns);
-            dataAnalyzer.setFloorAreas(floorAreas);
-            dataAnalyzer.setResalePrices(resalePrices);
+            dataAnalyzer.setFloorAreas(floorAreas.toArray());
+            dataAnalyzer.setResalePrices(resalePrices.toArray());
             System.out.println("Column store loaded successfully from " + inputDir);
         } catch (IOException e) {
             System.err.println("Error loading column store: " + e.getMessage());
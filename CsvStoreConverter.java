@@ -0,0 +1,276 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts a CSV export into a binary column store without loading it:
+ * rows are parsed into one row group of BlockStatistics.DEFAULT_BLOCK_ROWS
+ * rows at a time, and each full group is handed to the column writers, the
+ * zone maps and the index key counts before the next one is parsed. The
+ * heap holds one row group, the dictionaries of the six string columns and
+ * a few words per block and per index key, however large the file is.
+ *
+ * All ten columns are written, in the same files createColumnStore writes
+ * and byte for byte identical to them: compressed columns go through
+ * EncodedColumn.StreamEncoder, which spills the encoded blocks until the
+ * block directory is complete, and the four indexes are filled in a second
+ * pass over a spill file of (yearMonth, town) pairs. Rows are validated
+ * like DataAnalyzer.loadCSV.
+ */
+public class CsvStoreConverter {
+    private static final int GROUP_ROWS = BlockStatistics.DEFAULT_BLOCK_ROWS;
+    private static final String[] STRING_COLUMNS = {
+        "towns", "flat_types", "block", "street_name", "storey_range", "flat_model"
+    };
+    private static final int[] STRING_FIELDS = {1, 2, 3, 4, 5, 7}; // CSV field of each string column
+    private static final int TOWN = 0;
+
+    private final String outputDir;
+    private final boolean compress;
+
+    // The row group being parsed
+    private final int[] yearMonths = new int[GROUP_ROWS];
+    private final double[] floorAreas = new double[GROUP_ROWS];
+    private final double[] leaseCommence = new double[GROUP_ROWS];
+    private final double[] resalePrices = new double[GROUP_ROWS];
+    private final int[][] stringCodes = new int[STRING_COLUMNS.length][GROUP_ROWS];
+    private int groupSize;
+
+    private final List<Map<String, Integer>> codeOf = new ArrayList<>();
+    private final List<List<String>> dictionaries = new ArrayList<>();
+    private final List<ColumnSink> sinks = new ArrayList<>();
+    private final List<BlockStatistics> blockStats = new ArrayList<>();
+    private final RowIndexFile.StreamWriter townIndex, yearIndex, monthIndex, compositeIndex;
+    private final Path indexKeysPath;
+    private DataOutputStream indexKeys;
+    private int rows;
+
+    private CsvStoreConverter(String outputDir, boolean compress) {
+        this.outputDir = outputDir;
+        this.compress = compress;
+        for (int c = 0; c < STRING_COLUMNS.length; c++) {
+            codeOf.add(new HashMap<>());
+            dictionaries.add(new ArrayList<>());
+        }
+        townIndex = new RowIndexFile.StreamWriter(outputDir + "/town.idx");
+        yearIndex = new RowIndexFile.StreamWriter(outputDir + "/year.idx");
+        monthIndex = new RowIndexFile.StreamWriter(outputDir + "/month.idx");
+        compositeIndex = new RowIndexFile.StreamWriter(outputDir + "/composite.idx");
+        indexKeysPath = Paths.get(outputDir, "index_keys.tmp");
+    }
+
+    /**
+     * Write the store for csvPath into outputDir (created if needed), with
+     * compressed columns unless compress is false. Returns the number of rows.
+     */
+    public static int convert(String csvPath, String outputDir, boolean compress) throws IOException {
+        Files.createDirectories(Paths.get(outputDir));
+        CsvStoreConverter converter = new CsvStoreConverter(outputDir, compress);
+        try {
+            converter.open();
+            converter.parse(csvPath);
+            converter.finish();
+        } finally {
+            converter.close();
+        }
+        return converter.rows;
+    }
+
+    private void open() throws IOException {
+        sinks.add(new ColumnSink("months", false, null));
+        for (int c = 0; c < STRING_COLUMNS.length; c++) {
+            sinks.add(new ColumnSink(STRING_COLUMNS[c], false, dictionaries.get(c)));
+        }
+        sinks.add(new ColumnSink("floor_areas", true, null));
+        sinks.add(new ColumnSink("lease_commence_date", true, null));
+        sinks.add(new ColumnSink("resale_prices", true, null));
+        indexKeys = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexKeysPath), 1 << 16));
+    }
+
+    private void parse(String csvPath) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(csvPath))) {
+            br.readLine(); // Header
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length < 10) continue;
+
+                // Parse numeric cells first so a bad row never leaves the columns misaligned
+                double floorArea, lease, resalePrice;
+                try {
+                    floorArea = Double.parseDouble(values[6].trim());
+                    lease = Double.parseDouble(values[8].trim());
+                    resalePrice = Double.parseDouble(values[9].trim());
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping invalid row: " + line);
+                    continue;
+                }
+                int yearMonth = YearMonths.parse(values[0].trim());
+                if (yearMonth == YearMonths.INVALID) {
+                    System.err.println("Skipping invalid row: " + line);
+                    continue;
+                }
+
+                int i = groupSize++;
+                yearMonths[i] = yearMonth;
+                floorAreas[i] = floorArea;
+                leaseCommence[i] = lease;
+                resalePrices[i] = resalePrice;
+                for (int c = 0; c < STRING_COLUMNS.length; c++) {
+                    stringCodes[c][i] = intern(c, values[STRING_FIELDS[c]].trim());
+                }
+                if (groupSize == GROUP_ROWS) flushGroup();
+            }
+        }
+        flushGroup();
+    }
+
+    // Dictionary code of value in string column c, assigned in first-seen order like DictionaryColumn
+    private int intern(int c, String value) {
+        Integer code = codeOf.get(c).get(value);
+        if (code == null) {
+            code = dictionaries.get(c).size();
+            codeOf.get(c).put(value, code);
+            dictionaries.get(c).add(value);
+        }
+        return code;
+    }
+
+    // Hand the parsed rows to the column writers, zone maps and index counts, then reuse the buffers
+    private void flushGroup() throws IOException {
+        int n = groupSize;
+        if (n == 0) return;
+        int s = 0;
+        sinks.get(s++).addInts(yearMonths, n);
+        for (int[] codes : stringCodes) sinks.get(s++).addInts(codes, n);
+        sinks.get(s++).addDoubles(floorAreas, n);
+        sinks.get(s++).addDoubles(leaseCommence, n);
+        sinks.get(s).addDoubles(resalePrices, n);
+
+        int[] townCodes = stringCodes[TOWN];
+        blockStats.add(BlockStatistics.build(yearMonths, floorAreas, resalePrices, townCodes, 0, n,
+            dictionaries.get(TOWN).size(), GROUP_ROWS));
+        for (int i = 0; i < n; i++) {
+            townIndex.count(townCodes[i]);
+            yearIndex.count(YearMonths.year(yearMonths[i]));
+            monthIndex.count(YearMonths.month(yearMonths[i]));
+            compositeIndex.count(DataAnalyzer.compositeKey(yearMonths[i], townCodes[i]));
+            indexKeys.writeInt(yearMonths[i]);
+            indexKeys.writeInt(townCodes[i]);
+        }
+        rows += n;
+        groupSize = 0;
+    }
+
+    private void finish() throws IOException {
+        for (ColumnSink sink : sinks) sink.finish();
+        BlockStatistics stats = blockStats.isEmpty()
+            ? BlockStatistics.build(new int[0], new double[0], new double[0], new int[0], 0, 0, GROUP_ROWS)
+            : BlockStatistics.concat(blockStats.toArray(new BlockStatistics[0]));
+        stats.writeTo(outputDir + "/block_stats.bin");
+
+        // Second pass over the spilled keys places every row in its index
+        indexKeys.close();
+        townIndex.start();
+        yearIndex.start();
+        monthIndex.start();
+        compositeIndex.start();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(indexKeysPath), 1 << 16))) {
+            for (int i = 0; i < rows; i++) {
+                int yearMonth = in.readInt();
+                int townCode = in.readInt();
+                townIndex.add(townCode);
+                yearIndex.add(YearMonths.year(yearMonth));
+                monthIndex.add(YearMonths.month(yearMonth));
+                compositeIndex.add(DataAnalyzer.compositeKey(yearMonth, townCode));
+            }
+        }
+        ColumnFile monthsFile = ColumnFile.open(outputDir + "/months.bin");
+        ColumnFile townsFile = ColumnFile.open(outputDir + "/towns.bin");
+        townIndex.finish(RowIndexFile.sourceChecksum(townsFile));
+        yearIndex.finish(RowIndexFile.sourceChecksum(monthsFile));
+        monthIndex.finish(RowIndexFile.sourceChecksum(monthsFile));
+        compositeIndex.finish(RowIndexFile.sourceChecksum(monthsFile, townsFile));
+    }
+
+    private void close() throws IOException {
+        for (ColumnSink sink : sinks) sink.close();
+        if (indexKeys != null) indexKeys.close();
+        Files.deleteIfExists(indexKeysPath);
+        townIndex.close();
+        yearIndex.close();
+        monthIndex.close();
+        compositeIndex.close();
+    }
+
+    /**
+     * One column file written a row group at a time. Fixed-width values go
+     * straight to the file; compressed columns are encoded per group and
+     * assembled by finish(), and dictionary columns get their dictionary
+     * appended there.
+     */
+    private final class ColumnSink implements AutoCloseable {
+        private final String filePath;
+        private final boolean doubles;
+        private final List<String> dictionary; // Filled while parsing; null for numeric columns
+        private ColumnFile.Writer writer;
+        private EncodedColumn.StreamEncoder encoder;
+        private int count;
+
+        ColumnSink(String name, boolean doubles, List<String> dictionary) throws IOException {
+            this.filePath = outputDir + "/" + name + ".bin";
+            this.doubles = doubles;
+            this.dictionary = dictionary;
+            if (compress) {
+                encoder = new EncodedColumn.StreamEncoder(doubles, Paths.get(filePath + ".tmp"));
+            } else {
+                writer = new ColumnFile.Writer(filePath, type());
+            }
+        }
+
+        private byte type() {
+            if (doubles) return compress ? ColumnFile.TYPE_ENCODED_FLOAT64 : ColumnFile.TYPE_FLOAT64;
+            if (dictionary != null) return compress ? ColumnFile.TYPE_ENCODED_DICT32 : ColumnFile.TYPE_DICT32;
+            return compress ? ColumnFile.TYPE_ENCODED_INT32 : ColumnFile.TYPE_INT32;
+        }
+
+        void addInts(int[] values, int n) throws IOException {
+            if (encoder != null) encoder.addInts(values, n);
+            else for (int i = 0; i < n; i++) writer.putInt(values[i]);
+            count += n;
+        }
+
+        void addDoubles(double[] values, int n) throws IOException {
+            if (encoder != null) encoder.addDoubles(values, n);
+            else for (int i = 0; i < n; i++) writer.putDouble(values[i]);
+            count += n;
+        }
+
+        void finish() throws IOException {
+            if (encoder != null) {
+                writer = new ColumnFile.Writer(filePath, type());
+                encoder.writeTo(writer);
+            }
+            if (dictionary != null) writer.putDictionary(dictionary);
+            writer.finish(count, dictionary != null ? dictionary.size() : 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (encoder != null) encoder.close();
+            if (writer != null) writer.close();
+        }
+    }
+}
@@ -2,28 +2,100 @@ import java.io.*;
 import java.util.*;
 
 public class DataAnalyzer {
-    private List<String> months, towns, flat_types, street_name, storey_range, flat_model, block;
-    private List<Double> floorAreas, resalePrices, lease_commence_date;
-    private Map<String, List<Integer>> ZoneMap;  // Map to store all indexes for each town
-    private Map<String, List<Integer>> yearMonthTownIndex; // Composite key index for year, month, town
+    private int size; // Number of loaded rows
+    private int[] yearMonths; // Packed year * 12 + (month - 1), see YearMonths
+    private EncodedColumn encodedYearMonths; // Compressed months column of the store, for run-level window checks
+    // Dictionary-encoded string columns; all but towns are null until read from unreadColumns
+    private DictionaryColumn towns;
+    private volatile DictionaryColumn flat_types, street_name, storey_range, flat_model, block;
+    private volatile double[] floorAreas, resalePrices, lease_commence_date; // Likewise
+    private volatile StoreColumns unreadColumns; // Store columns not read yet, each read on first use
+    private volatile RowBitmap[] ZoneMap;  // Bitmap of all row indexes for each town code, built or loaded on first use
+    private RowIndex townIndexFile; // Persisted town index backing ZoneMap, if attached
+    private RowBitmap[] areaIndex; // areaIndex[k] = rows with floor area >= k * AREA_BIN_SQM, built on first use
+    private Map<Long, int[]> yearMonthTownIndex; // Composite key index for year, month, town
+    private RowIndex compositeIndexFile; // Persisted composite index, used while the map is empty
+    private volatile TownZoneMapper townZoneMapper; // Year and month bitmaps, built or attached on first use
+    private volatile AggregateCube aggregateCube; // Per (month, town, area bucket) aggregates, built on request
+    private BlockStatistics blockStats; // Per-block min/max for data skipping, built on first use
+    private TableStatistics tableStats; // Cardinalities for the query planner, built on first use
+    private MorselExecutor scanExecutor; // Runs filters morsel-parallel when set, serially when null
+    private QueryCache<ResultKey, Object> resultCache; // Shared SelectionVectors and frozen PriceAggregates
+
+    // Width of the floor-area bins in the range-encoded area index
+    private static final int AREA_BIN_SQM = 10;
+    // Default minimum floor area: applied by every access path, and the default of the
+    // window aggregates, the batch executor and the query server
+    public static final double MIN_AREA = 80;
+    // Result cache budget; 0 disables caching
+    private static final long RESULT_CACHE_BYTES = Long.getLong("query.cache.bytes", 32L << 20);
+    private static final long AGGREGATE_BYTES = 64;
+
+    /**
+     * Normalized query: town code, window start and minimum area. The access
+     * path is not part of the key: every path answers the same packed window
+     * [pack(y, m), pack(y, m) + 1], December included, so a result cached by
+     * one path is the answer of all of them. Selections and aggregates of the
+     * same window are separate entries.
+     */
+    private static final class ResultKey {
+        private final boolean aggregate;
+        private final int townCode;
+        private final int windowStart;
+        private final double minArea;
+
+        ResultKey(boolean aggregate, int townCode, int windowStart, double minArea) {
+            this.aggregate = aggregate;
+            this.townCode = townCode;
+            this.windowStart = windowStart;
+            this.minArea = minArea;
+        }
+
+        // Rows in these months can change the result: the window's two months
+        boolean overlaps(int fromYearMonth, int toYearMonth) {
+            return windowStart <= toYearMonth && fromYearMonth <= windowStart + 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ResultKey)) return false;
+            ResultKey k = (ResultKey) o;
+            return aggregate == k.aggregate && townCode == k.townCode && windowStart == k.windowStart
+                && Double.compare(minArea, k.minArea) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Boolean.hashCode(aggregate);
+            h = h * 31 + townCode;
+            h = h * 31 + windowStart;
+            return h * 31 + Double.hashCode(minArea);
+        }
+    }
 
     public DataAnalyzer() {
-        months = new ArrayList<>();
-        towns = new ArrayList<>();
-        flat_types = new ArrayList<>();
-        block = new ArrayList<>();
-        street_name = new ArrayList<>();
-        storey_range = new ArrayList<>();
-        floorAreas = new ArrayList<>();
-        flat_model = new ArrayList<>();
-        lease_commence_date = new ArrayList<>();
-        resalePrices = new ArrayList<>();
-        ZoneMap = new HashMap<>();
+        yearMonths = new int[0];
+        towns = new DictionaryColumn();
+        flat_types = new DictionaryColumn();
+        block = new DictionaryColumn();
+        street_name = new DictionaryColumn();
+        storey_range = new DictionaryColumn();
+        floorAreas = new double[0];
+        flat_model = new DictionaryColumn();
+        lease_commence_date = new double[0];
+        resalePrices = new double[0];
+        ZoneMap = null;
         yearMonthTownIndex = new HashMap<>();
+        resultCache = new QueryCache<>(RESULT_CACHE_BYTES,
+            v -> v instanceof SelectionVector ? ((SelectionVector) v).estimatedBytes() : AGGREGATE_BYTES);
     }
 
     // Load CSV file with error handling
     public void loadCSV(String filePath) {
+        IntList monthColumn = new IntList(1 << 16);
+        DoubleList areaColumn = new DoubleList(1 << 16);
+        DoubleList leaseColumn = new DoubleList(1 << 16);
+        DoubleList priceColumn = new DoubleList(1 << 16);
         try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
             String line;
             boolean isHeader = true;
@@ -38,20 +110,28 @@ public class DataAnalyzer {
                 if (values.length < 10) continue; // Avoid out-of-bounds error
 
                 try {
-                    months.add(values[0].trim());
+                    // Parse numeric cells first so a bad row never leaves the columns misaligned
+                    double floorArea = Double.parseDouble(values[6].trim());
+                    double leaseCommence = Double.parseDouble(values[8].trim());
+                    double resalePrice = Double.parseDouble(values[9].trim());
+                    int yearMonth = YearMonths.parse(values[0].trim());
+                    if (yearMonth == YearMonths.INVALID) {
+                        System.err.println("Skipping invalid row: " + line);
+                        continue;
+                    }
+
+                    monthColumn.add(yearMonth);
                     String town = values[1].trim();
                     towns.add(town);
                     flat_types.add(values[2].trim());
                     block.add(values[3].trim());
                     street_name.add(values[4].trim());
                     storey_range.add(values[5].trim());
-                    floorAreas.add(Double.parseDouble(values[6].trim()));
+                    areaColumn.add(floorArea);
                     flat_model.add(values[7].trim());
-                    lease_commence_date.add(Double.parseDouble(values[8].trim()));
-                    resalePrices.add(Double.parseDouble(values[9].trim()));
-                    
-                    // Add index to town map
-                    ZoneMap.computeIfAbsent(town, k -> new ArrayList<>()).add(towns.size() - 1);
+                    leaseColumn.add(leaseCommence);
+                    priceColumn.add(resalePrice);
+
                 } catch (NumberFormatException e) {
                     System.err.println("Skipping invalid row: " + line);
                 }
@@ -60,179 +140,432 @@ public class DataAnalyzer {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        yearMonths = monthColumn.toArray();
+        floorAreas = areaColumn.toArray();
+        lease_commence_date = leaseColumn.toArray();
+        resalePrices = priceColumn.toArray();
+        unreadColumns = null;
+        size = yearMonths.length;
+        encodedYearMonths = null;
+        townIndexFile = null;
+        compositeIndexFile = null;
+        yearMonthTownIndex.clear();
+        resultCache.clear();
+        townZoneMapper = null;
+        aggregateCube = null;
+        ZoneMap = null;
+        areaIndex = null;
+        blockStats = null;
+        tableStats = null;
     }
-    
-            // Get list of resale prices matching criteria using year index (shared scan)
-            public List<Integer> fpMonthIndexSharedScan(String targetTown, int year, int startMonth) {
-                List<Integer> filtered = new ArrayList<>();
-                List<Integer> YearIndices = TownZoneMapper.getYearIndices(year);
-                List<Integer> MonthIndices = TownZoneMapper.getMonthIndices(startMonth);
-               
-                if (MonthIndices == null || MonthIndices.isEmpty()) {
-                    System.out.println("Filtered prices with month index shared scan: 0");
-                    return filtered;
-                }
-                int nextMonth = (startMonth == 12) ? 1 : startMonth + 1; 
-                List<Integer> NextMonthIndices = TownZoneMapper.getMonthIndices(nextMonth);
-                
-                for(int idx: YearIndices) {
-                    if ((MonthIndices.contains(idx) ||NextMonthIndices.contains(idx))&&
-                         (targetTown.equals(towns.get(idx)) && floorAreas.get(idx) >= 80)) {
-                        filtered.add(idx);
-                    }
-                }
-                
-                // System.out.println("Filtered prices with month index shared scan: " + filtered.size());
-                return filtered;
-            }
-        
-    // Get list of resale prices matching criteria using year index (shared scan)
-    public List<Integer> filterPricesWithYearIndexSharedScan(String targetTown, int year, int startMonth) {
-        List<Integer> filtered = new ArrayList<>();
-        List<Integer> yearIndices = TownZoneMapper.getYearIndices(year);
-        // List<Integer> townIndices = ZoneMap.getOrDefault(targetTown, Collections.emptyList());
-        if (yearIndices == null || yearIndices.isEmpty()) {
-            System.out.println("Filtered prices with year index shared scan: 0");
-            return filtered;
+
+    // Get list of resale prices matching criteria using month index (shared scan)
+    public int[] fpMonthIndexSharedScan(String targetTown, int year, int startMonth) {
+        // town AND window months AND area >= MIN_AREA, all as bitmap operations; either month may be empty
+        RowBitmap filtered = bitmapQuery(targetTown, year, startMonth, MIN_AREA);
+        return filtered.toArray();
+    }
+
+    // Evaluate town, two-month window and minimum area purely on the bitmap indexes; like every
+    // access path the window is [pack(year, startMonth), +1], so December pairs with next January
+    public RowBitmap bitmapQuery(String targetTown, int year, int startMonth, double minArea) {
+        TownZoneMapper dates = getTownZoneMapper();
+        RowBitmap window = startMonth == 12
+            ? dates.getYearBitmap(year).and(dates.getMonthBitmap(12))
+                .or(dates.getYearBitmap(year + 1).and(dates.getMonthBitmap(1)))
+            : dates.getYearBitmap(year).and(dates.getMonthBitmap(startMonth).or(dates.getMonthBitmap(startMonth + 1)));
+        return getTownBitmap(targetTown)
+            .and(window)
+            .and(getAreaAtLeastBitmap(minArea));
+    }
+
+    // Number of qualifying rows, known before any row is materialized
+    public int countMatching(String targetTown, int year, int startMonth, double minArea) {
+        return bitmapQuery(targetTown, year, startMonth, minArea).cardinality();
+    }
+
+    public RowBitmap getTownBitmap(String town) {
+        int code = towns.lookup(town);
+        RowBitmap[] zones = ZoneMap;
+        if (zones == null) zones = buildZoneMap();
+        if (code < 0 || code >= zones.length) return new RowBitmap();
+        RowBitmap bitmap = zones[code];
+        return bitmap != null ? bitmap : loadTownBitmap(zones, code);
+    }
+
+    // Decode one town from the persisted index into its ZoneMap slot
+    private synchronized RowBitmap loadTownBitmap(RowBitmap[] zones, int code) {
+        if (zones[code] == null) zones[code] = townIndexFile.bitmap(code);
+        return zones[code];
+    }
+
+    // Rows with floor area >= minArea; exact bins are a single lookup, otherwise one bin is re-checked
+    public RowBitmap getAreaAtLeastBitmap(double minArea) {
+        RowBitmap[] index = areaIndex;
+        if (index == null) {
+            index = buildAreaIndex();
         }
-        int nextMonth = (startMonth == 12) ? 1 : startMonth + 1;
-        for (int idx : yearIndices) {
+        int bin = (int) Math.ceil(minArea / AREA_BIN_SQM);
+        if (bin <= 0) return index.length > 0 ? index[0] : new RowBitmap();
+        RowBitmap above = bin < index.length ? index[bin] : new RowBitmap();
+        if (bin * AREA_BIN_SQM == minArea) return above;
 
-            String[] parts = months.get(idx).split("-");
-            int dataMonth = Integer.parseInt(parts[1]);
-            if (targetTown.equals(towns.get(idx)) && floorAreas.get(idx) >= 80 && (dataMonth == startMonth || dataMonth == nextMonth)) {
-                filtered.add(idx);
-            }
+        // minArea falls inside bin - 1: add the rows of that bin that clear the threshold
+        RowBitmap boundary = index[Math.min(bin - 1, index.length - 1)].andNot(above);
+        RowBitmap extra = new RowBitmap();
+        double[] floorAreas = getFloorAreas();
+        boundary.forEach(row -> {
+            if (floorAreas[row] >= minArea) extra.add(row);
+        });
+        return above.or(extra);
+    }
+
+    public boolean hasAreaIndex() {
+        return areaIndex != null;
+    }
+
+    // Range-encoded bins: bitmap k holds every row whose area is at least k * AREA_BIN_SQM;
+    // rows with a NaN area are in no bin, as they fail every area comparison
+    private synchronized RowBitmap[] buildAreaIndex() {
+        if (areaIndex != null) return areaIndex;
+        double[] floorAreas = getFloorAreas();
+        double max = 0;
+        for (int i = 0; i < size; i++) {
+            if (floorAreas[i] > max) max = floorAreas[i];
+        }
+        int bins = (int) (max / AREA_BIN_SQM) + 1;
+        RowBitmap[] index = new RowBitmap[bins];
+        for (int k = 0; k < bins; k++) index[k] = new RowBitmap();
+        for (int i = 0; i < size; i++) {
+            if (Double.isNaN(floorAreas[i])) continue;
+            index[floorAreas[i] > 0 ? (int) (floorAreas[i] / AREA_BIN_SQM) : 0].add(i);
         }
-        System.out.println("Filtered prices with year index shared scan: " + filtered.size());
-        return filtered;
+        // Turn the exact bins into cumulative ones, top down
+        for (int k = bins - 2; k >= 0; k--) {
+            index[k] = index[k].or(index[k + 1]);
+        }
+        for (RowBitmap bin : index) bin.freeze(); // Shared with copies; appendToIndexes replaces what it extends
+        areaIndex = index;
+        return index;
     }
-    
-    // Get list of resale prices matching criteria without using shared scan
-    public List<Integer> filterPricesWithoutYearIndexSharedScan(String targetTown, int year, int startMonth) {
-        List<Integer> filtered = new ArrayList<>();
-        int nextYear = (startMonth == 12) ? year + 1 : year;
+
+    // Block-level zone maps over the current columns
+    public BlockStatistics getBlockStatistics() {
+        BlockStatistics stats = blockStats;
+        if (stats == null || stats.getRowCount() != size) {
+            stats = BlockStatistics.build(yearMonths, getFloorAreas(), getResalePrices(), towns.codes(), size,
+                towns.cardinality(), BlockStatistics.DEFAULT_BLOCK_ROWS);
+            blockStats = stats;
+        }
+        return stats;
+    }
+
+    // Cardinality statistics over the current columns
+    public synchronized TableStatistics getTableStatistics() {
+        if (tableStats == null || tableStats.getRowCount() != size) {
+            tableStats = TableStatistics.build(this);
+        }
+        return tableStats;
+    }
+
+    // Install statistics read back from the column store
+    public void setBlockStatistics(BlockStatistics blockStats) {
+        this.blockStats = blockStats;
+    }
+
+    // Rebuild the town -> rows bitmaps from the town code column, or leave the
+    // slots empty for getTownBitmap to fill from the persisted index
+    private synchronized RowBitmap[] buildZoneMap() {
+        if (ZoneMap != null) return ZoneMap;
+        RowBitmap[] zones = new RowBitmap[towns.cardinality()];
+        if (townIndexFile != null) {
+            ZoneMap = zones;
+            return zones;
+        }
+        for (int c = 0; c < zones.length; c++) zones[c] = new RowBitmap();
+        int[] townCodes = towns.codes();
         for (int i = 0; i < towns.size(); i++) {
-            if (!towns.get(i).equals(targetTown)) continue;
-            String[] parts = months.get(i).split("-");
-            int y = Integer.parseInt(parts[0]);
-            int m = Integer.parseInt(parts[1]);
-            if (floorAreas.get(i) >= 80 &&
-                ((y == year && m == startMonth) ||
-                 (y == nextYear && m == ((startMonth == 12) ? 1 : startMonth + 1)))) {
-                filtered.add(i);
-            }
+            zones[townCodes[i]].add(i);
         }
-        return filtered;
+        for (RowBitmap zone : zones) zone.freeze(); // Shared with copies; appendToIndexes replaces what it extends
+        ZoneMap = zones;
+        return zones;
     }
-    
-    // Get list of resale prices matching criteria using year index
-    public List<Integer> filterPricesWithYearIndex(String targetTown, int year, int startMonth) {
-        int nextMonth = (startMonth == 12) ? 1 : startMonth + 1;
-        List<Integer> yearIndices = TownZoneMapper.getYearIndices(year);
-        List<Integer> filtered = new ArrayList<>();
 
-        for (int i = yearIndices.get(0); i <= yearIndices.get(yearIndices.size() - 1); i++) filtered.add(i);
+    // Attach persisted indexes from the column store; they must match the loaded columns
+    public void setTownIndex(RowIndex townIndex) {
+        this.townIndexFile = townIndex;
+        this.ZoneMap = null;
+    }
+
+    public void setCompositeIndex(RowIndex compositeIndex) {
+        this.compositeIndexFile = compositeIndex;
+        this.yearMonthTownIndex.clear();
+    }
+
+    // Year and month bitmaps of this table, built once on first use (morsel-parallel when scans are)
+    public TownZoneMapper getTownZoneMapper() {
+        TownZoneMapper dates = townZoneMapper;
+        return dates != null ? dates : buildTownZoneMapper();
+    }
+
+    private synchronized TownZoneMapper buildTownZoneMapper() {
+        if (townZoneMapper == null) {
+            townZoneMapper = TownZoneMapper.build(yearMonths, size, scanExecutor);
+        }
+        return townZoneMapper;
+    }
+
+    public boolean hasTownZoneMapper() {
+        return townZoneMapper != null;
+    }
+
+    // Install year and month bitmaps, e.g. backed by the column store's indexes; they must cover this table
+    public void setTownZoneMapper(TownZoneMapper townZoneMapper) {
+        if (townZoneMapper.getRowCount() != size) {
+            throw new IllegalArgumentException("Year/month index covers " + townZoneMapper.getRowCount()
+                + " rows, table has " + size);
+        }
+        this.townZoneMapper = townZoneMapper;
+    }
 
-        filtered.removeIf(idx -> {
-            int m = Integer.parseInt(months.get(idx).split("-")[1]);
-            return m != startMonth && m != nextMonth;
+    /**
+     * Pre-aggregated statistics per (month, town, floor-area bucket), built
+     * in one pass on first call. Once built, aggregateWindow answers covered
+     * minimum areas from it and appends keep it current.
+     */
+    public AggregateCube getAggregateCube() {
+        AggregateCube cube = aggregateCube;
+        return cube != null ? cube : buildAggregateCube();
+    }
+
+    private synchronized AggregateCube buildAggregateCube() {
+        if (aggregateCube == null) {
+            aggregateCube = AggregateCube.build(yearMonths, towns.codes(), getFloorAreas(), getResalePrices(),
+                towns.cardinality(), size);
+        }
+        return aggregateCube;
+    }
+
+    public boolean hasAggregateCube() {
+        return aggregateCube != null;
+    }
+        
+    // Get list of resale prices matching criteria using year index (shared scan)
+    public int[] filterPricesWithYearIndexSharedScan(String targetTown, int year, int startMonth) {
+        double[] floorAreas = getFloorAreas();
+        RowBitmap yearIndices = windowYearBitmap(year, startMonth);
+        // RowBitmap townIndices = getTownBitmap(targetTown);
+        if (yearIndices.isEmpty()) return new int[0];
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        int townCode = towns.lookup(targetTown);
+        int[] townCodes = towns.codes();
+        return scanMorsels(yearIndices.first(), yearIndices.last() + 1, (b, from, to, mask, predicate, out) -> {
+            yearIndices.forEachInRange(from, to, idx -> {
+                if (townCodes[idx] != townCode) return;
+                int ym = yearMonths[idx];
+                if (floorAreas[idx] >= MIN_AREA && (ym == windowStart || ym == windowEnd)) {
+                    out.add(idx);
+                }
+            });
+            return true;
         });
-        filtered.removeIf(idx -> !towns.get(idx).equals(targetTown));
-        filtered.removeIf(idx -> floorAreas.get(idx) < 80);
+    }
 
-        return filtered;
+    // Rows of the window's year, plus the next year's for the January half of a December window
+    private RowBitmap windowYearBitmap(int year, int startMonth) {
+        TownZoneMapper dates = getTownZoneMapper();
+        RowBitmap rows = dates.getYearBitmap(year);
+        return startMonth == 12 ? rows.or(dates.getYearBitmap(year + 1)) : rows;
+    }
+    
+    // Get list of resale prices matching criteria without using shared scan
+    public int[] filterPricesWithoutYearIndexSharedScan(String targetTown, int year, int startMonth) {
+        int townCode = towns.lookup(targetTown);
+        if (townCode < 0) return new int[0];
+        // Packed months make the two-month window (including Dec -> Jan) a single range
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        int[] townCodes = towns.codes();
+        BlockStatistics stats = getBlockStatistics();
+        return scanMorsels(0, size, (b, from, to, mask, predicate, out) -> {
+            // Skip blocks whose zone map rules out the window, the area or the town
+            if (!stats.mayMatch(b, windowStart, windowEnd, MIN_AREA, townCode)) return false;
+            blockMask(townCodes, townCode, windowStart, windowEnd, MIN_AREA, from, to, mask, predicate);
+            FilterKernels.appendSelection(mask, from, to, out);
+            return true;
+        });
+    }
+    
+    // Get list of resale prices matching criteria using year index
+    public int[] filterPricesWithYearIndex(String targetTown, int year, int startMonth) {
+        double[] floorAreas = getFloorAreas();
+        RowBitmap yearIndices = windowYearBitmap(year, startMonth);
+        if (yearIndices.isEmpty()) return new int[0];
+
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        int townCode = towns.lookup(targetTown);
+        int[] townCodes = towns.codes();
+        BlockStatistics stats = getBlockStatistics();
+        // The year's row range also holds other years once segments are appended, e.g. late registrations
+        return scanMorsels(yearIndices.first(), yearIndices.last() + 1, (b, from, to, mask, predicate, out) -> {
+            if (!stats.mayMatch(b, windowStart, windowEnd, MIN_AREA)) return false;
+            // One pass per predicate, each compacting the morsel's selection vector in place
+            int[] filtered = new int[to - from];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int ym = yearMonths[i];
+                if (ym == windowStart || ym == windowEnd) filtered[count++] = i;
+            }
+            int kept = 0;
+            for (int j = 0; j < count; j++) {
+                if (townCodes[filtered[j]] == townCode) filtered[kept++] = filtered[j];
+            }
+            count = kept;
+            kept = 0;
+            for (int j = 0; j < count; j++) {
+                if (floorAreas[filtered[j]] >= MIN_AREA) filtered[kept++] = filtered[j];
+            }
+            for (int j = 0; j < kept; j++) out.add(filtered[j]);
+            return true;
+        });
     }
     
     // Get list of resale prices matching criteria without using year index
-    public List<Integer> filterPricesWithoutYearIndex(String targetTown, int year, int startMonth) {
-        // first filter by date window & minimum area
-        List<Integer> filtered = new ArrayList<>();
-        for (int i = 0; i < months.size(); i++) {
-            if (matchesWindow(i, year, startMonth, false)) {
-                filtered.add(i);
+    public int[] filterPricesWithoutYearIndex(String targetTown, int year, int startMonth) {
+        double[] floorAreas = getFloorAreas();
+        int windowStart = YearMonths.pack(year, startMonth);
+        int townCode = towns.lookup(targetTown);
+        int[] townCodes = towns.codes();
+        BlockStatistics stats = getBlockStatistics();
+        return scanMorsels(0, size, (b, from, to, mask, predicate, out) -> {
+            // first filter by date window & minimum area, skipping blocks the zone maps rule out
+            if (!stats.mayMatch(b, windowStart, windowStart + 1, MIN_AREA)) return false;
+            yearMonthMask(from, to, windowStart, windowStart + 1, mask);
+            FilterKernels.rangeMask(floorAreas, from, to, MIN_AREA, Double.POSITIVE_INFINITY, predicate);
+            FilterKernels.and(mask, predicate, FilterKernels.words(from, to));
+            IntList window = new IntList();
+            FilterKernels.appendSelection(mask, from, to, window);
+            // then keep only the target town
+            for (int j = 0; j < window.size(); j++) {
+                int idx = window.get(j);
+                if (townCodes[idx] == townCode) out.add(idx);
             }
-        }
-        // then keep only the target town
-        filtered.removeIf(idx -> !towns.get(idx).equals(targetTown));
-        return filtered;
+            return true;
+        });
     }
 
     // Build composite key index for year, month, and town
-    public void buildYearMonthTownIndex() {
-        for (int i = 0; i < months.size(); i++) {
-            String[] parts = months.get(i).split("-");
-            if (parts.length != 2) continue; // Skip invalid month format
-            String key = parts[0] + "_" + parts[1] + "_" + towns.get(i);
-            yearMonthTownIndex.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+    public synchronized void buildYearMonthTownIndex() {
+        Map<Long, IntList> buckets = new HashMap<>();
+        int[] townCodes = towns.codes();
+        for (int i = 0; i < size; i++) {
+            long key = compositeKey(yearMonths[i], townCodes[i]);
+            buckets.computeIfAbsent(key, k -> new IntList()).add(i);
+        }
+        yearMonthTownIndex.clear();
+        for (Map.Entry<Long, IntList> entry : buckets.entrySet()) {
+            yearMonthTownIndex.put(entry.getKey(), entry.getValue().toArray());
         }
-        System.out.println("Composite index built for key format: year_month_town");
+    }
+
+    public synchronized boolean hasCompositeIndex() {
+        return !yearMonthTownIndex.isEmpty() || compositeIndexFile != null;
+    }
+
+    // Rows for a composite key from the in-memory map or, after a warm start, the persisted index
+    private synchronized int[] compositeRows(long key) {
+        if (yearMonthTownIndex.isEmpty() && compositeIndexFile == null) {
+            buildYearMonthTownIndex();
+        }
+        if (yearMonthTownIndex.isEmpty() && compositeIndexFile != null) {
+            return compositeIndexFile.rows(key);
+        }
+        return yearMonthTownIndex.getOrDefault(key, new int[0]);
+    }
+
+    // Composite index key: packed year-month in the high half, town code in the low half
+    static long compositeKey(int yearMonth, int townCode) {
+        return ((long) yearMonth << 32) | (townCode & 0xFFFFFFFFL);
     }
 
     // Filter by month candidates using precomputed month indices (focus on year, month, town)
-    public List<Integer> filterWithHashing(String targetTown, int year, int startMonth) {
-        int nextMonth = (startMonth == 12) ? 1 : startMonth + 1;
-        List<Integer> matched = new ArrayList<>();
+    public int[] filterWithHashing(String targetTown, int year, int startMonth) {
+        double[] floorAreas = getFloorAreas();
+        int townCode = towns.lookup(targetTown);
+        if (townCode < 0) return new int[0];
+
+        // Packed keys: the month after December is January of the next year
+        int windowStart = YearMonths.pack(year, startMonth);
+        int[] k1 = compositeRows(compositeKey(windowStart, townCode));
+        int[] k2 = compositeRows(compositeKey(windowStart + 1, townCode));
 
-        String k1 = year + "_" + startMonth + "_" + targetTown;
-        String k2 = year + "_" + nextMonth + "_" + targetTown;
+        QueryMetrics.Operation op = QueryMetrics.current();
+        if (op != null) op.bytesPerRow(8).scanned(k1.length + k2.length, 0, 0); // Areas of the indexed rows
 
-        matched.addAll(yearMonthTownIndex.getOrDefault(k1, Collections.emptyList()));
-        matched.addAll(yearMonthTownIndex.getOrDefault(k2, Collections.emptyList()));
-        matched.removeIf(idx -> floorAreas.get(idx) < 80); // Filter by area
-        return matched;
+        IntList matched = new IntList(k1.length + k2.length);
+        for (int idx : k1) if (floorAreas[idx] >= MIN_AREA) matched.add(idx); // Filter by area
+        for (int idx : k2) if (floorAreas[idx] >= MIN_AREA) matched.add(idx);
+        return matched.toArray();
     }
     
     // Filter by month candidates using precomputed month indices (focus on months only)
-    public List<Integer> filterByMonthCandidates(List<Integer> monthCandidates, int year, int startMonth) {
-        List<Integer> filtered = new ArrayList<>();
+    public int[] filterByMonthCandidates(int[] monthCandidates, int year, int startMonth) {
+        IntList filtered = new IntList();
         for (int idx : monthCandidates) {
             if (matchesWindow(idx, year, startMonth, true)) {
                 filtered.add(idx);
             }
         }
-        return filtered;
+        return filtered.toArray();
     }
     
     // Compute minimum price from filtered row-indices
-    public double getMinPrice(List<Integer> indices) {
-        if (indices.isEmpty()) return 0;
+    public double getMinPrice(int[] indices) {
+        double[] resalePrices = getResalePrices();
+        if (indices.length == 0) return 0;
         double min = Double.MAX_VALUE;
         for (int idx : indices) {
-            min = Math.min(min, resalePrices.get(idx));
+            min = Math.min(min, resalePrices[idx]);
         }
         return min == Double.MAX_VALUE ? 0 : min;
     }
 
     // Compute average price from filtered row-indices
-    public double getAveragePrice(List<Integer> indices) {
-        if (indices.isEmpty()) return 0;
+    public double getAveragePrice(int[] indices) {
+        double[] resalePrices = getResalePrices();
+        if (indices.length == 0) return 0;
         double sum = 0;
         for (int idx : indices) {
-            sum += resalePrices.get(idx);
+            sum += resalePrices[idx];
         }
-        return sum / indices.size();
+        return sum / indices.length;
     }
 
     // Compute standard deviation from filtered row-indices
-    public double getStdDev(List<Integer> indices) {
-        if (indices.isEmpty()) return 0;
+    public double getStdDev(int[] indices) {
+        double[] resalePrices = getResalePrices();
+        if (indices.length == 0) return 0;
         double mean = getAveragePrice(indices);
         double sumSq = 0;
         for (int idx : indices) {
-            double val = resalePrices.get(idx);
-            sumSq += Math.pow(val - mean, 2);
+            double diff = resalePrices[idx] - mean;
+            sumSq += diff * diff;
         }
-        return Math.sqrt(sumSq / indices.size());
+        return Math.sqrt(sumSq / indices.length);
     }
 
     // Get minimum price per square meter from filtered row-indices
-    public double getMinPricePerSqm(List<Integer> indices) {
-        if (indices.isEmpty()) return 0;
+    public double getMinPricePerSqm(int[] indices) {
+        double[] resalePrices = getResalePrices();
+        double[] floorAreas = getFloorAreas();
+        if (indices.length == 0) return 0;
         double minPpsm = Double.MAX_VALUE;
         for (int idx : indices) {
-            double p = resalePrices.get(idx);
-            double a = floorAreas.get(idx);
+            double p = resalePrices[idx];
+            double a = floorAreas[idx];
             double ppsm = p / a;
             if (ppsm < minPpsm) {
                 minPpsm = ppsm;
@@ -240,6 +573,322 @@ public class DataAnalyzer {
         }
         return minPpsm == Double.MAX_VALUE ? 0 : minPpsm;
     }
+
+    // Compute min, mean, stddev and min price per sqm from filtered row-indices in one pass
+    public PriceAggregate aggregate(int[] indices) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "rows")) {
+            double[] resalePrices = getResalePrices();
+            double[] floorAreas = getFloorAreas();
+            PriceAggregate agg = new PriceAggregate();
+            for (int idx : indices) {
+                agg.add(resalePrices[idx], floorAreas[idx]);
+            }
+            if (op != null) op.bytesPerRow(16).scanned(indices.length, 0, 0).qualified(agg.getCount());
+            return agg;
+        }
+    }
+
+    public PriceAggregate aggregate(SelectionVector selection) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "rows")) {
+            double[] resalePrices = getResalePrices();
+            double[] floorAreas = getFloorAreas();
+            PriceAggregate agg = new PriceAggregate();
+            for (int i = 0; i < selection.size(); i++) {
+                int idx = selection.get(i);
+                agg.add(resalePrices[idx], floorAreas[idx]);
+            }
+            if (op != null) op.bytesPerRow(16).scanned(selection.size(), 0, 0).qualified(agg.getCount());
+            return agg;
+        }
+    }
+
+    /**
+     * Rows of the window through the given access path, shared through the
+     * result cache. The returned vector is read-only and may be handed to
+     * other callers; unknown towns are answered without touching the cache.
+     */
+    public SelectionVector select(QueryPlanner.AccessPath path, String targetTown, int year, int startMonth) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(operatorOf(path), path.getLabel())) {
+            if (op == null) return selectWindow(path, targetTown, year, startMonth);
+            op.index(indexOf(path)).bytesPerRow(16); // Town code, month and area of each scanned row
+            SelectionVector rows = selectWindow(path, targetTown, year, startMonth);
+            op.qualified(rows.size());
+            return rows;
+        }
+    }
+
+    private SelectionVector selectWindow(QueryPlanner.AccessPath path, String targetTown, int year, int startMonth) {
+        int townCode = towns.lookup(targetTown);
+        if (townCode < 0) return SelectionVector.wrap(runAccessPath(path, targetTown, year, startMonth));
+        ResultKey key = new ResultKey(false, townCode, YearMonths.pack(year, startMonth), MIN_AREA);
+        SelectionVector cached = (SelectionVector) resultCache.get(key);
+        if (cached != null) {
+            QueryMetrics.index("result cache");
+            return cached;
+        }
+        long version = resultCache.getVersion();
+        SelectionVector rows = SelectionVector.wrap(runAccessPath(path, targetTown, year, startMonth));
+        resultCache.put(key, rows, version);
+        return rows;
+    }
+
+    /**
+     * Rows matching an arbitrary predicate, in ascending order. The predicate
+     * is compiled against the current columns (ScanPipeline.compile); results
+     * are not cached.
+     */
+    public SelectionVector select(ColumnPredicate where) {
+        return ScanPipeline.compile(this, where).select();
+    }
+
+    // Price statistics of the rows matching where; prices and areas are read for matching rows only
+    public PriceAggregate aggregate(ColumnPredicate where) {
+        return ScanPipeline.compile(this, where).aggregate();
+    }
+
+    private int[] runAccessPath(QueryPlanner.AccessPath path, String town, int year, int month) {
+        switch (path) {
+            case MONTH_INDEX_SHARED_SCAN: return fpMonthIndexSharedScan(town, year, month);
+            case YEAR_INDEX_SHARED_SCAN: return filterPricesWithYearIndexSharedScan(town, year, month);
+            case YEAR_INDEX: return filterPricesWithYearIndex(town, year, month);
+            case NO_INDEX_SHARED_SCAN: return filterPricesWithoutYearIndexSharedScan(town, year, month);
+            case NO_INDEX: return filterPricesWithoutYearIndex(town, year, month);
+            case HASH_INDEX: return filterWithHashing(town, year, month);
+            default: throw new IllegalStateException("Unknown access path " + path);
+        }
+    }
+
+    // Paths answered from an index are lookups; the others scan morsels under the zone maps
+    private static String operatorOf(QueryPlanner.AccessPath path) {
+        return path == QueryPlanner.AccessPath.MONTH_INDEX_SHARED_SCAN || path == QueryPlanner.AccessPath.HASH_INDEX
+            ? QueryMetrics.INDEX : QueryMetrics.SCAN;
+    }
+
+    private static String indexOf(QueryPlanner.AccessPath path) {
+        switch (path) {
+            case MONTH_INDEX_SHARED_SCAN: return "town, year, month and area bitmaps";
+            case YEAR_INDEX_SHARED_SCAN:
+            case YEAR_INDEX: return "year bitmap";
+            case HASH_INDEX: return "composite index";
+            default: return "zone maps";
+        }
+    }
+
+    /**
+     * Filter and aggregate in one fused scan; qualifying rows are never materialized.
+     * Results are cached and frozen: merge one into a new PriceAggregate to extend it.
+     * With the aggregate cube built, covered minimum areas merge two cells instead.
+     */
+    public PriceAggregate aggregateWindow(String targetTown, int year, int startMonth, double minArea) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "window")) {
+            if (op == null) return aggregateWindowUntimed(targetTown, year, startMonth, minArea);
+            op.index("zone maps").bytesPerRow(24); // Town code, month, area and price
+            PriceAggregate agg = aggregateWindowUntimed(targetTown, year, startMonth, minArea);
+            op.qualified(agg.getCount());
+            return agg;
+        }
+    }
+
+    private PriceAggregate aggregateWindowUntimed(String targetTown, int year, int startMonth, double minArea) {
+        int townCode = towns.lookup(targetTown);
+        if (townCode < 0) return new PriceAggregate();
+        AggregateCube cube = aggregateCube;
+        if (cube != null && cube.covers(minArea)) {
+            QueryMetrics.index("aggregate cube");
+            int windowStart = YearMonths.pack(year, startMonth);
+            return cube.window(townCode, windowStart, windowStart + 1, minArea).freeze();
+        }
+        ResultKey key = new ResultKey(true, townCode, YearMonths.pack(year, startMonth), minArea);
+        PriceAggregate cached = (PriceAggregate) resultCache.get(key);
+        if (cached != null) {
+            QueryMetrics.index("result cache");
+            return cached;
+        }
+        long version = resultCache.getVersion();
+        PriceAggregate agg = scanAggregateWindow(townCode, year, startMonth, minArea);
+        agg.freeze();
+        resultCache.put(key, agg, version);
+        return agg;
+    }
+
+    // Uncached fused scan behind aggregateWindow
+    private PriceAggregate scanAggregateWindow(int townCode, int year, int startMonth, double minArea) {
+        double[] resalePrices = getResalePrices();
+        double[] floorAreas = getFloorAreas();
+        PriceAggregate agg = new PriceAggregate();
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        int[] townCodes = towns.codes();
+        BlockStatistics stats = getBlockStatistics();
+        List<PriceAggregate> partials = mapMorsels(0, size, (b, from, to, mask, predicate) -> {
+            if (!stats.mayMatch(b, windowStart, windowEnd, minArea, townCode)) return null;
+            blockMask(townCodes, townCode, windowStart, windowEnd, minArea, from, to, mask, predicate);
+            return FilterKernels.maskedAggregate(resalePrices, floorAreas, from, to, mask);
+        });
+        // Merge in morsel order so the result does not depend on scheduling
+        for (PriceAggregate partial : partials) {
+            if (partial != null) agg.merge(partial);
+        }
+        return agg;
+    }
+
+    /**
+     * Price percentiles of the rows aggregateWindow would aggregate, as a
+     * frozen QuantileSketch. Answered from the aggregate cube when it is built
+     * and covers minArea, otherwise by a morsel-parallel scan that merges one
+     * sketch per block; both give the same sketch.
+     */
+    public QuantileSketch quantileWindow(String targetTown, int year, int startMonth, double minArea) {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "quantiles")) {
+            if (op == null) return quantileWindowUntimed(targetTown, year, startMonth, minArea);
+            op.index("zone maps").bytesPerRow(24);
+            QuantileSketch sketch = quantileWindowUntimed(targetTown, year, startMonth, minArea);
+            op.qualified(sketch.getCount());
+            return sketch;
+        }
+    }
+
+    private QuantileSketch quantileWindowUntimed(String targetTown, int year, int startMonth, double minArea) {
+        int townCode = towns.lookup(targetTown);
+        if (townCode < 0) return new QuantileSketch().freeze();
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        AggregateCube cube = aggregateCube;
+        if (cube != null && cube.covers(minArea)) {
+            QueryMetrics.index("aggregate cube");
+            return cube.windowQuantiles(townCode, windowStart, windowEnd, minArea).freeze();
+        }
+        int[] townCodes = towns.codes();
+        double[] resalePrices = getResalePrices();
+        BlockStatistics stats = getBlockStatistics();
+        List<QuantileSketch> partials = mapMorsels(0, size, (b, from, to, mask, predicate) -> {
+            if (!stats.mayMatch(b, windowStart, windowEnd, minArea, townCode)) return null;
+            blockMask(townCodes, townCode, windowStart, windowEnd, minArea, from, to, mask, predicate);
+            return FilterKernels.maskedQuantiles(resalePrices, from, to, mask);
+        });
+        QuantileSketch sketch = new QuantileSketch();
+        for (QuantileSketch partial : partials) {
+            if (partial != null) sketch.merge(partial);
+        }
+        return sketch.freeze();
+    }
+
+    // Price percentiles of the rows matching where
+    public QuantileSketch quantiles(ColumnPredicate where) {
+        return ScanPipeline.compile(this, where).quantiles();
+    }
+
+    // Body of a filter for one morsel: append the matching rows of [from, to), which lie in block b;
+    // false when the block's zone map ruled the morsel out unread
+    private interface MorselFilter {
+        boolean scan(int block, int from, int to, long[] mask, long[] predicate, IntList out);
+    }
+
+    // Body of an aggregate for one morsel; may return null when the morsel is skipped
+    interface MorselTask<T> {
+        T apply(int block, int from, int to, long[] mask, long[] predicate);
+    }
+
+    // Run a filter over rows [from, to), one zone-map block per morsel, and concatenate in row order
+    private int[] scanMorsels(int from, int to, MorselFilter filter) {
+        List<IntList> parts = mapMorsels(from, to, (b, lo, hi, mask, predicate) -> {
+            IntList out = new IntList();
+            return filter.scan(b, lo, hi, mask, predicate, out) ? out : null;
+        });
+        int total = 0;
+        for (IntList part : parts) {
+            if (part != null) total += part.size();
+        }
+        int[] rows = new int[total];
+        int pos = 0;
+        for (IntList part : parts) {
+            if (part == null) continue;
+            for (int j = 0; j < part.size(); j++) rows[pos++] = part.get(j);
+        }
+        return rows;
+    }
+
+    // Partials for the blocks covering rows [from, to), in block order
+    <T> List<T> mapMorsels(int from, int to, MorselTask<T> task) {
+        if (from >= to) return new ArrayList<>();
+        BlockStatistics stats = getBlockStatistics();
+        int firstBlock = stats.blockOf(from);
+        int morsels = stats.blockOf(to - 1) - firstBlock + 1;
+        int words = FilterKernels.words(0, stats.getBlockRows());
+        List<T> partials;
+        if (scanExecutor == null) {
+            // Serial path shares one pair of scratch masks
+            long[] mask = new long[words];
+            long[] predicate = new long[words];
+            partials = new ArrayList<>(morsels);
+            for (int m = 0; m < morsels; m++) {
+                int b = firstBlock + m;
+                partials.add(task.apply(b, Math.max(from, stats.blockStart(b)), Math.min(to, stats.blockEnd(b)), mask, predicate));
+            }
+        } else {
+            partials = scanExecutor.map(morsels, m -> {
+                int b = firstBlock + m;
+                return task.apply(b, Math.max(from, stats.blockStart(b)), Math.min(to, stats.blockEnd(b)),
+                    new long[words], new long[words]);
+            });
+        }
+        QueryMetrics.Operation op = QueryMetrics.current();
+        if (op != null) countMorsels(op, stats, firstBlock, from, to, partials);
+        return partials;
+    }
+
+    // Morsels a task returned null for were skipped on their zone maps; the others were scanned
+    private static void countMorsels(QueryMetrics.Operation op, BlockStatistics stats, int firstBlock,
+                                     int from, int to, List<?> partials) {
+        long rows = 0;
+        int skipped = 0;
+        for (int m = 0; m < partials.size(); m++) {
+            if (partials.get(m) == null) {
+                skipped++;
+                continue;
+            }
+            int b = firstBlock + m;
+            rows += Math.min(to, stats.blockEnd(b)) - Math.max(from, stats.blockStart(b));
+        }
+        op.scanned(rows, partials.size() - skipped, skipped);
+    }
+
+    // Number of worker threads for filters and aggregates; 1 runs them serially on the caller
+    public void setScanParallelism(int threads) {
+        MorselExecutor previous = scanExecutor;
+        scanExecutor = threads > 1 ? new MorselExecutor(threads) : null;
+        if (previous != null) previous.close();
+    }
+
+    // Run morsels on a caller-managed executor instead, or serially when null
+    public void setScanExecutor(MorselExecutor executor) {
+        scanExecutor = executor;
+    }
+
+    public int getScanParallelism() {
+        return scanExecutor == null ? 1 : scanExecutor.getParallelism();
+    }
+
+    // mask = town matches AND yearMonth in window AND area >= minArea, for rows [from, to)
+    private void blockMask(int[] townCodes, int townCode, int windowStart, int windowEnd, double minArea,
+                           int from, int to, long[] mask, long[] predicate) {
+        int words = FilterKernels.words(from, to);
+        FilterKernels.equalsMask(townCodes, from, to, townCode, mask);
+        yearMonthMask(from, to, windowStart, windowEnd, predicate);
+        FilterKernels.and(mask, predicate, words);
+        FilterKernels.rangeMask(getFloorAreas(), from, to, minArea, Double.POSITIVE_INFINITY, predicate);
+        FilterKernels.and(mask, predicate, words);
+    }
+    
+    // mask = lo <= yearMonth <= hi; checked once per run where the stored months are run-length encoded
+    void yearMonthMask(int from, int to, int lo, int hi, long[] mask) {
+        EncodedColumn encoded = encodedYearMonths;
+        if (encoded != null && encoded.isRunLevel(from, to)) {
+            encoded.rangeMask(from, to, lo, hi, mask);
+        } else {
+            FilterKernels.rangeMask(yearMonths, from, to, lo, hi, mask);
+        }
+    }
     
     // private boolean matchesYearWindow(int idx, int startMonth) {
     //     String[] parts = months.get(idx).split("-");
@@ -254,9 +903,8 @@ public class DataAnalyzer {
     // }
     // Helper to check date and area criteria, to be used in filter methods
     private boolean matchesWindow(int idx, int year, int startMonth, boolean useYearIndex) {
-        String[] parts = months.get(idx).split("-");
-        int dataYear  = Integer.parseInt(parts[0]);
-        int dataMonth = Integer.parseInt(parts[1]);
+        int dataYear  = YearMonths.year(yearMonths[idx]);
+        int dataMonth = YearMonths.month(yearMonths[idx]);
         int nextMonth = (startMonth == 12) ? 1 : startMonth + 1;
         boolean inWindow;
         if (useYearIndex) {
@@ -266,30 +914,119 @@ public class DataAnalyzer {
             inWindow = ((dataYear == year && dataMonth == startMonth) ||
                         (dataYear == nextYear && dataMonth == nextMonth));
         }
-        return floorAreas.get(idx) >= 80 && inWindow;
+        return getFloorAreas()[idx] >= MIN_AREA && inWindow;
     }
     
     // Getters for data access
-    public List<String> getMonths() {
-        return months;
+    public int size() {
+        return size;
+    }
+
+    public int[] getYearMonths() {
+        return yearMonths;
     }
     
-    public List<String> getTowns() {
+    public DictionaryColumn getTowns() {
         return towns;
     }
+
+    public DictionaryColumn getFlatTypes() {
+        if (flat_types == null) readColumn(ColumnPredicate.FLAT_TYPE);
+        return flat_types;
+    }
+
+    public DictionaryColumn getBlocks() {
+        if (block == null) readColumn(ColumnPredicate.BLOCK);
+        return block;
+    }
+
+    public DictionaryColumn getStreetNames() {
+        if (street_name == null) readColumn(ColumnPredicate.STREET_NAME);
+        return street_name;
+    }
+
+    public DictionaryColumn getStoreyRanges() {
+        if (storey_range == null) readColumn(ColumnPredicate.STOREY_RANGE);
+        return storey_range;
+    }
+
+    public DictionaryColumn getFlatModels() {
+        if (flat_model == null) readColumn(ColumnPredicate.FLAT_MODEL);
+        return flat_model;
+    }
     
-    public List<Double> getFloorAreas() {
+    public double[] getFloorAreas() {
+        if (floorAreas == null) readColumn(ColumnPredicate.FLOOR_AREA);
         return floorAreas;
     }
     
-    public List<Double> getResalePrices() {
+    public double[] getResalePrices() {
+        if (resalePrices == null) readColumn(ColumnPredicate.RESALE_PRICE);
         return resalePrices;
     }
 
+    public double[] getLeaseCommenceDates() {
+        if (lease_commence_date == null) readColumn(ColumnPredicate.LEASE_COMMENCE_DATE);
+        return lease_commence_date;
+    }
+
+    /**
+     * Read the given columns now if they are still unread, e.g. the
+     * projection of a query before its scan starts. Columns that are already
+     * in memory, and names that are not store columns, are skipped.
+     */
+    public void loadColumns(Collection<String> columns) {
+        for (String column : columns) {
+            if (!isColumnLoaded(column)) readColumn(column);
+        }
+    }
+
+    // False while a column of a lazily opened store has not been read
+    public boolean isColumnLoaded(String column) {
+        switch (column) {
+            case ColumnPredicate.FLAT_TYPE: return flat_types != null;
+            case ColumnPredicate.BLOCK: return block != null;
+            case ColumnPredicate.STREET_NAME: return street_name != null;
+            case ColumnPredicate.STOREY_RANGE: return storey_range != null;
+            case ColumnPredicate.FLAT_MODEL: return flat_model != null;
+            case ColumnPredicate.FLOOR_AREA: return floorAreas != null;
+            case ColumnPredicate.RESALE_PRICE: return resalePrices != null;
+            case ColumnPredicate.LEASE_COMMENCE_DATE: return lease_commence_date != null;
+            default: return true; // month and town are always in memory
+        }
+    }
+
+    // Read one unread column from the store; other threads asking for it wait for the same read
+    private synchronized void readColumn(String column) {
+        if (isColumnLoaded(column)) return;
+        StoreColumns store = unreadColumns;
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.LOAD, column)) {
+            if (op != null) {
+                boolean numeric = column.equals(ColumnPredicate.FLOOR_AREA) || column.equals(ColumnPredicate.RESALE_PRICE)
+                    || column.equals(ColumnPredicate.LEASE_COMMENCE_DATE);
+                op.read((numeric ? 8L : 4L) * store.getRowCount()).qualified(store.getRowCount()); // Decoded width
+            }
+            switch (column) {
+                case ColumnPredicate.FLAT_TYPE: flat_types = store.readDictionary(column); break;
+                case ColumnPredicate.BLOCK: block = store.readDictionary(column); break;
+                case ColumnPredicate.STREET_NAME: street_name = store.readDictionary(column); break;
+                case ColumnPredicate.STOREY_RANGE: storey_range = store.readDictionary(column); break;
+                case ColumnPredicate.FLAT_MODEL: flat_model = store.readDictionary(column); break;
+                case ColumnPredicate.FLOOR_AREA: floorAreas = store.readDoubles(column); break;
+                case ColumnPredicate.RESALE_PRICE: resalePrices = store.readDoubles(column); break;
+                case ColumnPredicate.LEASE_COMMENCE_DATE: lease_commence_date = store.readDoubles(column); break;
+                default: throw new IllegalStateException("Not a lazily read column: " + column);
+            }
+        }
+    }
+
     public void writeCompositeIndexToFile(String filename) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            for (Map.Entry<String, List<Integer>> entry : yearMonthTownIndex.entrySet()) {
-                writer.write(entry.getKey() + " : " + entry.getValue());
+            for (Map.Entry<Long, int[]> entry : yearMonthTownIndex.entrySet()) {
+                int yearMonth = (int) (entry.getKey() >>> 32);
+                String town = towns.decode((int) (long) entry.getKey());
+                String key = YearMonths.year(yearMonth) + "_" + String.format("%02d", YearMonths.month(yearMonth)) + "_" + town;
+                writer.write(key + " : " + Arrays.toString(entry.getValue()));
                 writer.newLine();
             }
             System.out.println("Composite index written to " + filename);
@@ -300,27 +1037,373 @@ public class DataAnalyzer {
     }
     
     
+    /**
+     * Copy to append to while queries keep running on this analyzer: the
+     * columns that append() extends in place are copied, everything it
+     * replaces is shared. Town and area bitmaps are frozen and shared too;
+     * append() swaps in extended copies of only those the delta touches. Cached results carry over, so only
+     * the windows an append touches are recomputed on the new snapshot.
+     */
+    public synchronized DataAnalyzer copy() {
+        DataAnalyzer copy = new DataAnalyzer();
+        copy.size = size;
+        copy.yearMonths = yearMonths;
+        copy.encodedYearMonths = encodedYearMonths;
+        copy.towns = towns.copy();
+        copy.flat_types = copyOf(flat_types);
+        copy.block = copyOf(block);
+        copy.street_name = copyOf(street_name);
+        copy.storey_range = copyOf(storey_range);
+        copy.flat_model = copyOf(flat_model);
+        copy.floorAreas = floorAreas;
+        copy.resalePrices = resalePrices;
+        copy.lease_commence_date = lease_commence_date;
+        copy.unreadColumns = unreadColumns; // Immutable; columns the copy reads stay unread here
+        RowBitmap[] zones = ZoneMap;
+        if (zones != null && townIndexFile == null) copy.ZoneMap = zones.clone();
+        copy.townIndexFile = townIndexFile;
+        RowBitmap[] index = areaIndex;
+        if (index != null) copy.areaIndex = index.clone();
+        copy.yearMonthTownIndex = new HashMap<>(yearMonthTownIndex); // Entries are replaced, never changed
+        copy.compositeIndexFile = compositeIndexFile;
+        copy.townZoneMapper = townZoneMapper; // Immutable, appends replace it
+        copy.aggregateCube = aggregateCube; // Likewise
+        copy.blockStats = blockStats;
+        copy.tableStats = tableStats;
+        copy.scanExecutor = scanExecutor;
+        copy.resultCache = resultCache.copy();
+        return copy;
+    }
+
+    private static DictionaryColumn copyOf(DictionaryColumn column) {
+        return column == null ? null : column.copy();
+    }
+
+    /**
+     * New analyzer holding only the given rows in the given order, e.g. one
+     * partition of a partitioned store. Dictionaries hold just the values the
+     * rows use; columns this analyzer does not have for every row stay empty.
+     */
+    public DataAnalyzer subset(int[] rows) {
+        double[] floorAreas = getFloorAreas();
+        double[] resalePrices = getResalePrices();
+        double[] leases = getLeaseCommenceDates();
+        int[] months = new int[rows.length];
+        double[] areas = new double[rows.length];
+        double[] prices = new double[rows.length];
+        double[] leaseDates = leases.length >= size ? new double[rows.length] : new double[0];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            months[i] = yearMonths[row];
+            areas[i] = floorAreas[row];
+            prices[i] = resalePrices[row];
+            if (leaseDates.length > 0) leaseDates[i] = leases[row];
+        }
+        DataAnalyzer subset = new DataAnalyzer();
+        subset.setYearMonths(months);
+        subset.setTowns(subsetOf(towns, rows));
+        subset.setFloorAreas(areas);
+        subset.setResalePrices(prices);
+        subset.setLeaseCommenceDates(leaseDates);
+        subset.setFlatTypes(subsetOf(getFlatTypes(), rows));
+        subset.setBlocks(subsetOf(getBlocks(), rows));
+        subset.setStreetNames(subsetOf(getStreetNames(), rows));
+        subset.setStoreyRanges(subsetOf(getStoreyRanges(), rows));
+        subset.setFlatModels(subsetOf(getFlatModels(), rows));
+        return subset;
+    }
+
+    private DictionaryColumn subsetOf(DictionaryColumn column, int[] rows) {
+        DictionaryColumn subset = new DictionaryColumn();
+        if (column.size() != size) return subset;
+        for (int row : rows) subset.add(column.get(row));
+        return subset;
+    }
+
+    /**
+     * Append the rows of another analyzer, e.g. one month of new transactions.
+     * Dictionary columns are re-encoded into this analyzer's dictionaries, and
+     * the block statistics, town bitmaps, area index and composite index that
+     * are already built are extended with the new rows only. Persisted indexes
+     * no longer cover the table and are detached; ColumnarStorage re-attaches
+     * the segmented ones after an append to a column store.
+     */
+    public synchronized void append(DataAnalyzer delta) {
+        int from = size;
+        int rows = delta.size();
+        if (rows == 0) return;
+        int to = from + rows;
+        BlockStatistics previousStats = blockStats != null && blockStats.getRowCount() == from ? blockStats : null;
+
+        yearMonths = Arrays.copyOf(yearMonths, to);
+        System.arraycopy(delta.yearMonths, 0, yearMonths, from, rows);
+        encodedYearMonths = encodedYearMonths != null && delta.encodedYearMonths != null
+            ? EncodedColumn.concat(encodedYearMonths, delta.encodedYearMonths) : null;
+        // Columns neither side has read yet stay unread: the store handles are joined instead
+        StoreColumns unread = unreadColumns, deltaUnread = delta.unreadColumns;
+        StoreColumns joined = unread != null && deltaUnread != null ? unread.concat(deltaUnread) : null;
+        floorAreas = staysUnread(joined, delta, ColumnPredicate.FLOOR_AREA) ? null
+            : appendDoubles(getFloorAreas(), delta.getFloorAreas(), from, rows);
+        resalePrices = staysUnread(joined, delta, ColumnPredicate.RESALE_PRICE) ? null
+            : appendDoubles(getResalePrices(), delta.getResalePrices(), from, rows);
+        if (staysUnread(joined, delta, ColumnPredicate.LEASE_COMMENCE_DATE)) {
+            lease_commence_date = null;
+        } else if (getLeaseCommenceDates().length == from && delta.getLeaseCommenceDates().length == rows) {
+            lease_commence_date = appendDoubles(getLeaseCommenceDates(), delta.getLeaseCommenceDates(), from, rows);
+        } else {
+            lease_commence_date = new double[0];
+        }
+        boolean sameTownCodes = towns.appendAll(delta.towns);
+        flat_types = staysUnread(joined, delta, ColumnPredicate.FLAT_TYPE) ? null
+            : appendColumn(getFlatTypes(), delta.getFlatTypes(), from, rows);
+        block = staysUnread(joined, delta, ColumnPredicate.BLOCK) ? null
+            : appendColumn(getBlocks(), delta.getBlocks(), from, rows);
+        street_name = staysUnread(joined, delta, ColumnPredicate.STREET_NAME) ? null
+            : appendColumn(getStreetNames(), delta.getStreetNames(), from, rows);
+        storey_range = staysUnread(joined, delta, ColumnPredicate.STOREY_RANGE) ? null
+            : appendColumn(getStoreyRanges(), delta.getStoreyRanges(), from, rows);
+        flat_model = staysUnread(joined, delta, ColumnPredicate.FLAT_MODEL) ? null
+            : appendColumn(getFlatModels(), delta.getFlatModels(), from, rows);
+        unreadColumns = joined;
+        size = to;
+
+        // Zone maps: reuse the delta's own when its town codes carried over unchanged
+        if (previousStats != null) {
+            BlockStatistics deltaStats = delta.blockStats;
+            if (!sameTownCodes || deltaStats == null || deltaStats.getRowCount() != rows) {
+                deltaStats = BlockStatistics.build(yearMonths, getFloorAreas(), getResalePrices(), towns.codes(), from, to,
+                    towns.cardinality(), BlockStatistics.DEFAULT_BLOCK_ROWS);
+            }
+            blockStats = BlockStatistics.concat(previousStats, deltaStats);
+        } else {
+            blockStats = null;
+        }
+        tableStats = null;
+        // Built year and month bitmaps are extended; file-backed ones are replaced by the segmented indexes
+        TownZoneMapper dates = townZoneMapper;
+        townZoneMapper = dates != null && !dates.isFileBacked() ? dates.appended(yearMonths, from, to) : null;
+        AggregateCube cube = aggregateCube;
+        if (cube != null) {
+            aggregateCube = cube.appended(yearMonths, towns.codes(), getFloorAreas(), getResalePrices(),
+                towns.cardinality(), from, to);
+        }
+        appendToIndexes(from, to);
+        invalidateResults(delta.yearMonths);
+    }
+
+    // Drop the cached results of windows whose months received rows
+    private void invalidateResults(int[] appended) {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int yearMonth : appended) {
+            min = Math.min(min, yearMonth);
+            max = Math.max(max, yearMonth);
+        }
+        int from = min, to = max;
+        resultCache.invalidateIf(key -> key.overlaps(from, to));
+    }
+
+    // Cache budget in bytes, evicting down to it; 0 turns result caching off
+    public void setResultCacheBytes(long bytes) {
+        resultCache.setMaxBytes(bytes);
+    }
+
+    // Hit, miss and eviction counters of the result cache
+    public QueryCache<?, ?> getResultCache() {
+        return resultCache;
+    }
+
+    // Extend the in-memory indexes with rows [from, to); rows arrive in ascending order
+    private void appendToIndexes(int from, int to) {
+        int[] townCodes = towns.codes();
+        RowBitmap[] zones = ZoneMap;
+        if (zones != null && townIndexFile == null) {
+            // A new array and new bitmaps for the towns that receive rows; the rest stay shared
+            zones = Arrays.copyOf(zones, Math.max(zones.length, towns.cardinality()));
+            for (int c = 0; c < zones.length; c++) if (zones[c] == null) zones[c] = new RowBitmap();
+            for (int i = from; i < to; i++) {
+                int c = townCodes[i];
+                if (zones[c].isFrozen()) zones[c] = zones[c].appendable();
+                zones[c].add(i);
+            }
+            for (RowBitmap zone : zones) zone.freeze();
+            ZoneMap = zones;
+        } else {
+            ZoneMap = null;
+        }
+        townIndexFile = null;
+
+        RowBitmap[] index = areaIndex;
+        if (index != null) {
+            index = index.clone(); // Likewise for the bins
+            double[] floorAreas = getFloorAreas();
+            for (int i = from; i < to && index != null; i++) {
+                if (Double.isNaN(floorAreas[i])) continue;
+                int bin = floorAreas[i] > 0 ? (int) (floorAreas[i] / AREA_BIN_SQM) : 0;
+                if (bin >= index.length) {
+                    index = null; // New maximum area: rebuild on first use
+                } else {
+                    for (int k = 0; k <= bin; k++) {
+                        if (index[k].isFrozen()) index[k] = index[k].appendable();
+                        index[k].add(i);
+                    }
+                }
+            }
+            if (index != null) for (RowBitmap bin : index) bin.freeze();
+            areaIndex = index;
+        }
+
+        if (!yearMonthTownIndex.isEmpty()) {
+            Map<Long, IntList> buckets = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                buckets.computeIfAbsent(compositeKey(yearMonths[i], townCodes[i]), k -> new IntList()).add(i);
+            }
+            for (Map.Entry<Long, IntList> entry : buckets.entrySet()) {
+                int[] previous = yearMonthTownIndex.getOrDefault(entry.getKey(), new int[0]);
+                int[] rows = Arrays.copyOf(previous, previous.length + entry.getValue().size());
+                for (int j = 0; j < entry.getValue().size(); j++) rows[previous.length + j] = entry.getValue().get(j);
+                yearMonthTownIndex.put(entry.getKey(), rows);
+            }
+        }
+        compositeIndexFile = null;
+    }
+
+    private boolean staysUnread(StoreColumns joined, DataAnalyzer delta, String column) {
+        return joined != null && joined.contains(column) && !isColumnLoaded(column) && !delta.isColumnLoaded(column);
+    }
+
+    private static double[] appendDoubles(double[] column, double[] delta, int from, int rows) {
+        double[] values = Arrays.copyOf(column, from + rows);
+        System.arraycopy(delta, 0, values, from, rows);
+        return values;
+    }
+
+    // Descriptive columns are only kept while both sides have them for every row
+    private static DictionaryColumn appendColumn(DictionaryColumn column, DictionaryColumn delta, int from, int rows) {
+        if (column.size() != from || delta.size() != rows) return new DictionaryColumn();
+        column.appendAll(delta);
+        return column;
+    }
+
     // Setters for loading data from column store
-    public void setMonths(List<String> months) {
-        this.months = months;
+    public void setYearMonths(int[] yearMonths) {
+        this.yearMonths = yearMonths;
+        this.size = yearMonths.length;
+        this.encodedYearMonths = null;
+        this.compositeIndexFile = null;
+        this.yearMonthTownIndex.clear();
+        this.townZoneMapper = null;
+        this.aggregateCube = null;
+        this.resultCache.clear();
+        this.blockStats = null;
+        this.tableStats = null;
         // rebuildZoneMap(); // mapping handled in Main
     }
     
+    // Compressed form of the months just set, read from the column store; must hold the same rows
+    public void setEncodedYearMonths(EncodedColumn encodedYearMonths) {
+        this.encodedYearMonths = encodedYearMonths.size() == size ? encodedYearMonths : null;
+    }
+
+    public EncodedColumn getEncodedYearMonths() {
+        return encodedYearMonths;
+    }
+    
     public void setTowns(List<String> towns) {
-        this.towns = towns;
-        // Rebuild town-to-indices map for filtering
-        ZoneMap.clear();
-        for (int i = 0; i < towns.size(); i++) {
-            ZoneMap.computeIfAbsent(towns.get(i), k -> new ArrayList<>()).add(i);
+        DictionaryColumn encoded = new DictionaryColumn();
+        for (String town : towns) {
+            encoded.add(town);
         }
+        setTowns(encoded);
+    }
+
+    public void setTowns(DictionaryColumn towns) {
+        this.towns = towns;
+        this.aggregateCube = null;
+        this.blockStats = null;
+        this.resultCache.clear();
+        this.tableStats = null;
+        // Town-to-indices map is rebuilt on first use
+        this.ZoneMap = null;
+        this.townIndexFile = null;
+        this.compositeIndexFile = null;
+        this.yearMonthTownIndex.clear();
         // rebuildZoneMap(); // mapping handled in Main
     }
+
+    public void setFlatTypes(DictionaryColumn flatTypes) {
+        this.flat_types = flatTypes;
+    }
+
+    public void setBlocks(DictionaryColumn blocks) {
+        this.block = blocks;
+    }
+
+    public void setStreetNames(DictionaryColumn streetNames) {
+        this.street_name = streetNames;
+    }
+
+    public void setStoreyRanges(DictionaryColumn storeyRanges) {
+        this.storey_range = storeyRanges;
+    }
+
+    public void setFlatModels(DictionaryColumn flatModels) {
+        this.flat_model = flatModels;
+    }
     
-    public void setFloorAreas(List<Double> floorAreas) {
+    public void setFloorAreas(double[] floorAreas) {
         this.floorAreas = floorAreas;
+        this.areaIndex = null;
+        this.aggregateCube = null;
+        this.resultCache.clear();
+        this.blockStats = null;
+        this.tableStats = null;
     }
     
-    public void setResalePrices(List<Double> resalePrices) {
+    public void setResalePrices(double[] resalePrices) {
         this.resalePrices = resalePrices;
+        this.aggregateCube = null;
+        this.resultCache.clear();
+        this.blockStats = null;
+        this.tableStats = null;
+    }
+
+    public void setLeaseCommenceDates(double[] leaseCommenceDates) {
+        this.lease_commence_date = leaseCommenceDates;
+    }
+
+    /**
+     * Columns of a column store to read on first use rather than now; they
+     * replace any values of those columns set before. A query reads only the
+     * columns it touches, so e.g. counting rows per town never reads prices.
+     */
+    public synchronized void setUnreadColumns(StoreColumns columns) {
+        if (columns.getRowCount() != size) {
+            throw new IllegalArgumentException("Store columns have " + columns.getRowCount() + " rows, table has " + size);
+        }
+        unreadColumns = columns;
+        for (String column : columns.columns()) {
+            switch (column) {
+                case ColumnPredicate.FLAT_TYPE: flat_types = null; break;
+                case ColumnPredicate.BLOCK: block = null; break;
+                case ColumnPredicate.STREET_NAME: street_name = null; break;
+                case ColumnPredicate.STOREY_RANGE: storey_range = null; break;
+                case ColumnPredicate.FLAT_MODEL: flat_model = null; break;
+                case ColumnPredicate.LEASE_COMMENCE_DATE: lease_commence_date = null; break;
+                case ColumnPredicate.FLOOR_AREA:
+                    floorAreas = null;
+                    areaIndex = null;
+                    break;
+                case ColumnPredicate.RESALE_PRICE: resalePrices = null; break;
+                default: throw new IllegalArgumentException("Not a lazily read column: " + column);
+            }
+        }
+        aggregateCube = null;
+        resultCache.clear();
+        blockStats = null;
+        tableStats = null;
+    }
+
+    public StoreColumns getUnreadColumns() {
+        return unreadColumns;
     }
 }
\ No newline at end of file
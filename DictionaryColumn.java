@@ -0,0 +1,141 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary-encoded string column: each distinct value is stored once and
+ * rows hold an int code into the dictionary. Predicates resolve their target
+ * value to a code once via lookup() and then compare ints per row.
+ */
+public class DictionaryColumn {
+    private final List<String> dictionary;
+    private final Map<String, Integer> codeOf;
+    private int[] codes;
+    private int size;
+
+    public DictionaryColumn() {
+        dictionary = new ArrayList<>();
+        codeOf = new HashMap<>();
+        codes = new int[1024];
+    }
+
+    // Wrap an already encoded column, e.g. one read back from a column file
+    public static DictionaryColumn of(String[] dictionary, int[] codes) {
+        DictionaryColumn column = new DictionaryColumn();
+        for (String value : dictionary) {
+            column.codeOf.put(value, column.dictionary.size());
+            column.dictionary.add(value);
+        }
+        column.codes = codes;
+        column.size = codes.length;
+        return column;
+    }
+
+    // Independent copy, so rows can be appended while readers keep using this column
+    public DictionaryColumn copy() {
+        DictionaryColumn column = new DictionaryColumn();
+        column.dictionary.addAll(dictionary);
+        column.codeOf.putAll(codeOf);
+        column.codes = Arrays.copyOf(codes, size);
+        column.size = size;
+        return column;
+    }
+
+    // Append a row, adding the value to the dictionary on first sight
+    public int add(String value) {
+        int code = intern(value);
+        ensureCapacity(size + 1);
+        codes[size++] = code;
+        return code;
+    }
+
+    /**
+     * Append every row of other, re-encoding its codes into this dictionary.
+     * Costs one lookup per distinct value of other plus one copy per row.
+     * Returns true if no code changed, i.e. other's dictionary extends this one.
+     */
+    public boolean appendAll(DictionaryColumn other) {
+        int[] remap = new int[other.cardinality()];
+        boolean identity = true;
+        for (int c = 0; c < remap.length; c++) {
+            remap[c] = intern(other.decode(c));
+            identity &= remap[c] == c;
+        }
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            codes[size++] = remap[other.codes[i]];
+        }
+        return identity;
+    }
+
+    // Code of value, adding it to the dictionary on first sight
+    private int intern(String value) {
+        Integer code = codeOf.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            codeOf.put(value, code);
+            dictionary.add(value);
+        }
+        return code;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (rows > codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(rows, codes.length * 2));
+        }
+    }
+
+    // Code of a value, or -1 if it never occurs in the column
+    public int lookup(String value) {
+        Integer code = codeOf.get(value);
+        return code == null ? -1 : code;
+    }
+
+    public int code(int row) {
+        return codes[row];
+    }
+
+    public String get(int row) {
+        return dictionary.get(codes[row]);
+    }
+
+    public String decode(int code) {
+        return dictionary.get(code);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int cardinality() {
+        return dictionary.size();
+    }
+
+    // Backing code array; only the first size() entries are valid
+    public int[] codes() {
+        return codes;
+    }
+
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    // Read-only decoded view, for callers that still want strings
+    public List<String> asList() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index >= size) throw new IndexOutOfBoundsException(index);
+                return DictionaryColumn.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Arrays;
+
+/**
+ * Growable double array, used for primitive columns while loading.
+ */
+public class DoubleList {
+    private double[] values;
+    private int size;
+
+    public DoubleList() {
+        this(16);
+    }
+
+    public DoubleList(int initialCapacity) {
+        values = new double[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public double get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Copy of the valid entries, sized exactly
+    public double[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
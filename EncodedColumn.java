@@ -0,0 +1,667 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lightweight-compressed int or double column. The rows are split into
+ * blocks (the zone-map block size) and each block picks the smallest of
+ * these codecs from its own statistics:
+ *   RLE    runs of equal values (sorted, low-cardinality columns such as months)
+ *   DELTA  first value plus bit-packed differences (sorted, many distinct values)
+ *   FOR    frame of reference: block minimum plus bit-packed offsets
+ *   DICT   block-local sorted dictionary plus bit-packed indexes
+ * Doubles are encoded as scaled longs when every value of the block has at
+ * most MAX_SCALE decimal digits, which holds for prices and floor areas;
+ * other double blocks are stored RAW.
+ *
+ * Layout (little-endian), at the start of an encoded ColumnFile payload:
+ *   int  byteLength     of this structure, so a dictionary can follow it
+ *   int  value type     0 = int, 1 = double
+ *   int  rows
+ *   int  blockCount
+ *   per block, BLOCK_HEADER_BYTES each:
+ *        int  start row, int data offset, byte codec, byte bit width, byte decimal scale, byte reserved,
+ *        int  run or dictionary entry count, long min, long max (scaled domain), long base
+ *   block data
+ *
+ * Opening reads only the block directory; values are decoded from the
+ * mapped buffer on demand, and rangeMask evaluates a predicate per run or
+ * per block where the codec allows it.
+ */
+public class EncodedColumn {
+    public static final byte RAW = 0; // Doubles only
+    public static final byte RLE = 1;
+    public static final byte DELTA = 2;
+    public static final byte FOR = 3;
+    public static final byte DICT = 4;
+    private static final String[] CODEC_NAMES = {"RAW", "RLE", "DELTA", "FOR", "DICT"};
+
+    private static final int HEADER_BYTES = 16;
+    private static final int BLOCK_HEADER_BYTES = 40;
+    private static final int MAX_SCALE = 4;
+    private static final double[] POW10 = {1, 10, 100, 1000, 10000};
+    private static final int MAX_DICT_ENTRIES = 1 << 16;
+
+    private final boolean doubles;
+    private final int rows;
+    private final int byteLength;
+    // Block directory, decoded on open; blocks of concatenated columns keep their own buffer
+    private final int[] starts; // Block b covers rows [starts[b], starts[b + 1])
+    private final ByteBuffer[] buffers;
+    private final int[] dataOffsets;
+    private final byte[] codecs, bits, scales;
+    private final int[] counts;
+    private final long[] mins, maxs, bases;
+
+    private EncodedColumn(boolean doubles, int rows, int byteLength, int blocks) {
+        this.doubles = doubles;
+        this.rows = rows;
+        this.byteLength = byteLength;
+        starts = new int[blocks + 1];
+        buffers = new ByteBuffer[blocks];
+        dataOffsets = new int[blocks];
+        codecs = new byte[blocks];
+        bits = new byte[blocks];
+        scales = new byte[blocks];
+        counts = new int[blocks];
+        mins = new long[blocks];
+        maxs = new long[blocks];
+        bases = new long[blocks];
+        starts[blocks] = rows;
+    }
+
+    // Read the block directory of an encoded column stored at the start of buffer
+    public static EncodedColumn open(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int blocks = in.getInt(12);
+        EncodedColumn column = new EncodedColumn(in.getInt(4) == 1, in.getInt(8), in.getInt(0), blocks);
+        for (int b = 0; b < blocks; b++) {
+            int h = HEADER_BYTES + b * BLOCK_HEADER_BYTES;
+            column.starts[b] = in.getInt(h);
+            column.buffers[b] = in;
+            column.dataOffsets[b] = in.getInt(h + 4);
+            column.codecs[b] = in.get(h + 8);
+            column.bits[b] = in.get(h + 9);
+            column.scales[b] = in.get(h + 10);
+            column.counts[b] = in.getInt(h + 12);
+            column.mins[b] = in.getLong(h + 16);
+            column.maxs[b] = in.getLong(h + 24);
+            column.bases[b] = in.getLong(h + 32);
+        }
+        return column;
+    }
+
+    // Columns laid end to end, e.g. a store followed by its appended segments
+    public static EncodedColumn concat(EncodedColumn... parts) {
+        int rows = 0, blocks = 0, bytes = 0;
+        for (EncodedColumn part : parts) {
+            rows += part.rows;
+            blocks += part.getBlockCount();
+            bytes += part.byteLength;
+        }
+        EncodedColumn column = new EncodedColumn(parts[0].doubles, rows, bytes, blocks);
+        int b = 0, rowBase = 0;
+        for (EncodedColumn part : parts) {
+            for (int pb = 0; pb < part.getBlockCount(); pb++, b++) {
+                column.starts[b] = rowBase + part.starts[pb];
+                column.buffers[b] = part.buffers[pb];
+                column.dataOffsets[b] = part.dataOffsets[pb];
+                column.codecs[b] = part.codecs[pb];
+                column.bits[b] = part.bits[pb];
+                column.scales[b] = part.scales[pb];
+                column.counts[b] = part.counts[pb];
+                column.mins[b] = part.mins[pb];
+                column.maxs[b] = part.maxs[pb];
+                column.bases[b] = part.bases[pb];
+            }
+            rowBase += part.rows;
+        }
+        return column;
+    }
+
+    public int size() { return rows; }
+    public int getBlockCount() { return codecs.length; }
+    public byte getCodec(int block) { return codecs[block]; }
+
+    // Encoded size in bytes, block directory included
+    public int getByteLength() { return byteLength; }
+
+    // Blocks per codec, e.g. "RLE 147, FOR 2"
+    public String describeCodecs() {
+        int[] perCodec = new int[CODEC_NAMES.length];
+        for (byte codec : codecs) perCodec[codec]++;
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < perCodec.length; c++) {
+            if (perCodec[c] == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(CODEC_NAMES[c]).append(' ').append(perCodec[c]);
+        }
+        return sb.toString();
+    }
+
+    // Random access; DELTA blocks are summed up to the row
+    public int getInt(int row) {
+        int b = blockOf(row);
+        return (int) valueAt(b, row - starts[b]);
+    }
+
+    public double getDouble(int row) {
+        int b = blockOf(row);
+        return toDouble(b, valueAt(b, row - starts[b]));
+    }
+
+    public int[] decodeInts() {
+        int[] values = new int[rows];
+        long[] scratch = new long[maxBlockRows()];
+        for (int b = 0; b < codecs.length; b++) {
+            int n = decodeBlock(b, scratch);
+            for (int i = 0; i < n; i++) values[starts[b] + i] = (int) scratch[i];
+        }
+        return values;
+    }
+
+    public double[] decodeDoubles() {
+        double[] values = new double[rows];
+        long[] scratch = new long[maxBlockRows()];
+        for (int b = 0; b < codecs.length; b++) {
+            int n = decodeBlock(b, scratch);
+            int start = starts[b];
+            if (codecs[b] == RAW) {
+                for (int i = 0; i < n; i++) values[start + i] = Double.longBitsToDouble(scratch[i]);
+            } else {
+                double divisor = POW10[scales[b]];
+                for (int i = 0; i < n; i++) values[start + i] = scratch[i] / divisor;
+            }
+        }
+        return values;
+    }
+
+    // True if rangeMask over [from, to) works per run or per block rather than per row
+    public boolean isRunLevel(int from, int to) {
+        if (from >= to) return true;
+        for (int b = blockOf(from), last = blockOf(to - 1); b <= last; b++) {
+            if (codecs[b] != RLE && mins[b] != maxs[b]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * mask = lo <= value <= hi for rows [from, to) of an int column, with bit
+     * (i - from) standing for row i as in FilterKernels. Blocks whose min/max
+     * decide the predicate are set or skipped whole, RLE blocks are checked
+     * once per run, and only the remaining blocks are decoded row by row.
+     */
+    public void rangeMask(int from, int to, long lo, long hi, long[] mask) {
+        Arrays.fill(mask, 0, FilterKernels.words(from, to), 0L);
+        if (from >= to) return;
+        for (int b = blockOf(from), last = blockOf(to - 1); b <= last; b++) {
+            int s = Math.max(from, starts[b]);
+            int e = Math.min(to, starts[b + 1]);
+            if (mins[b] > hi || maxs[b] < lo) continue;
+            if (mins[b] >= lo && maxs[b] <= hi) {
+                setBits(mask, s - from, e - from);
+            } else if (codecs[b] == RLE) {
+                ByteBuffer buf = buffers[b];
+                int data = dataOffsets[b];
+                int runs = counts[b];
+                int runStart = starts[b];
+                for (int r = 0; r < runs && runStart < e; r++) {
+                    int runEnd = starts[b] + buf.getInt(data + runs * 8 + r * 4);
+                    long value = buf.getLong(data + r * 8);
+                    if (value >= lo && value <= hi && runEnd > s) {
+                        setBits(mask, Math.max(s, runStart) - from, Math.min(e, runEnd) - from);
+                    }
+                    runStart = runEnd;
+                }
+            } else {
+                long[] values = new long[starts[b + 1] - starts[b]];
+                decodeBlock(b, values);
+                for (int i = s; i < e; i++) {
+                    long value = values[i - starts[b]];
+                    mask[(i - from) >>> 6] |= (value >= lo && value <= hi ? 1L : 0L) << (i - from);
+                }
+            }
+        }
+    }
+
+    // Set bits [fromBit, toBit) of mask
+    private static void setBits(long[] mask, int fromBit, int toBit) {
+        if (fromBit >= toBit) return;
+        int firstWord = fromBit >>> 6, lastWord = (toBit - 1) >>> 6;
+        long firstMask = -1L << fromBit;
+        long lastMask = -1L >>> (63 - ((toBit - 1) & 63));
+        if (firstWord == lastWord) {
+            mask[firstWord] |= firstMask & lastMask;
+            return;
+        }
+        mask[firstWord] |= firstMask;
+        for (int w = firstWord + 1; w < lastWord; w++) mask[w] = -1L;
+        mask[lastWord] |= lastMask;
+    }
+
+    private int maxBlockRows() {
+        int max = 0;
+        for (int b = 0; b < codecs.length; b++) max = Math.max(max, starts[b + 1] - starts[b]);
+        return max;
+    }
+
+    private int blockOf(int row) {
+        int lo = 0, hi = codecs.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private double toDouble(int b, long value) {
+        if (codecs[b] == RAW) return Double.longBitsToDouble(value);
+        return value / POW10[scales[b]];
+    }
+
+    // Value i of block b in the encoded domain (raw doubles as their bits)
+    private long valueAt(int b, int i) {
+        ByteBuffer buf = buffers[b];
+        int data = dataOffsets[b];
+        switch (codecs[b]) {
+            case RAW:
+                return buf.getLong(data + i * 8);
+            case RLE: {
+                int runs = counts[b];
+                int lo = 0, hi = runs - 1; // First run ending after i
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (buf.getInt(data + runs * 8 + mid * 4) > i) hi = mid;
+                    else lo = mid + 1;
+                }
+                return buf.getLong(data + lo * 8);
+            }
+            case DELTA: {
+                long value = bases[b];
+                long minDelta = buf.getLong(data);
+                for (int j = 0; j < i; j++) value += minDelta + unpack(buf, data + 8, bits[b], j);
+                return value;
+            }
+            case FOR:
+                return bases[b] + unpack(buf, data, bits[b], i);
+            case DICT:
+                return buf.getLong(data + (int) unpack(buf, data + counts[b] * 8, bits[b], i) * 8);
+            default:
+                throw new IllegalStateException("Unknown codec " + codecs[b]);
+        }
+    }
+
+    // Decode a whole block into out; returns its row count
+    private int decodeBlock(int b, long[] out) {
+        ByteBuffer buf = buffers[b];
+        int data = dataOffsets[b];
+        int n = starts[b + 1] - starts[b];
+        switch (codecs[b]) {
+            case RAW:
+                buf.slice(data, n * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(out, 0, n);
+                break;
+            case RLE: {
+                int runs = counts[b];
+                int pos = 0;
+                for (int r = 0; r < runs; r++) {
+                    int end = buf.getInt(data + runs * 8 + r * 4);
+                    Arrays.fill(out, pos, end, buf.getLong(data + r * 8));
+                    pos = end;
+                }
+                break;
+            }
+            case DELTA: {
+                long minDelta = buf.getLong(data);
+                unpackAll(buf, data + 8, bits[b], n - 1, out);
+                // Shift right by one while turning the deltas into a running sum
+                for (int i = n - 1; i > 0; i--) out[i] = out[i - 1] + minDelta;
+                out[0] = bases[b];
+                for (int i = 1; i < n; i++) out[i] += out[i - 1];
+                break;
+            }
+            case FOR: {
+                long base = bases[b];
+                unpackAll(buf, data, bits[b], n, out);
+                for (int i = 0; i < n; i++) out[i] += base;
+                break;
+            }
+            case DICT: {
+                long[] dictionary = new long[counts[b]];
+                buf.slice(data, dictionary.length * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(dictionary);
+                unpackAll(buf, data + dictionary.length * 8, bits[b], n, out);
+                for (int i = 0; i < n; i++) out[i] = dictionary[(int) out[i]];
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown codec " + codecs[b]);
+        }
+        return n;
+    }
+
+    // Sequential bit-unpacking of n values into out, one bulk read of the packed words
+    private static void unpackAll(ByteBuffer buf, int offset, int bits, int n, long[] out) {
+        if (bits == 0 || n <= 0) {
+            Arrays.fill(out, 0, Math.max(n, 0), 0L);
+            return;
+        }
+        long[] words = new long[(int) (packedBytes(n, bits) / 8)];
+        buf.slice(offset, words.length * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+        long valueMask = bits == 64 ? -1L : (1L << bits) - 1;
+        long bitPos = 0;
+        for (int i = 0; i < n; i++, bitPos += bits) {
+            int w = (int) (bitPos >>> 6);
+            int shift = (int) (bitPos & 63);
+            long value = words[w] >>> shift;
+            if (shift + bits > 64) value |= words[w + 1] << (64 - shift);
+            out[i] = value & valueMask;
+        }
+    }
+
+    private static long unpack(ByteBuffer buf, int offset, int bits, int index) {
+        if (bits == 0) return 0;
+        long bitPos = (long) index * bits;
+        int word = offset + (int) (bitPos >>> 6) * 8;
+        int shift = (int) (bitPos & 63);
+        long value = buf.getLong(word) >>> shift;
+        if (shift + bits > 64) value |= buf.getLong(word + 8) << (64 - shift);
+        return bits == 64 ? value : value & ((1L << bits) - 1);
+    }
+
+    /**
+     * Encode values [0, count) in blocks of blockRows rows. Returns the bytes
+     * of the structure described above, ready to be written as a payload.
+     */
+    public static byte[] encodeInts(int[] values, int count, int blockRows) {
+        long[] domain = new long[count];
+        for (int i = 0; i < count; i++) domain[i] = values[i];
+        return encode(domain, null, count, blockRows);
+    }
+
+    public static byte[] encodeDoubles(double[] values, int count, int blockRows) {
+        return encode(null, values, count, blockRows);
+    }
+
+    private static byte[] encode(long[] ints, double[] doubles, int count, int blockRows) {
+        int blocks = (count + blockRows - 1) / blockRows;
+        byte[][] data = new byte[blocks][];
+        BlockEncoding[] encodings = new BlockEncoding[blocks];
+        int total = HEADER_BYTES + blocks * BLOCK_HEADER_BYTES;
+        long[] scaled = new long[Math.min(count, blockRows)];
+        for (int b = 0; b < blocks; b++) {
+            int from = b * blockRows;
+            int n = Math.min(count, from + blockRows) - from;
+            encodings[b] = encodeBlock(ints, doubles, from, n, scaled);
+            data[b] = encodings[b].write(scaled, n);
+            total += data[b].length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(total).putInt(doubles != null ? 1 : 0).putInt(count).putInt(blocks);
+        int offset = HEADER_BYTES + blocks * BLOCK_HEADER_BYTES;
+        for (int b = 0; b < blocks; b++) {
+            putBlockHeader(out, encodings[b], b * blockRows, offset);
+            offset += data[b].length;
+        }
+        for (byte[] bytes : data) out.put(bytes);
+        return out.array();
+    }
+
+    // Choose the codec of values [from, from + n) of ints or doubles; leaves the values to write in scaled
+    private static BlockEncoding encodeBlock(long[] ints, double[] doubles, int from, int n, long[] scaled) {
+        if (ints != null) {
+            System.arraycopy(ints, from, scaled, 0, n);
+            return choose(scaled, n, 0);
+        }
+        int scale = decimalScale(doubles, from, n);
+        if (scale < 0) {
+            for (int i = 0; i < n; i++) scaled[i] = Double.doubleToRawLongBits(doubles[from + i]);
+            return BlockEncoding.rawDoubles(n);
+        }
+        for (int i = 0; i < n; i++) scaled[i] = Math.round(doubles[from + i] * POW10[scale]);
+        return choose(scaled, n, scale);
+    }
+
+    private static void putBlockHeader(ByteBuffer out, BlockEncoding e, int startRow, int dataOffset) {
+        out.putInt(startRow).putInt(dataOffset).put(e.codec).put((byte) e.bits).put((byte) e.scale).put((byte) 0)
+            .putInt(e.count).putLong(e.min).putLong(e.max).putLong(e.base);
+    }
+
+    /**
+     * Encodes a column handed over one block at a time, for columns that do
+     * not fit in memory. Only the block directory is kept; block data goes to
+     * a spill file until writeTo() knows the directory size and assembles the
+     * same bytes encodeInts/encodeDoubles would produce.
+     */
+    static final class StreamEncoder implements AutoCloseable {
+        private final boolean doubles;
+        private final Path spillPath;
+        private final OutputStream spill;
+        private final List<BlockEncoding> encodings = new ArrayList<>();
+        private final IntList starts = new IntList();
+        private final IntList lengths = new IntList();
+        private long[] widened = new long[0];
+        private long[] scaled = new long[0];
+        private int rows;
+        private long dataBytes;
+
+        StreamEncoder(boolean doubles, Path spillPath) throws IOException {
+            this.doubles = doubles;
+            this.spillPath = spillPath;
+            this.spill = new BufferedOutputStream(Files.newOutputStream(spillPath), 1 << 16);
+        }
+
+        void addInts(int[] values, int n) throws IOException {
+            if (widened.length < n) widened = new long[n];
+            for (int i = 0; i < n; i++) widened[i] = values[i];
+            add(widened, null, n);
+        }
+
+        void addDoubles(double[] values, int n) throws IOException {
+            add(null, values, n);
+        }
+
+        private void add(long[] ints, double[] values, int n) throws IOException {
+            if (n == 0) return;
+            if (scaled.length < n) scaled = new long[n];
+            BlockEncoding encoding = encodeBlock(ints, values, 0, n, scaled);
+            byte[] data = encoding.write(scaled, n);
+            encoding.dictionary = null; // Written; the directory does not need it
+            spill.write(data);
+            encodings.add(encoding);
+            starts.add(rows);
+            lengths.add(data.length);
+            rows += n;
+            dataBytes += data.length;
+        }
+
+        int getRowCount() {
+            return rows;
+        }
+
+        // Header, block directory and the spilled block data, as one encoded structure
+        void writeTo(ColumnFile.Writer writer) throws IOException {
+            spill.close();
+            int blocks = encodings.size();
+            long total = HEADER_BYTES + (long) blocks * BLOCK_HEADER_BYTES + dataBytes;
+            if (total > Integer.MAX_VALUE) throw new IOException("Encoded column exceeds 2 GB");
+            ByteBuffer directory = ByteBuffer.allocate(HEADER_BYTES + blocks * BLOCK_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            directory.putInt((int) total).putInt(doubles ? 1 : 0).putInt(rows).putInt(blocks);
+            int offset = directory.capacity();
+            for (int b = 0; b < blocks; b++) {
+                putBlockHeader(directory, encodings.get(b), starts.get(b), offset);
+                offset += lengths.get(b);
+            }
+            writer.putBytes(directory.array());
+            try (InputStream in = Files.newInputStream(spillPath)) {
+                byte[] chunk = new byte[1 << 16];
+                int n;
+                while ((n = in.read(chunk)) > 0) {
+                    writer.putBytes(n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            spill.close();
+            Files.deleteIfExists(spillPath);
+        }
+    }
+
+    // Smallest decimal scale at which every value of the block is an exact long, or -1
+    private static int decimalScale(double[] values, int from, int n) {
+        int scale = 0;
+        for (int i = from; i < from + n; i++) {
+            double v = values[i];
+            while (scale <= MAX_SCALE && !exactAtScale(v, scale)) scale++;
+            if (scale > MAX_SCALE) return -1;
+        }
+        return scale;
+    }
+
+    private static boolean exactAtScale(double v, int scale) {
+        double scaled = v * POW10[scale];
+        if (!(Math.abs(scaled) < 1L << 52)) return false; // Also rejects NaN and infinities
+        return Double.compare(Math.round(scaled) / POW10[scale], v) == 0;
+    }
+
+    // Estimate every codec from the block's statistics and keep the smallest; FOR never exceeds plain values
+    private static BlockEncoding choose(long[] v, int n, int scale) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        long minDelta = Long.MAX_VALUE, maxDelta = Long.MIN_VALUE;
+        int runs = n > 0 ? 1 : 0;
+        for (int i = 0; i < n; i++) {
+            min = Math.min(min, v[i]);
+            max = Math.max(max, v[i]);
+            if (i > 0) {
+                long delta = v[i] - v[i - 1];
+                minDelta = Math.min(minDelta, delta);
+                maxDelta = Math.max(maxDelta, delta);
+                if (delta != 0) runs++;
+            }
+        }
+        long[] distinct = Arrays.copyOf(v, n);
+        Arrays.sort(distinct);
+        int entries = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) distinct[entries++] = distinct[i];
+        }
+
+        BlockEncoding best = new BlockEncoding(FOR, bitsFor(max - min), 0, min, max, min, packedBytes(n, bitsFor(max - min)));
+        BlockEncoding[] candidates = {
+            new BlockEncoding(RLE, 0, runs, min, max, min, runs * 12L),
+            n > 1 ? new BlockEncoding(DELTA, bitsFor(maxDelta - minDelta), 0, min, max, v[0],
+                8 + packedBytes(n - 1, bitsFor(maxDelta - minDelta))) : null,
+            entries <= MAX_DICT_ENTRIES ? new BlockEncoding(DICT, bitsFor(entries - 1), entries, min, max, min,
+                entries * 8L + packedBytes(n, bitsFor(entries - 1))) : null,
+        };
+        for (BlockEncoding candidate : candidates) {
+            if (candidate != null && candidate.bytes < best.bytes) best = candidate;
+        }
+        best.scale = scale;
+        best.minDelta = minDelta;
+        best.dictionary = best.codec == DICT ? Arrays.copyOf(distinct, entries) : null;
+        return best;
+    }
+
+    private static int bitsFor(long range) {
+        return range == 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static long packedBytes(int n, int bits) {
+        return ((long) n * bits + 63) / 64 * 8;
+    }
+
+    /**
+     * Codec choice for one block while encoding.
+     */
+    private static class BlockEncoding {
+        final byte codec;
+        final int bits;
+        final int count;
+        final long min, max;
+        final long base;
+        final long bytes;
+        int scale;
+        long minDelta;
+        long[] dictionary;
+
+        BlockEncoding(byte codec, int bits, int count, long min, long max, long base, long bytes) {
+            this.codec = codec;
+            this.bits = bits;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.base = base;
+            this.bytes = bytes;
+        }
+
+        // Doubles with too many decimals are kept as their bits; min/max mean nothing there
+        static BlockEncoding rawDoubles(int n) {
+            return new BlockEncoding(RAW, 0, 0, Long.MIN_VALUE, Long.MAX_VALUE, 0, n * 8L);
+        }
+
+        byte[] write(long[] v, int n) {
+            ByteBuffer out = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+            switch (codec) {
+                case RAW:
+                    for (int i = 0; i < n; i++) out.putLong(v[i]);
+                    break;
+                case RLE: {
+                    int pos = 0;
+                    int[] ends = new int[count];
+                    for (int i = 1; i <= n; i++) {
+                        if (i == n || v[i] != v[i - 1]) {
+                            out.putLong(v[i - 1]);
+                            ends[pos++] = i;
+                        }
+                    }
+                    for (int end : ends) out.putInt(end);
+                    break;
+                }
+                case DELTA: {
+                    out.putLong(minDelta);
+                    long[] packed = new long[(int) (packedBytes(n - 1, bits) / 8)];
+                    for (int i = 1; i < n; i++) pack(packed, bits, i - 1, v[i] - v[i - 1] - minDelta);
+                    for (long word : packed) out.putLong(word);
+                    break;
+                }
+                case FOR: {
+                    long[] packed = new long[(int) (packedBytes(n, bits) / 8)];
+                    for (int i = 0; i < n; i++) pack(packed, bits, i, v[i] - base);
+                    for (long word : packed) out.putLong(word);
+                    break;
+                }
+                case DICT: {
+                    for (long entry : dictionary) out.putLong(entry);
+                    long[] packed = new long[(int) (packedBytes(n, bits) / 8)];
+                    for (int i = 0; i < n; i++) pack(packed, bits, i, Arrays.binarySearch(dictionary, v[i]));
+                    for (long word : packed) out.putLong(word);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown codec " + codec);
+            }
+            return out.array();
+        }
+
+        private static void pack(long[] packed, int bits, int index, long value) {
+            if (bits == 0) return;
+            long bitPos = (long) index * bits;
+            int word = (int) (bitPos >>> 6);
+            int shift = (int) (bitPos & 63);
+            packed[word] |= value << shift;
+            if (shift + bits > 64) packed[word + 1] |= value >>> (64 - shift);
+        }
+    }
+}
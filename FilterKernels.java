@@ -0,0 +1,188 @@
+/**
+ * Filter and aggregate kernels over primitive column arrays.
+ *
+ * Predicates produce selection bitmasks: bit (i - from) of mask is set when
+ * row i qualifies. Masks are combined with and() and consumed either by the
+ * masked aggregates or by appendSelection().
+ *
+ * Every kernel has a scalar implementation here and a SIMD one in
+ * VectorKernels (jdk.incubator.vector). The SIMD path is used when the
+ * module is present (java --add-modules jdk.incubator.vector) and can be
+ * switched off at runtime with setVectorized(false) or
+ * -Dkernels.vectorized=false. Masks are identical on both paths; sums may
+ * differ in the last bits because lanes are added in a different order.
+ */
+public final class FilterKernels {
+    public static final boolean VECTOR_AVAILABLE =
+        ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private static volatile boolean vectorized =
+        VECTOR_AVAILABLE && !"false".equals(System.getProperty("kernels.vectorized"));
+
+    private FilterKernels() {}
+
+    public static boolean isVectorized() {
+        return vectorized;
+    }
+
+    // Enable or disable the SIMD kernels; ignored when the vector module is not loaded
+    public static void setVectorized(boolean enabled) {
+        vectorized = enabled && VECTOR_AVAILABLE;
+    }
+
+    // Number of mask words covering rows [from, to)
+    public static int words(int from, int to) {
+        return (to - from + 63) >>> 6;
+    }
+
+    // mask = lo <= col[i] <= hi
+    public static void rangeMask(double[] col, int from, int to, double lo, double hi, long[] mask) {
+        if (vectorized) {
+            VectorKernels.rangeMask(col, from, to, lo, hi, mask);
+            return;
+        }
+        clear(mask, from, to);
+        for (int i = from; i < to; i++) {
+            double v = col[i];
+            mask[(i - from) >>> 6] |= (v >= lo && v <= hi ? 1L : 0L) << (i - from);
+        }
+    }
+
+    // mask = lo <= col[i] <= hi
+    public static void rangeMask(int[] col, int from, int to, int lo, int hi, long[] mask) {
+        if (vectorized) {
+            VectorKernels.rangeMask(col, from, to, lo, hi, mask);
+            return;
+        }
+        clear(mask, from, to);
+        for (int i = from; i < to; i++) {
+            int v = col[i];
+            mask[(i - from) >>> 6] |= (v >= lo && v <= hi ? 1L : 0L) << (i - from);
+        }
+    }
+
+    // mask = col[i] == value
+    public static void equalsMask(int[] col, int from, int to, int value, long[] mask) {
+        if (vectorized) {
+            VectorKernels.equalsMask(col, from, to, value, mask);
+            return;
+        }
+        clear(mask, from, to);
+        for (int i = from; i < to; i++) {
+            mask[(i - from) >>> 6] |= (col[i] == value ? 1L : 0L) << (i - from);
+        }
+    }
+
+    // mask &= other
+    public static void and(long[] mask, long[] other, int words) {
+        for (int w = 0; w < words; w++) {
+            mask[w] &= other[w];
+        }
+    }
+
+    public static int count(long[] mask, int words) {
+        int n = 0;
+        for (int w = 0; w < words; w++) {
+            n += Long.bitCount(mask[w]);
+        }
+        return n;
+    }
+
+    // Append the qualifying row indices in ascending order
+    public static void appendSelection(long[] mask, int from, int to, IntList out) {
+        int words = words(from, to);
+        for (int w = 0; w < words; w++) {
+            long word = mask[w];
+            while (word != 0) {
+                out.add(from + (w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    public static double maskedSum(double[] col, int from, int to, long[] mask) {
+        if (vectorized) return VectorKernels.maskedSum(col, from, to, mask);
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            if (isSet(mask, i - from)) sum += col[i];
+        }
+        return sum;
+    }
+
+    // Sum of (col[i] - center)^2 over selected rows; pass the mean for a stable variance
+    public static double maskedSumOfSquares(double[] col, int from, int to, long[] mask, double center) {
+        if (vectorized) return VectorKernels.maskedSumOfSquares(col, from, to, mask, center);
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            if (isSet(mask, i - from)) {
+                double d = col[i] - center;
+                sum += d * d;
+            }
+        }
+        return sum;
+    }
+
+    public static double maskedMin(double[] col, int from, int to, long[] mask) {
+        if (vectorized) return VectorKernels.maskedMin(col, from, to, mask);
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            if (isSet(mask, i - from) && col[i] < min) min = col[i];
+        }
+        return min;
+    }
+
+    public static double maskedMax(double[] col, int from, int to, long[] mask) {
+        if (vectorized) return VectorKernels.maskedMax(col, from, to, mask);
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            if (isSet(mask, i - from) && col[i] > max) max = col[i];
+        }
+        return max;
+    }
+
+    // Minimum of num[i] / den[i] over selected rows, e.g. price per sqm
+    public static double maskedMinRatio(double[] num, double[] den, int from, int to, long[] mask) {
+        if (vectorized) return VectorKernels.maskedMinRatio(num, den, from, to, mask);
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            if (isSet(mask, i - from)) {
+                double r = num[i] / den[i];
+                if (r < min) min = r;
+            }
+        }
+        return min;
+    }
+
+    // Aggregate the selected rows of a block into a mergeable partial
+    public static PriceAggregate maskedAggregate(double[] prices, double[] areas, int from, int to, long[] mask) {
+        int n = count(mask, words(from, to));
+        if (n == 0) return new PriceAggregate();
+        double mean = maskedSum(prices, from, to, mask) / n;
+        return PriceAggregate.ofMoments(n, mean, maskedSumOfSquares(prices, from, to, mask, mean),
+            maskedMin(prices, from, to, mask), maskedMax(prices, from, to, mask),
+            maskedMinRatio(prices, areas, from, to, mask));
+    }
+
+    // Sketch of the selected values of a block; scalar only, each value costs a logarithm either way
+    public static QuantileSketch maskedQuantiles(double[] col, int from, int to, long[] mask) {
+        QuantileSketch sketch = new QuantileSketch();
+        int words = words(from, to);
+        for (int w = 0; w < words; w++) {
+            for (long word = mask[w]; word != 0; word &= word - 1) {
+                sketch.add(col[from + (w << 6) + Long.numberOfTrailingZeros(word)]);
+            }
+        }
+        return sketch;
+    }
+
+    static boolean isSet(long[] mask, int bit) {
+        return (mask[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    static void clear(long[] mask, int from, int to) {
+        int words = words(from, to);
+        for (int w = 0; w < words; w++) {
+            mask[w] = 0;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.Arrays;
+
+/**
+ * Growable int array, used for primitive columns while loading and for
+ * building int[] selection vectors without boxing every row index.
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int initialCapacity) {
+        values = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Copy of the valid entries, sized exactly
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
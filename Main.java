@@ -7,23 +7,62 @@ public class Main {
         String[] matricNo = {"U2223931F"};
         // String[] matricNo = {"U2223191G", "U2746929C", "U2346025D",};
         
+        String columnStoreDir = "column_store";
+
+        // -Dquery.metrics=true: print the per-operator totals as JSON when the run ends
+        if (QueryMetrics.isEnabled()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("\nQuery metrics: " + QueryMetrics.toJson())));
+        }
+
+        // Undo or finish a compaction cut short by a crash before anything reads the store
+        ColumnarStorage.recoverCompaction(columnStoreDir);
+
+        // Append mode: ingest a delta CSV as a new segment without loading or rebuilding the store
+        if (args.length == 2 && args[0].equals("--append")) {
+            new ColumnarStorage().appendCSV(args[1], columnStoreDir);
+            // Fold the segments back into the base once enough have piled up (-Dcompact.segments)
+            int segments = ColumnarStorage.segmentCount(columnStoreDir);
+            if (segments >= Integer.getInteger("compact.segments", 8)) {
+                System.out.println("Compacting " + segments + " segments in the background...");
+                ColumnarStorage.compactInBackground(columnStoreDir);
+            }
+            return;
+        }
+        // Convert mode: stream a CSV of any size into the column store without loading it
+        if (args.length == 2 && args[0].equals("--convert")) {
+            ColumnarStorage.convertCSV(args[1], columnStoreDir);
+            return;
+        }
+        if (args.length == 1 && args[0].equals("--compact")) {
+            ColumnarStorage.compact(columnStoreDir);
+            return;
+        }
+        // A partitioned store is queried directly, opening only the partitions each query can match
+        if (PartitionedStore.exists(columnStoreDir)) {
+            if (args.length > 0) {
+                System.err.println(args[0] + " is not supported on the partitioned store in " + columnStoreDir);
+                return;
+            }
+            processPartitioned(matricNo, columnStoreDir);
+            return;
+        }
+
         // Create a ColumnarStorage instance
         ColumnarStorage storage = new ColumnarStorage();
         
-        // Check if column store exists and if there are any txt files in the directory
+        // Check if column store exists and if there are any column files in the directory
         // If column store exists, load data from it (faster)
-        String columnStoreDir = "column_store";
         File columnStoreFile = new File(columnStoreDir);
         if (!columnStoreFile.exists()) {
             columnStoreFile.mkdir(); // Create the directory if it doesn't exist
         }
-        File[] files = columnStoreFile.listFiles((dir, name) -> name.endsWith(".txt"));
+        File[] files = columnStoreFile.listFiles((dir, name) -> name.endsWith(".bin") || name.endsWith(".txt"));
         if (files != null && files.length > 0) {
-            // If there are txt files, load data from them (faster)
+            // If there are column files, load data from them (faster)
             System.out.println("Loading data from column store...");
             storage.loadColumnStore(columnStoreDir);
         } else {
-            // If no txt files, load from CSV and create column store
+            // If no column files, load from CSV and create column store
             System.out.println("Loading data from CSV file...");
             storage.loadCSV("ResalePricesSingapore.csv");
             
@@ -32,124 +71,164 @@ public class Main {
             storage.createColumnStore(columnStoreDir);
         }
         
+        // Filters and aggregates run morsel-parallel; -Dscan.threads=1 keeps them on the main thread
+        storage.getDataAnalyzer().setScanParallelism(
+            Integer.getInteger("scan.threads", Runtime.getRuntime().availableProcessors()));
+
+        // Server mode: keep the loaded store in memory and answer queries over HTTP until stopped
+        if (args.length >= 1 && args[0].equals("--serve")) {
+            int port = args.length >= 2 ? Integer.parseInt(args[1]) : Integer.getInteger("server.port", 8080);
+            serve(storage, columnStoreDir, port);
+            return;
+        }
+
+        // Partition mode: rewrite the store as one directory per year, or per year and town with "town"
+        if (args.length >= 1 && args[0].equals("--partition")) {
+            storage.createPartitionedStore(columnStoreDir, args.length >= 2 && args[1].equals("town"));
+            return;
+        }
+
+        // Batch mode: answer every matriculation number in the file with one shared scan
+        if (args.length == 2 && args[0].equals("--batch")) {
+            processBatch(args[1], storage);
+            return;
+        }
+
+        // Build the year and month bitmaps once for all queries, unless the column store supplied them
+        storage.getDataAnalyzer().getTownZoneMapper();
+
         // Process each matriculation number
         for (String matric : matricNo) {
             processMatriculationTown(matric, storage);
         }
+        System.out.println("\nResult cache: " + storage.getDataAnalyzer().getResultCache());
+    }
+
+    public static void serve(ColumnarStorage storage, String columnStoreDir, int port) {
+        storage.getDataAnalyzer().getTownZoneMapper(); // Build before the first request rather than during it
+        storage.getDataAnalyzer().getAggregateCube(); // Window statistics then merge cells instead of scanning
+        try {
+            QueryServer server = new QueryServer(storage, columnStoreDir, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            server.start();
+        } catch (IOException e) {
+            System.err.println("Error starting query server: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Reads one matriculation number per line and writes all ScanResult CSVs in bulk
+    public static void processBatch(String matricFile, ColumnarStorage storage) {
+        List<String> matrics = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(matricFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) matrics.add(line);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        List<BatchQueryExecutor.Query> queries = BatchQueryExecutor.fromMatriculations(matrics);
+        long startTime = System.nanoTime();
+        PriceAggregate[] results;
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.QUERY, "batch")) {
+            results = new BatchQueryExecutor(storage.getDataAnalyzer()).execute(queries);
+            if (op != null) {
+                long rows = 0;
+                for (PriceAggregate agg : results) rows += agg.getCount();
+                op.qualified(rows);
+            }
+        }
+        long endTime = System.nanoTime();
+        int written = BatchQueryExecutor.writeResults(queries, results, ".");
+        System.out.println("Answered " + queries.size() + " queries in one shared scan: " + (endTime - startTime) + " nanoseconds");
+        System.out.println("Wrote " + written + " ScanResult files");
     }
 
     public static void processMatriculationTown(String matricNo, ColumnarStorage storage) {
         // Process Matriculation Number
         MatriculationProcessor matricProcessor = new MatriculationProcessor(matricNo);
-        int yearLastDigit = matricProcessor.getYearDigit();
         int month = matricProcessor.getMonth();
         String targetTown = matricProcessor.getTown();
         long startTime;
         long endTime;
 
-        // Target year is 2014 to 2023
-        int targetYear = 2010 + yearLastDigit;
-        if(targetYear < 2014)
-            targetYear += 10;
+        int targetYear = matricProcessor.getTargetYear();
         
         // Debug
-        System.out.println("\nProcessing Matriculation Number: " + matricNo);
-        System.out.println("Year Digit: " + yearLastDigit);
-        System.out.println("Month: " + month);
-        System.out.println("Target Town: " + targetTown);
-        System.out.println("Target Year: " + targetYear);
-        
-        // Initialize TownZoneMapper
-        TownZoneMapper.initialize(storage.getDataAnalyzer().getMonths().toArray(new String[0]));
-
-        // Process using month index with sharedscan
-        System.out.println("\nProcessing with month index with sharedscan:");
-        startTime = System.nanoTime();
-        List<Integer> filterPricesWithMonthIndexSharedScan = storage.getDataAnalyzer().fpMonthIndexSharedScan(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeMonthShared = endTime - startTime;
-        System.out.println("Elapsed time for filtering with month index with sharedscan: " + timeMonthShared + " nanoseconds");
+        printMatriculation(matricNo, matricProcessor);
         
+        // Let the planner pick the cheapest access path and run only that one
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.QUERY, matricNo)) {
+            QueryPlanner planner = new QueryPlanner(storage.getDataAnalyzer());
+            QueryPlanner.Plan plan = planner.plan(targetTown, targetYear, month);
+            System.out.println();
+            System.out.print(plan.explain());
+            startTime = System.nanoTime();
+            SelectionVector result = planner.execute(plan);
+            endTime = System.nanoTime();
+            System.out.println("Elapsed time for " + plan.getAccessPath().getLabel() + ": " + (endTime - startTime)
+                    + " nanoseconds, " + result.size() + " rows");
 
-        // Process using year index with sharedscan
-        System.out.println("\nProcessing with year index with sharedscan:");
-        startTime = System.nanoTime();
-        List<Integer> filterPricesWithYearIndexSharedScan = storage.getDataAnalyzer().filterPricesWithYearIndexSharedScan(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeSharedScan = endTime - startTime;
-        System.out.println("Elapsed time for filtering with year index with sharedscan: " + timeSharedScan + " nanoseconds");
-
-        // Process using year index without sharedscan
-        System.out.println("\nProcessing with year index without sharedscan:");
-        startTime = System.nanoTime();
-        List<Integer> filterPricesWithYearIndex = storage.getDataAnalyzer().filterPricesWithYearIndex(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeNoSharedScan = endTime - startTime;
-        System.out.println("Elapsed time for filtering with year index without sharedscan: " + timeNoSharedScan + " nanoseconds");
-
-        // Process without year index with shared scan
-        System.out.println("\nProcessing without year index with shared scan:");
-        startTime = System.nanoTime();
-        List<Integer> filterPricesWithoutYearIndexSharedScan = storage.getDataAnalyzer().filterPricesWithoutYearIndexSharedScan(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeNoIndexSharedScan = endTime - startTime;
-        System.out.println("Elapsed time for filtering without year index with shared scan: " + timeNoIndexSharedScan + " nanoseconds");
-
-        // Process without year index without sharedscan
-        System.out.println("\nProcessing without year index without sharedscan:");
-        startTime = System.nanoTime();
-        List<Integer> filterPricesWithoutYearIndex = storage.getDataAnalyzer().filterPricesWithoutYearIndex(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeNoIndexNoSharedScan = endTime - startTime;
-        System.out.println("Elapsed time for filtering without year index without sharedscan: " + timeNoIndexNoSharedScan + " nanoseconds");
-
-        // Timing in processMatriculationTown
-        System.out.println("\nProcessing with hashing index sharedscan:");
-        startTime = System.nanoTime();
-        List<Integer> filterWithHashing = storage.getDataAnalyzer().filterWithHashing(targetTown, targetYear, month);
-        endTime = System.nanoTime();
-        long timeWithHashing = endTime - startTime;
-        System.out.println("Elapsed time for hashing index sharedscan: " + timeWithHashing + " nanoseconds");
-                
-
-        // Determine the fastest filtering method
-        Map<String, Long> times = new HashMap<>();
-        times.put("monthIndexSharedScan", timeMonthShared);
-        times.put("yearIndexSharedScan", timeSharedScan);
-        times.put("yearIndexNoSharedScan", timeNoSharedScan);
-        times.put("noIndexSharedScan", timeNoIndexSharedScan);
-        times.put("noIndexNoSharedScan", timeNoIndexNoSharedScan);
-        times.put("hashingIndexSharedScan", timeWithHashing);
-        
-        String bestMethod = null;
-        long bestTime = Long.MAX_VALUE;
-        
-        for (Map.Entry<String, Long> entry : times.entrySet()) {
-            if (entry.getValue() < bestTime) {
-                bestTime = entry.getValue();
-                bestMethod = entry.getKey();
+            if (!result.isEmpty()) {
+                // Compute Statistics in a single pass over the result
+                PriceAggregate stats = storage.getDataAnalyzer().aggregate(result);
+                // Generate CSV for the target town
+                generateCSV(matricNo, targetYear, month, targetTown, stats.getMinPrice(), stats.getAveragePrice(),
+                            stats.getStdDev(), stats.getMinPricePerSqm());
             }
+            if (op != null) op.qualified(result.size());
         }
-        
-        List<Integer> bestResult = switch (bestMethod) {
-            case "monthIndexSharedScan" -> filterPricesWithMonthIndexSharedScan;
-            case "yearIndexSharedScan" -> filterPricesWithYearIndexSharedScan;
-            case "yearIndexNoSharedScan" -> filterPricesWithYearIndex;
-            case "noIndexSharedScan" -> filterPricesWithoutYearIndexSharedScan;
-            case "noIndexNoSharedScan" -> filterPricesWithoutYearIndex;
-            case "hashingIndexSharedScan" -> filterWithHashing;
-            default -> Collections.emptyList();
-        };
-        
-        System.out.println("\nFastest method: " + bestMethod + " (" + bestTime + " ns)");
-        if (!bestResult.isEmpty()) {
-            // Compute Statistics
-            double minPrice = storage.getDataAnalyzer().getMinPrice(bestResult);
-            double avgPrice = storage.getDataAnalyzer().getAveragePrice(bestResult);
-            double stdDev = storage.getDataAnalyzer().getStdDev(bestResult);
-            double minPricePerSqm = storage.getDataAnalyzer().getMinPricePerSqm(bestResult);
-            // Generate CSV for the target town
-            generateCSV(matricNo, targetYear, month, targetTown, minPrice, avgPrice, stdDev, minPricePerSqm);
+    }
+
+    private static void printMatriculation(String matricNo, MatriculationProcessor matricProcessor) {
+        System.out.println("\nProcessing Matriculation Number: " + matricNo);
+        System.out.println("Year Digit: " + matricProcessor.getYearDigit());
+        System.out.println("Month: " + matricProcessor.getMonth());
+        System.out.println("Target Town: " + matricProcessor.getTown());
+        System.out.println("Target Year: " + matricProcessor.getTargetYear());
+    }
+
+    public static void processPartitioned(String[] matricNos, String columnStoreDir) {
+        try {
+            PartitionedStore store = PartitionedStore.open(columnStoreDir);
+            System.out.println("Partitioned column store: " + store);
+            store.setScanParallelism(Integer.getInteger("scan.threads", Runtime.getRuntime().availableProcessors()));
+            for (String matric : matricNos) {
+                processMatriculationTown(matric, store);
+            }
+            System.out.println("\nPartitioned column store: " + store);
+        } catch (IOException e) {
+            System.err.println("Error opening partitioned store: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Same result as the flat store, from the partitions of the window's year(s) and town only
+    public static void processMatriculationTown(String matricNo, PartitionedStore store) {
+        MatriculationProcessor matricProcessor = new MatriculationProcessor(matricNo);
+        int month = matricProcessor.getMonth();
+        String targetTown = matricProcessor.getTown();
+        int targetYear = matricProcessor.getTargetYear();
+        printMatriculation(matricNo, matricProcessor);
+
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.QUERY, matricNo)) {
+            int windowStart = YearMonths.pack(targetYear, month);
+            List<PartitionedStore.Partition> partitions = store.prune(windowStart, windowStart + 1, targetTown);
+            long startTime = System.nanoTime();
+            PriceAggregate stats = store.aggregateWindow(targetTown, targetYear, month, DataAnalyzer.MIN_AREA);
+            long endTime = System.nanoTime();
+            System.out.println("\nPartitions " + partitions + " of " + store.getPartitions().size());
+            System.out.println("Elapsed time for partitioned aggregateWindow: " + (endTime - startTime)
+                    + " nanoseconds, " + stats.getCount() + " rows");
+            if (!stats.isEmpty()) {
+                generateCSV(matricNo, targetYear, month, targetTown, stats.getMinPrice(), stats.getAveragePrice(),
+                            stats.getStdDev(), stats.getMinPricePerSqm());
+            }
+            if (op != null) op.qualified(stats.getCount());
         }
     }
 
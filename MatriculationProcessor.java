@@ -28,6 +28,14 @@ public class MatriculationProcessor {
     public int getMonth() { return month; }
     public String getTown() { return town; }
 
+    // Target year is 2014 to 2023
+    public int getTargetYear() {
+        int targetYear = 2010 + yearDigit;
+        if (targetYear < 2014)
+            targetYear += 10;
+        return targetYear;
+    }
+
     // Get town based on third-last digit
     private static String getTownFromDigit(int digit) {
         String[] towns = {"BEDOK", "BUKIT PANJANG", "CLEMENTI", "CHOA CHU KANG", "HOUGANG",
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Runs a scan as a sequence of morsels (small, independent row ranges) on a
+ * pool of workers. Workers claim the next unprocessed morsel from a shared
+ * counter, so fast workers take over the remaining work of slow ones.
+ *
+ * Each morsel produces a partial result that is stored at its morsel index,
+ * and callers combine the partials in that order. The outcome therefore does
+ * not depend on the thread count or on scheduling, and equals the serial run.
+ */
+public class MorselExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final boolean ownsExecutor;
+
+    // Dedicated ForkJoinPool with the given number of workers
+    public MorselExecutor(int parallelism) {
+        this(parallelism > 1 ? new ForkJoinPool(parallelism) : null, Math.max(1, parallelism), true);
+    }
+
+    // Run on a caller-supplied executor with at most parallelism concurrent workers
+    public MorselExecutor(ExecutorService executor, int parallelism) {
+        this(executor, Math.max(1, parallelism), false);
+    }
+
+    private MorselExecutor(ExecutorService executor, int parallelism, boolean ownsExecutor) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Evaluate task for morsels 0..morsels-1 and return the partials in morsel
+     * order. Runs inline when there is a single worker or a single morsel.
+     */
+    public <T> List<T> map(int morsels, IntFunction<T> task) {
+        Object[] partials = new Object[morsels];
+        int workers = Math.min(parallelism, morsels);
+        if (executor == null || workers <= 1) {
+            for (int m = 0; m < morsels; m++) partials[m] = task.apply(m);
+        } else {
+            AtomicInteger next = new AtomicInteger();
+            Runnable worker = () -> {
+                int m;
+                while ((m = next.getAndIncrement()) < morsels) {
+                    partials[m] = task.apply(m);
+                }
+            };
+            List<Future<?>> futures = new ArrayList<>(workers);
+            for (int w = 0; w < workers; w++) futures.add(executor.submit(worker));
+            try {
+                for (Future<?> future : futures) future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Morsel scan interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw new IllegalStateException("Morsel scan failed", e.getCause());
+            }
+        }
+        List<T> result = new ArrayList<>(morsels);
+        for (Object partial : partials) {
+            @SuppressWarnings("unchecked")
+            T t = (T) partial;
+            result.add(t);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor && executor != null) executor.shutdown();
+    }
+}
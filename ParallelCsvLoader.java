@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel loader for the resale CSV.
+ *
+ * The file is cut into newline-aligned byte ranges and each range is parsed
+ * on a ForkJoin worker straight from bytes into primitive columns and
+ * partition-local dictionaries. Partitions are then concatenated in file
+ * order, so row order, dictionary codes and skipped rows are exactly what
+ * the single-threaded DataAnalyzer.loadCSV produces.
+ */
+public class ParallelCsvLoader {
+    private static final int COLUMNS = 10;
+    private static final int MIN_CHUNK_BYTES = 1 << 20;
+    private static final int MAX_CHUNK_BYTES = 64 << 20;
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ParallelCsvLoader() {}
+
+    public static void load(String filePath, DataAnalyzer analyzer) {
+        load(filePath, analyzer, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Parse filePath on `parallelism` workers and install the columns into analyzer
+    public static void load(String filePath, DataAnalyzer analyzer, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            List<long[]> ranges = split(channel, Math.max(1, parallelism));
+            List<Callable<Partition>> tasks = new ArrayList<>();
+            for (long[] range : ranges) {
+                tasks.add(() -> parse(channel, range[0], range[1]));
+            }
+            List<Partition> partitions = new ArrayList<>();
+            for (Future<Partition> future : pool.invokeAll(tasks)) {
+                partitions.add(future.get());
+            }
+            merge(partitions, analyzer);
+        } catch (IOException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Cut the file (minus the header line) into ranges that start and end on line boundaries
+    private static List<long[]> split(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        long start = nextLineStart(channel, 0);
+        long target = Math.max(MIN_CHUNK_BYTES, (size - start) / (parallelism * 4L) + 1);
+        target = Math.min(target, MAX_CHUNK_BYTES);
+
+        List<long[]> ranges = new ArrayList<>();
+        while (start < size) {
+            long end = start + target >= size ? size : nextLineStart(channel, start + target);
+            ranges.add(new long[] {start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    // Position just after the first '\n' at or after pos (or the end of the file)
+    private static long nextLineStart(FileChannel channel, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static Partition parse(FileChannel channel, long start, long end) throws IOException {
+        byte[] data = new byte[(int) (end - start)];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) break;
+        }
+
+        Partition part = new Partition(data.length / 100 + 16);
+        int[] fieldStart = new int[COLUMNS];
+        int[] fieldEnd = new int[COLUMNS];
+        int pos = 0;
+        while (pos < data.length) {
+            int lineEnd = pos;
+            while (lineEnd < data.length && data[lineEnd] != '\n') lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > pos && data[lineEnd - 1] == '\r') lineEnd--;
+            parseLine(data, pos, lineEnd, fieldStart, fieldEnd, part);
+            pos = next;
+        }
+        return part;
+    }
+
+    private static void parseLine(byte[] data, int from, int to, int[] fieldStart, int[] fieldEnd, Partition part) {
+        // Mirror line.split(","): trailing empty fields are dropped, short rows are skipped silently
+        int fields = 0;
+        int nonEmpty = 0;
+        int cellStart = from;
+        for (int i = from; i <= to && fields < COLUMNS; i++) {
+            if (i == to || data[i] == ',') {
+                fieldStart[fields] = cellStart;
+                fieldEnd[fields] = i;
+                fields++;
+                if (i > cellStart) nonEmpty = fields;
+                cellStart = i + 1;
+            }
+        }
+        if (fields == COLUMNS && nonEmpty < COLUMNS) {
+            // Extra cells only keep the first ten if one of them is non-empty
+            for (int i = cellStart; i < to; i++) {
+                if (data[i] != ',') {
+                    nonEmpty = COLUMNS;
+                    break;
+                }
+            }
+        }
+        if (nonEmpty < COLUMNS) return;
+
+        for (int f = 0; f < COLUMNS; f++) {
+            int s = fieldStart[f], e = fieldEnd[f];
+            while (s < e && (data[s] & 0xFF) <= ' ') s++;
+            while (e > s && (data[e - 1] & 0xFF) <= ' ') e--;
+            fieldStart[f] = s;
+            fieldEnd[f] = e;
+        }
+
+        double floorArea = parseDouble(data, fieldStart[6], fieldEnd[6]);
+        double leaseCommence = parseDouble(data, fieldStart[8], fieldEnd[8]);
+        double resalePrice = parseDouble(data, fieldStart[9], fieldEnd[9]);
+        int yearMonth = parseYearMonth(data, fieldStart[0], fieldEnd[0]);
+        if (Double.isNaN(floorArea) && !isNaNLiteral(data, fieldStart[6], fieldEnd[6])
+            || Double.isNaN(leaseCommence) && !isNaNLiteral(data, fieldStart[8], fieldEnd[8])
+            || Double.isNaN(resalePrice) && !isNaNLiteral(data, fieldStart[9], fieldEnd[9])
+            || yearMonth == YearMonths.INVALID) {
+            part.errors.add(new String(data, from, to - from, StandardCharsets.UTF_8));
+            return;
+        }
+
+        part.yearMonths.add(yearMonth);
+        part.townCodes.add(part.towns.encode(data, fieldStart[1], fieldEnd[1]));
+        part.flatTypeCodes.add(part.flatTypes.encode(data, fieldStart[2], fieldEnd[2]));
+        part.blockCodes.add(part.blocks.encode(data, fieldStart[3], fieldEnd[3]));
+        part.streetCodes.add(part.streets.encode(data, fieldStart[4], fieldEnd[4]));
+        part.storeyCodes.add(part.storeys.encode(data, fieldStart[5], fieldEnd[5]));
+        part.floorAreas.add(floorArea);
+        part.modelCodes.add(part.models.encode(data, fieldStart[7], fieldEnd[7]));
+        part.leaseCommence.add(leaseCommence);
+        part.resalePrices.add(resalePrice);
+    }
+
+    /**
+     * Parses plain decimals ("67", "67.5", "-3") without allocating; anything
+     * else goes through Double.parseDouble so the accepted syntax is identical.
+     * Returns NaN for unparseable input.
+     */
+    static double parseDouble(byte[] data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && data[i] == '-') {
+            negative = true;
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < to; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction >= 0) fraction++;
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                break;
+            }
+        }
+        // Exact when the mantissa and the power of ten are both exact doubles
+        if (i == to && digits > 0 && digits <= 15 && fraction != 0 && fraction <= 22) {
+            double value = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(data, from, to - from, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isNaNLiteral(byte[] data, int from, int to) {
+        String value = new String(data, from, to - from, StandardCharsets.UTF_8);
+        try {
+            return Double.isNaN(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Fast path for "YYYY-MM", falling back to YearMonths.parse for anything else
+    private static int parseYearMonth(byte[] data, int from, int to) {
+        if (to - from == 7 && data[from + 4] == '-') {
+            int year = 0;
+            boolean digits = true;
+            for (int i = from; i < from + 4; i++) {
+                digits &= data[i] >= '0' && data[i] <= '9';
+                year = year * 10 + (data[i] - '0');
+            }
+            byte m1 = data[from + 5], m2 = data[from + 6];
+            digits &= m1 >= '0' && m1 <= '9' && m2 >= '0' && m2 <= '9';
+            int month = (m1 - '0') * 10 + (m2 - '0');
+            if (digits) {
+                return month >= 1 && month <= 12 ? YearMonths.pack(year, month) : YearMonths.INVALID;
+            }
+        }
+        return YearMonths.parse(new String(data, from, to - from, StandardCharsets.UTF_8));
+    }
+
+    private static void merge(List<Partition> partitions, DataAnalyzer analyzer) {
+        int rows = 0;
+        for (Partition part : partitions) rows += part.yearMonths.size();
+
+        int[] yearMonths = new int[rows];
+        double[] floorAreas = new double[rows];
+        double[] leaseCommence = new double[rows];
+        double[] resalePrices = new double[rows];
+        DictionaryMerger towns = new DictionaryMerger(rows);
+        DictionaryMerger flatTypes = new DictionaryMerger(rows);
+        DictionaryMerger blocks = new DictionaryMerger(rows);
+        DictionaryMerger streets = new DictionaryMerger(rows);
+        DictionaryMerger storeys = new DictionaryMerger(rows);
+        DictionaryMerger models = new DictionaryMerger(rows);
+
+        int offset = 0;
+        for (Partition part : partitions) {
+            // Report bad rows in file order, as the serial loader does
+            for (String line : part.errors) {
+                System.err.println("Skipping invalid row: " + line);
+            }
+            int n = part.yearMonths.size();
+            System.arraycopy(part.yearMonths.toArray(), 0, yearMonths, offset, n);
+            System.arraycopy(part.floorAreas.toArray(), 0, floorAreas, offset, n);
+            System.arraycopy(part.leaseCommence.toArray(), 0, leaseCommence, offset, n);
+            System.arraycopy(part.resalePrices.toArray(), 0, resalePrices, offset, n);
+            towns.append(part.towns, part.townCodes, offset);
+            flatTypes.append(part.flatTypes, part.flatTypeCodes, offset);
+            blocks.append(part.blocks, part.blockCodes, offset);
+            streets.append(part.streets, part.streetCodes, offset);
+            storeys.append(part.storeys, part.storeyCodes, offset);
+            models.append(part.models, part.modelCodes, offset);
+            offset += n;
+        }
+
+        analyzer.setYearMonths(yearMonths);
+        analyzer.setTowns(towns.build());
+        analyzer.setFlatTypes(flatTypes.build());
+        analyzer.setBlocks(blocks.build());
+        analyzer.setStreetNames(streets.build());
+        analyzer.setStoreyRanges(storeys.build());
+        analyzer.setFlatModels(models.build());
+        analyzer.setFloorAreas(floorAreas);
+        analyzer.setLeaseCommenceDates(leaseCommence);
+        analyzer.setResalePrices(resalePrices);
+    }
+
+    // Parsed rows of one byte range
+    private static class Partition {
+        final IntList yearMonths;
+        final DoubleList floorAreas, leaseCommence, resalePrices;
+        final IntList townCodes, flatTypeCodes, blockCodes, streetCodes, storeyCodes, modelCodes;
+        final ByteDictionary towns = new ByteDictionary();
+        final ByteDictionary flatTypes = new ByteDictionary();
+        final ByteDictionary blocks = new ByteDictionary();
+        final ByteDictionary streets = new ByteDictionary();
+        final ByteDictionary storeys = new ByteDictionary();
+        final ByteDictionary models = new ByteDictionary();
+        final List<String> errors = new ArrayList<>();
+
+        Partition(int expectedRows) {
+            yearMonths = new IntList(expectedRows);
+            floorAreas = new DoubleList(expectedRows);
+            leaseCommence = new DoubleList(expectedRows);
+            resalePrices = new DoubleList(expectedRows);
+            townCodes = new IntList(expectedRows);
+            flatTypeCodes = new IntList(expectedRows);
+            blockCodes = new IntList(expectedRows);
+            streetCodes = new IntList(expectedRows);
+            storeyCodes = new IntList(expectedRows);
+            modelCodes = new IntList(expectedRows);
+        }
+    }
+
+    /**
+     * Partition-local dictionary keyed on raw byte slices, so repeated values
+     * never allocate a String. Codes are assigned in first-seen order.
+     */
+    private static class ByteDictionary {
+        private byte[][] keys = new byte[64][];
+        private int[] table = new int[128]; // code + 1, 0 = empty slot
+        private int count;
+
+        int encode(byte[] data, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) hash = 31 * hash + data[i];
+            int mask = table.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (table[slot] != 0) {
+                byte[] key = keys[table[slot] - 1];
+                if (Arrays.equals(key, 0, key.length, data, from, to)) return table[slot] - 1;
+                slot = (slot + 1) & mask;
+            }
+            if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+            keys[count] = Arrays.copyOfRange(data, from, to);
+            table[slot] = ++count;
+            if (count * 2 > table.length) rehash();
+            return count - 1;
+        }
+
+        private void rehash() {
+            int[] bigger = new int[table.length * 2];
+            int mask = bigger.length - 1;
+            for (int code = 0; code < count; code++) {
+                byte[] key = keys[code];
+                int hash = 1;
+                for (byte b : key) hash = 31 * hash + b;
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (bigger[slot] != 0) slot = (slot + 1) & mask;
+                bigger[slot] = code + 1;
+            }
+            table = bigger;
+        }
+
+        int size() { return count; }
+        byte[] key(int code) { return keys[code]; }
+    }
+
+    // Builds a global dictionary column by appending partitions in order
+    private static class DictionaryMerger {
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> codeOf = new HashMap<>();
+        private final int[] codes;
+
+        DictionaryMerger(int rows) {
+            codes = new int[rows];
+        }
+
+        void append(ByteDictionary local, IntList localCodes, int offset) {
+            int[] remap = new int[local.size()];
+            for (int code = 0; code < local.size(); code++) {
+                String value = new String(local.key(code), StandardCharsets.UTF_8);
+                Integer global = codeOf.get(value);
+                if (global == null) {
+                    global = dictionary.size();
+                    codeOf.put(value, global);
+                    dictionary.add(value);
+                }
+                remap[code] = global;
+            }
+            for (int i = 0; i < localCodes.size(); i++) {
+                codes[offset + i] = remap[localCodes.get(i)];
+            }
+        }
+
+        DictionaryColumn build() {
+            return DictionaryColumn.of(dictionary.toArray(new String[0]), codes);
+        }
+    }
+}
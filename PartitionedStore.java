@@ -0,0 +1,357 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Column store split into partitions by year, or by year and town, each a
+ * complete store directory of its own (column files, zone maps, indexes)
+ * and listed with its month range and towns in a text manifest:
+ *
+ *   column_store/partitions.manifest
+ *   column_store/year=2019/...                 by year
+ *   column_store/year=2019/town=BEDOK/...      by year and town
+ *
+ * Opening the store reads the manifest only. A query is answered from the
+ * partitions whose months and towns can match it, which are opened on first
+ * use like any store (lazily, see ColumnarStorage.openStore) and kept open
+ * until close(); the others are never touched. Window statistics and sketches
+ * are mergeable, so the partitions' answers combine into the flat store's.
+ *
+ * Manifest paths are relative to the store directory unless absolute: an old
+ * year can be tiered to slower disk by moving its directory and editing its
+ * line. ColumnarStorage.createPartitionedStore writes the layout.
+ */
+public final class PartitionedStore {
+    public static final String MANIFEST = "partitions.manifest";
+    private static final String HEADER = "# path\tyear\ttown\trows\tfirst_month\tlast_month\ttowns";
+    private static final String ALL_TOWNS = "*";
+
+    private final String dir;
+    private final List<Partition> partitions;
+    private final Map<Partition, DataAnalyzer> opened = new ConcurrentHashMap<>();
+    private volatile MorselExecutor scanExecutor;
+
+    private PartitionedStore(String dir, List<Partition> partitions) {
+        this.dir = dir;
+        this.partitions = partitions;
+    }
+
+    /**
+     * One partition as listed in the manifest: its directory, year, town
+     * (null when it holds every town of the year), row count, first and last
+     * month and the towns it contains.
+     */
+    public static final class Partition {
+        private final String path;
+        private final File dir;
+        private final int year;
+        private final String town;
+        private final int rows;
+        private final int firstMonth, lastMonth;
+        private final Set<String> towns;
+
+        Partition(String path, File dir, int year, String town, int rows, int firstMonth, int lastMonth,
+                  Set<String> towns) {
+            this.path = path;
+            this.dir = dir;
+            this.year = year;
+            this.town = town;
+            this.rows = rows;
+            this.firstMonth = firstMonth;
+            this.lastMonth = lastMonth;
+            this.towns = towns;
+        }
+
+        // Could rows in months [fromYearMonth, toYearMonth] of town (any town if null) be here?
+        public boolean mayMatch(int fromYearMonth, int toYearMonth, String town) {
+            return fromYearMonth <= lastMonth && firstMonth <= toYearMonth && (town == null || towns.contains(town));
+        }
+
+        public boolean containsTown(String town) {
+            return towns.contains(town);
+        }
+
+        public String getPath() { return path; }
+        public File getDirectory() { return dir; }
+        public int getYear() { return year; }
+        public String getTown() { return town; }
+        public int getRowCount() { return rows; }
+        public int getFirstMonth() { return firstMonth; }
+        public int getLastMonth() { return lastMonth; }
+        public Set<String> getTowns() { return towns; }
+
+        private String toManifestLine() {
+            return path + '\t' + year + '\t' + (town == null ? ALL_TOWNS : town) + '\t' + rows + '\t'
+                + YearMonths.format(firstMonth) + '\t' + YearMonths.format(lastMonth) + '\t' + String.join("|", towns);
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+
+    public static boolean exists(String dir) {
+        return new File(dir, MANIFEST).exists();
+    }
+
+    // Read the manifest; no partition is opened yet
+    public static PartitionedStore open(String dir) throws IOException {
+        List<Partition> partitions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(dir, MANIFEST), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                partitions.add(parse(dir, line));
+            }
+        }
+        return new PartitionedStore(dir, Collections.unmodifiableList(partitions));
+    }
+
+    private static Partition parse(String storeDir, String line) throws IOException {
+        String[] fields = line.split("\t");
+        if (fields.length != 7) throw new IOException("Bad line in " + MANIFEST + ": " + line);
+        int firstMonth = YearMonths.parse(fields[4]);
+        int lastMonth = YearMonths.parse(fields[5]);
+        if (firstMonth == YearMonths.INVALID || lastMonth == YearMonths.INVALID) {
+            throw new IOException("Bad month range in " + MANIFEST + ": " + line);
+        }
+        File dir = new File(fields[0]);
+        if (!dir.isAbsolute()) dir = new File(storeDir, fields[0]);
+        Set<String> towns = new LinkedHashSet<>(List.of(fields[6].split("\\|")));
+        try {
+            return new Partition(fields[0], dir, Integer.parseInt(fields[1]),
+                fields[2].equals(ALL_TOWNS) ? null : fields[2], Integer.parseInt(fields[3]), firstMonth, lastMonth,
+                Collections.unmodifiableSet(towns));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad line in " + MANIFEST + ": " + line);
+        }
+    }
+
+    /**
+     * Rows of analyzer grouped into partitions, keyed by partition path and
+     * ordered by year, then town; rows keep their order within a partition.
+     * Towns whose directory names sanitize to the same path, e.g.
+     * "KALLANG/WHAMPOA" and "KALLANG WHAMPOA", get numbered paths (_2, _3).
+     */
+    static Map<String, int[]> partitionRows(DataAnalyzer analyzer, boolean byTown) {
+        int[] yearMonths = analyzer.getYearMonths();
+        DictionaryColumn towns = analyzer.getTowns();
+        Map<Integer, Map<String, IntList>> groups = new TreeMap<>();
+        for (int i = 0; i < analyzer.size(); i++) {
+            String town = byTown ? towns.get(i) : ALL_TOWNS;
+            groups.computeIfAbsent(YearMonths.year(yearMonths[i]), y -> new TreeMap<>())
+                .computeIfAbsent(town, t -> new IntList()).add(i);
+        }
+        Map<String, int[]> rows = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Map<String, IntList>> year : groups.entrySet()) {
+            for (Map.Entry<String, IntList> town : year.getValue().entrySet()) {
+                String path = "year=" + year.getKey();
+                if (byTown) path += "/town=" + town.getKey().replaceAll("[^A-Za-z0-9]+", "_");
+                String base = path;
+                for (int n = 2; rows.containsKey(path); n++) path = base + "_" + n;
+                rows.put(path, town.getValue().toArray());
+            }
+        }
+        return rows;
+    }
+
+    // Manifest entry for a partition just written to storeDir/path
+    static Partition describe(String storeDir, String path, DataAnalyzer partition, boolean byTown) {
+        int[] yearMonths = partition.getYearMonths();
+        int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE;
+        for (int yearMonth : yearMonths) {
+            first = Math.min(first, yearMonth);
+            last = Math.max(last, yearMonth);
+        }
+        Set<String> towns = new TreeSet<>();
+        for (String town : partition.getTowns().getDictionary()) {
+            if (town.contains("|") || town.contains("\t")) {
+                throw new IllegalArgumentException("Town name cannot be listed in " + MANIFEST + ": " + town);
+            }
+            towns.add(town);
+        }
+        return new Partition(path, new File(storeDir, path), YearMonths.year(first),
+            byTown ? towns.iterator().next() : null, yearMonths.length, first, last, towns);
+    }
+
+    // Write the manifest beside the partitions and rename it into place, so it only ever lists complete ones
+    static void writeManifest(String storeDir, List<Partition> partitions) throws IOException {
+        Path tmp = Paths.get(storeDir, MANIFEST + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Partition partition : partitions) {
+                writer.write(partition.toManifestLine());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, Paths.get(storeDir, MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the manifest and the partition directories inside storeDir, e.g.
+     * before a flat store is written there. The manifest goes first, so an
+     * interrupted delete never leaves it listing missing partitions. Tiered
+     * partitions outside storeDir are left in place.
+     */
+    static void delete(String storeDir) throws IOException {
+        if (!exists(storeDir)) return;
+        PartitionedStore store = open(storeDir);
+        Files.delete(Paths.get(storeDir, MANIFEST));
+        Path root = Paths.get(storeDir).toAbsolutePath().normalize();
+        for (Partition partition : store.partitions) {
+            Path path = partition.dir.toPath().toAbsolutePath().normalize();
+            if (path.startsWith(root)) ColumnarStorage.deleteRecursively(path);
+        }
+        // By-town layouts leave the emptied year directories behind
+        File[] years = new File(storeDir).listFiles((d, name) -> name.startsWith("year="));
+        if (years != null) {
+            for (File year : years) ColumnarStorage.deleteRecursively(year.toPath());
+        }
+    }
+
+    public String getDirectory() {
+        return dir;
+    }
+
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    public int getRowCount() {
+        int rows = 0;
+        for (Partition partition : partitions) rows += partition.rows;
+        return rows;
+    }
+
+    // Partitions that may hold rows of months [fromYearMonth, toYearMonth] in town, or in any town if null
+    public List<Partition> prune(int fromYearMonth, int toYearMonth, String town) {
+        List<Partition> matching = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.mayMatch(fromYearMonth, toYearMonth, town)) matching.add(partition);
+        }
+        return matching;
+    }
+
+    // Partitions where where may match, judged by the month range and town terms it contains
+    public List<Partition> prune(ColumnPredicate where) {
+        List<Partition> matching = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (where.mayMatch(partition)) matching.add(partition);
+        }
+        return matching;
+    }
+
+    /**
+     * The analyzer of a partition, opening it on first use. Fails with
+     * IllegalStateException when its directory cannot be read or does not
+     * hold the rows the manifest lists.
+     */
+    public DataAnalyzer analyzer(Partition partition) {
+        DataAnalyzer analyzer = opened.get(partition);
+        return analyzer != null ? analyzer : openPartition(partition);
+    }
+
+    private synchronized DataAnalyzer openPartition(Partition partition) {
+        DataAnalyzer analyzer = opened.get(partition);
+        if (analyzer != null) return analyzer;
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.LOAD, partition.path)) {
+            try {
+                analyzer = ColumnarStorage.openStore(partition.dir.getPath());
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open partition " + partition.dir + ": " + e.getMessage(), e);
+            }
+            if (analyzer.size() != partition.rows) {
+                throw new IllegalStateException("Partition " + partition.dir + " has " + analyzer.size()
+                    + " rows, " + MANIFEST + " lists " + partition.rows);
+            }
+            analyzer.setScanExecutor(scanExecutor);
+            if (op != null) op.read(8L * analyzer.size()).qualified(analyzer.size());
+        }
+        opened.put(partition, analyzer);
+        return analyzer;
+    }
+
+    // Partitions opened so far
+    public List<Partition> getOpenPartitions() {
+        List<Partition> open = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (opened.containsKey(partition)) open.add(partition);
+        }
+        return open;
+    }
+
+    // Drop an opened partition; its files are unmapped once no query uses it any more
+    public void close(Partition partition) {
+        opened.remove(partition);
+    }
+
+    // Number of worker threads shared by the scans of all partitions; 1 runs them serially on the caller
+    public synchronized void setScanParallelism(int threads) {
+        MorselExecutor previous = scanExecutor;
+        scanExecutor = threads > 1 ? new MorselExecutor(threads) : null;
+        for (DataAnalyzer analyzer : opened.values()) analyzer.setScanExecutor(scanExecutor);
+        if (previous != null) previous.close();
+    }
+
+    // DataAnalyzer.aggregateWindow over the partitions the window and town can match
+    public PriceAggregate aggregateWindow(String town, int year, int startMonth, double minArea) {
+        int windowStart = YearMonths.pack(year, startMonth);
+        PriceAggregate agg = new PriceAggregate();
+        for (Partition partition : prune(windowStart, windowStart + 1, town)) {
+            agg.merge(analyzer(partition).aggregateWindow(town, year, startMonth, minArea));
+        }
+        return agg;
+    }
+
+    // DataAnalyzer.quantileWindow over the partitions the window and town can match
+    public QuantileSketch quantileWindow(String town, int year, int startMonth, double minArea) {
+        int windowStart = YearMonths.pack(year, startMonth);
+        QuantileSketch sketch = new QuantileSketch();
+        for (Partition partition : prune(windowStart, windowStart + 1, town)) {
+            sketch.merge(analyzer(partition).quantileWindow(town, year, startMonth, minArea));
+        }
+        return sketch.freeze();
+    }
+
+    // Price statistics of the rows matching where, from the partitions it can match
+    public PriceAggregate aggregate(ColumnPredicate where) {
+        PriceAggregate agg = new PriceAggregate();
+        for (Partition partition : prune(where)) agg.merge(analyzer(partition).aggregate(where));
+        return agg;
+    }
+
+    public QuantileSketch quantiles(ColumnPredicate where) {
+        QuantileSketch sketch = new QuantileSketch();
+        for (Partition partition : prune(where)) sketch.merge(analyzer(partition).quantiles(where));
+        return sketch.freeze();
+    }
+
+    public long count(ColumnPredicate where) {
+        long count = 0;
+        for (Partition partition : prune(where)) count += ScanPipeline.compile(analyzer(partition), where).count();
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return partitions.size() + " partitions, " + getRowCount() + " rows, " + opened.size() + " open";
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Single-pass aggregate over resale prices: count, min/max, mean and
+ * variance (Welford's online update) and the minimum price per square meter.
+ *
+ * Partial aggregates from different partitions combine with merge() using
+ * Chan et al.'s pairwise formula, so results do not depend on how the rows
+ * were split. Empty aggregates report 0 for every statistic, matching
+ * DataAnalyzer.getMinPrice and friends.
+ *
+ * freeze() makes an aggregate read-only so it can be shared, e.g. from the
+ * result cache; merge a frozen aggregate into a new one to extend it.
+ */
+public class PriceAggregate {
+    private long count;
+    private double mean;
+    private double m2; // Sum of squared deviations from the mean
+    private double minPrice = Double.POSITIVE_INFINITY;
+    private double maxPrice = Double.NEGATIVE_INFINITY;
+    private double minPricePerSqm = Double.POSITIVE_INFINITY;
+    private boolean frozen;
+
+    public void add(double price, double floorArea) {
+        checkNotFrozen();
+        count++;
+        double delta = price - mean;
+        mean += delta / count;
+        m2 += delta * (price - mean);
+        if (price < minPrice) minPrice = price;
+        if (price > maxPrice) maxPrice = price;
+        double ppsm = price / floorArea;
+        if (ppsm < minPricePerSqm) minPricePerSqm = ppsm;
+    }
+
+    // Partial aggregate from precomputed moments, e.g. a SIMD block kernel
+    public static PriceAggregate ofMoments(long count, double mean, double m2,
+                                           double minPrice, double maxPrice, double minPricePerSqm) {
+        PriceAggregate agg = new PriceAggregate();
+        if (count == 0) return agg;
+        agg.count = count;
+        agg.mean = mean;
+        agg.m2 = m2;
+        agg.minPrice = minPrice;
+        agg.maxPrice = maxPrice;
+        agg.minPricePerSqm = minPricePerSqm;
+        return agg;
+    }
+
+    // Fold another partial aggregate into this one
+    public PriceAggregate merge(PriceAggregate other) {
+        checkNotFrozen();
+        if (other.count == 0) return this;
+        if (count == 0) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+        } else {
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+            count = total;
+        }
+        minPrice = Math.min(minPrice, other.minPrice);
+        maxPrice = Math.max(maxPrice, other.maxPrice);
+        minPricePerSqm = Math.min(minPricePerSqm, other.minPricePerSqm);
+        return this;
+    }
+
+    // Make this aggregate read-only; returns this
+    public PriceAggregate freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("Aggregate is frozen; merge it into a new PriceAggregate instead");
+    }
+
+    public long getCount() { return count; }
+    public boolean isEmpty() { return count == 0; }
+
+    public double getMinPrice() {
+        return count == 0 ? 0 : minPrice;
+    }
+
+    public double getMaxPrice() {
+        return count == 0 ? 0 : maxPrice;
+    }
+
+    public double getAveragePrice() {
+        return count == 0 ? 0 : mean;
+    }
+
+    public double getSum() {
+        return mean * count;
+    }
+
+    // Population variance, as getStdDev has always reported
+    public double getVariance() {
+        return count == 0 ? 0 : m2 / count;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    public double getMinPricePerSqm() {
+        return count == 0 ? 0 : minPricePerSqm;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d min=%.2f avg=%.2f std=%.2f minPpsm=%.2f",
+            count, getMinPrice(), getAveragePrice(), getStdDev(), getMinPricePerSqm());
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch over resale prices with a relative error bound.
+ *
+ * Values are counted in logarithmic buckets: bucket i holds the values in
+ * (gamma^(i-1), gamma^i] with gamma = (1 + a) / (1 - a), so every reported
+ * quantile is within a fraction a (the relative accuracy, 1% by default)
+ * of a value of the right rank. Prices from 10K to 2M need about 265
+ * buckets, i.e. about a kilobyte, however many rows were added.
+ *
+ * Sketches merge by adding bucket counts, so the result does not depend on
+ * how the rows were partitioned or in which order the partials are merged:
+ * morsel-parallel scans, per-segment partials and AggregateCube cells all
+ * give the same answer as one serial pass. At most MAX_BUCKETS buckets are
+ * kept; beyond that the lowest ones are folded together, which only affects
+ * the accuracy of the lowest quantiles. Min and max are exact; a single
+ * bucket holds at most Integer.MAX_VALUE values.
+ *
+ * freeze() makes a sketch read-only so it can be shared; merge a frozen
+ * sketch into a new one to extend it.
+ */
+public final class QuantileSketch {
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    private static final int MAX_BUCKETS = 2048;
+    private static final int INITIAL_BUCKETS = 16;
+    // Values below this are counted without a bucket and reported as the minimum
+    private static final double MIN_INDEXABLE = 1.0;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private int[] counts = new int[0]; // counts[i - offset] for bucket i
+    private int offset;
+    private int floor = Integer.MIN_VALUE; // Lowest bucket after folding; lower values are counted here
+    private long count;
+    private long lowCount; // Values below MIN_INDEXABLE
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private boolean frozen;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    public QuantileSketch(double relativeAccuracy) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0, 1), got " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        checkNotFrozen();
+        count++;
+        if (value < min) min = value;
+        if (value > max) max = value;
+        if (value < MIN_INDEXABLE) {
+            lowCount++;
+        } else {
+            increment((int) Math.ceil(Math.log(value) / logGamma), 1);
+        }
+    }
+
+    // Fold another sketch into this one; both must have the same relative accuracy
+    public QuantileSketch merge(QuantileSketch other) {
+        checkNotFrozen();
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches with relative accuracy "
+                + relativeAccuracy + " and " + other.relativeAccuracy);
+        }
+        if (other.count == 0) return this;
+        for (int b = 0; b < other.counts.length; b++) {
+            if (other.counts[b] != 0) increment(other.offset + b, other.counts[b]);
+        }
+        count += other.count;
+        lowCount += other.lowCount;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    private void increment(int bucket, int n) {
+        if (bucket < floor) bucket = floor;
+        if (bucket < offset || bucket >= offset + counts.length) {
+            grow(bucket);
+            if (bucket < floor) bucket = floor; // Folded by grow
+        }
+        counts[bucket - offset] = Math.addExact(counts[bucket - offset], n);
+    }
+
+    // Make room for bucket, folding the lowest buckets once the span exceeds MAX_BUCKETS
+    private void grow(int bucket) {
+        if (counts.length == 0) {
+            counts = new int[INITIAL_BUCKETS];
+            offset = bucket - INITIAL_BUCKETS / 2;
+            return;
+        }
+        int lo = Math.min(offset, bucket);
+        int hi = Math.max(offset + counts.length - 1, bucket);
+        int folded = 0;
+        if ((long) hi - lo + 1 > MAX_BUCKETS) {
+            lo = hi - MAX_BUCKETS + 1;
+            for (int b = offset; b < lo && b < offset + counts.length; b++) folded = Math.addExact(folded, counts[b - offset]);
+            floor = lo;
+        }
+        int length = (int) Math.min(MAX_BUCKETS, Math.max(2L * counts.length, hi - lo + 1));
+        // Spare room goes on the side that grew
+        int newOffset = bucket < offset ? hi - length + 1 : lo;
+        int[] grown = new int[length];
+        for (int b = Math.max(offset, newOffset); b < offset + counts.length && b < newOffset + length; b++) {
+            grown[b - newOffset] = counts[b - offset];
+        }
+        counts = grown;
+        offset = newOffset;
+        counts[lo - offset] = Math.addExact(counts[lo - offset], folded);
+    }
+
+    /**
+     * Value at quantile q in [0, 1] (0.5 is the median), within the relative
+     * accuracy of a value of that rank; 0 for an empty sketch.
+     */
+    public double getQuantile(double q) {
+        if (count == 0) return 0;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        double rank = q * (count - 1);
+        long seen = lowCount;
+        if (seen > rank) return min;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen > rank) {
+                double value = 2 * Math.pow(gamma, offset + b) / (gamma + 1);
+                return Math.max(min, Math.min(max, value));
+            }
+        }
+        return max;
+    }
+
+    public double getMedian() {
+        return getQuantile(0.5);
+    }
+
+    public long getCount() { return count; }
+    public boolean isEmpty() { return count == 0; }
+    public double getRelativeAccuracy() { return relativeAccuracy; }
+
+    public double getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public QuantileSketch copy() {
+        QuantileSketch copy = new QuantileSketch(relativeAccuracy);
+        copy.counts = counts.clone();
+        copy.offset = offset;
+        copy.floor = floor;
+        copy.count = count;
+        copy.lowCount = lowCount;
+        copy.min = min;
+        copy.max = max;
+        return copy;
+    }
+
+    // Drop unused buckets at both ends, e.g. before storing many small sketches
+    void trim() {
+        int lo = 0, hi = counts.length - 1;
+        while (lo <= hi && counts[lo] == 0) lo++;
+        while (hi >= lo && counts[hi] == 0) hi--;
+        if (lo == 0 && hi == counts.length - 1) return;
+        counts = lo > hi ? new int[0] : Arrays.copyOfRange(counts, lo, hi + 1);
+        offset += lo;
+    }
+
+    // Make this sketch read-only; returns this
+    public QuantileSketch freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("Sketch is frozen; merge it into a new QuantileSketch instead");
+    }
+
+    // Approximate heap footprint, for cache and cube accounting
+    public long estimatedBytes() {
+        return 88 + 16 + 4L * counts.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d p10=%.2f p50=%.2f p90=%.2f", count, getQuantile(0.1), getMedian(),
+            getQuantile(0.9));
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Result cache bounded by the estimated heap size of its values rather than
+ * by entry count, so one large selection vector cannot pin hundreds of small
+ * aggregates or the other way round.
+ *
+ * Entries are evicted in LRU order, but only if the entry being inserted is
+ * accessed more often than the one it would displace (TinyLFU admission):
+ * a 4-bit count-min sketch of recent key frequencies, halved every
+ * SAMPLE_FACTOR * capacity accesses, keeps a burst of one-off queries from
+ * flushing the repeated ones. All methods are synchronized; values are
+ * computed by the caller outside the lock, so put takes the version read
+ * before computing and drops the value if an invalidation happened since.
+ */
+public class QueryCache<K, V> {
+    // Rough per-entry overhead of the key, the map node and the LRU links
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SAMPLE_FACTOR = 10;
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true); // Access order
+    private final Map<K, Long> weights = new HashMap<>();
+    private final ToLongFunction<V> weigher;
+    private long maxBytes;
+    private long bytes;
+
+    private final byte[] sketch;
+    private final int sketchMask;
+    private int sketchAdditions;
+    private final int sketchSampleSize;
+
+    private long hits, misses, evictions, rejections, invalidations;
+    private long version; // Bumped by every invalidation
+
+    public QueryCache(long maxBytes, ToLongFunction<V> weigher) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.weigher = weigher;
+        // About 8 counters per entry that fits when entries average 4 KB, at least 4K counters
+        int counters = Integer.highestOneBit((int) Math.max(4096, Math.min(1 << 22, this.maxBytes / 512)));
+        sketch = new byte[counters];
+        sketchMask = counters - 1;
+        sketchSampleSize = SAMPLE_FACTOR * counters / 8;
+    }
+
+    // Same entries, frequencies and counters, for a new snapshot of the data; the copies evolve independently
+    public synchronized QueryCache<K, V> copy() {
+        QueryCache<K, V> cache = new QueryCache<>(maxBytes, weigher);
+        cache.entries.putAll(entries);
+        cache.weights.putAll(weights);
+        cache.bytes = bytes;
+        System.arraycopy(sketch, 0, cache.sketch, 0, sketch.length);
+        cache.sketchAdditions = sketchAdditions;
+        cache.hits = hits;
+        cache.misses = misses;
+        cache.evictions = evictions;
+        cache.rejections = rejections;
+        cache.invalidations = invalidations;
+        return cache;
+    }
+
+    // Cached value for key, or null; every lookup counts towards the key's frequency
+    public synchronized V get(K key) {
+        recordAccess(key);
+        V value = entries.get(key);
+        if (value == null) misses++;
+        else hits++;
+        return value;
+    }
+
+    // Read before computing a value to put
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Offer a value computed at the given version. It is stored if no
+     * invalidation happened meanwhile and it fits the budget after evicting
+     * least recently used entries that are accessed less often than key;
+     * otherwise it is rejected and the cache is left as it was.
+     */
+    public synchronized void put(K key, V value, long computedAt) {
+        if (computedAt != version) return;
+        long weight = weigher.applyAsLong(value) + ENTRY_OVERHEAD_BYTES;
+        if (weight > maxBytes) {
+            rejections++;
+            return;
+        }
+        remove(key);
+        int frequency = frequency(key);
+        // Check the victims first so a rejected insert evicts nothing
+        long freed = 0;
+        int victims = 0;
+        for (Iterator<K> it = entries.keySet().iterator(); bytes - freed + weight > maxBytes && it.hasNext(); victims++) {
+            K victim = it.next();
+            if (frequency(victim) >= frequency) {
+                rejections++;
+                return;
+            }
+            freed += weights.get(victim);
+        }
+        Iterator<K> it = entries.keySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            K victim = it.next();
+            it.remove();
+            bytes -= weights.remove(victim);
+            evictions++;
+        }
+        entries.put(key, value);
+        weights.put(key, weight);
+        bytes += weight;
+    }
+
+    public synchronized void remove(K key) {
+        if (entries.remove(key) != null) bytes -= weights.remove(key);
+    }
+
+    // Drop every entry whose key matches, e.g. the windows touched by an append
+    public synchronized int invalidateIf(Predicate<K> stale) {
+        version++;
+        int removed = 0;
+        for (Iterator<K> it = entries.keySet().iterator(); it.hasNext(); ) {
+            K key = it.next();
+            if (stale.test(key)) {
+                it.remove();
+                bytes -= weights.remove(key);
+                removed++;
+            }
+        }
+        invalidations += removed;
+        return removed;
+    }
+
+    public synchronized void clear() {
+        version++;
+        invalidations += entries.size();
+        entries.clear();
+        weights.clear();
+        bytes = 0;
+    }
+
+    // Change the budget, evicting least recently used entries until it holds; 0 disables caching
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        for (Iterator<K> it = entries.keySet().iterator(); bytes > this.maxBytes && it.hasNext(); ) {
+            K victim = it.next();
+            it.remove();
+            bytes -= weights.remove(victim);
+            evictions++;
+        }
+    }
+
+    private void recordAccess(K key) {
+        int hash = spread(key.hashCode());
+        for (int d = 0; d < SKETCH_DEPTH; d++) {
+            int i = index(hash, d);
+            if (sketch[i] < 15) sketch[i]++;
+        }
+        if (++sketchAdditions >= sketchSampleSize) {
+            // Age the counts so the cache follows shifts in the workload
+            for (int i = 0; i < sketch.length; i++) sketch[i] >>= 1;
+            sketchAdditions = 0;
+        }
+    }
+
+    // Count-min estimate of how often key was looked up recently
+    private int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int min = 15;
+        for (int d = 0; d < SKETCH_DEPTH; d++) min = Math.min(min, sketch[index(hash, d)]);
+        return min;
+    }
+
+    private int index(int hash, int depth) {
+        int h = hash * (0x9E3779B9 + 2 * depth * 0x85EBCA6B);
+        return (h ^ (h >>> 16)) & sketchMask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45D9F3B;
+        return hash ^ (hash >>> 16);
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized long getRejections() { return rejections; }
+    public synchronized long getInvalidations() { return invalidations; }
+    public synchronized int getEntryCount() { return entries.size(); }
+    public synchronized long getBytes() { return bytes; }
+    public synchronized long getMaxBytes() { return maxBytes; }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.1f%% evictions=%d rejected=%d invalidated=%d entries=%d bytes=%d/%d",
+            hits, misses, 100 * getHitRate(), evictions, rejections, invalidations, entries.size(), bytes, maxBytes);
+    }
+}
@@ -0,0 +1,313 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of queries and of the operators they run: index lookups,
+ * scans, filters, aggregates and loads. Each operation records wall time,
+ * rows scanned and qualified, zone-map blocks scanned and skipped, bytes of
+ * column values read, the index it used and the bytes its thread allocated.
+ *
+ * Operations are reported two ways:
+ *   JFR       hdb.Query and hdb.Operator events, committed whenever a flight
+ *             recording is running, e.g. java -XX:StartFlightRecording ...
+ *   registry  totals per (operator, detail, index) kept in process when
+ *             -Dquery.metrics=true (or setEnabled), dumped by toJson()
+ * With neither active, begin() returns null after one flag check and call
+ * sites skip the rest, so production code carries no measurable cost.
+ *
+ * Operations nest per thread: the counts of an operation include those of
+ * the operations started inside it, so a query's totals cover its operators.
+ * An operation is current on its thread until closed, so call sites open it
+ * in try-with-resources (a null operation is skipped there) and an exception
+ * cannot leave it as the parent of every later operation on that thread.
+ * Morsels run on worker threads are counted by the operation that scheduled
+ * them, but only the caller thread's allocation is measured, and none on
+ * virtual threads (QueryServer requests), which report 0.
+ */
+public final class QueryMetrics {
+    public static final String QUERY = "query";
+    public static final String LOAD = "load";
+    public static final String INDEX = "index";
+    public static final String SCAN = "scan";
+    public static final String FILTER = "filter";
+    public static final String AGGREGATE = "aggregate";
+
+    private static volatile boolean enabled = Boolean.getBoolean("query.metrics");
+    private static final EventType QUERY_EVENTS = EventType.getEventType(QueryEvent.class);
+    private static final EventType OPERATOR_EVENTS = EventType.getEventType(OperatorEvent.class);
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<>();
+    private static final Map<String, Totals> TOTALS = new ConcurrentHashMap<>();
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private QueryMetrics() {}
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        return threads.isThreadAllocatedMemorySupported() ? threads : null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Turn the in-process registry on or off; JFR events only depend on a running recording
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Start an operation on this thread, or return null when nothing would
+     * record it. detail names what runs (an access path, a predicate, a file);
+     * it is only turned into a string for a recorded operation.
+     */
+    public static Operation begin(String operator, Object detail) {
+        EventType events = operator == QUERY ? QUERY_EVENTS : OPERATOR_EVENTS;
+        if (!enabled && !events.isEnabled()) return null;
+        return new Operation(operator, String.valueOf(detail), CURRENT.get());
+    }
+
+    // Innermost operation running on this thread, or null
+    static Operation current() {
+        return CURRENT.get();
+    }
+
+    // Name the index the current operation used, if one is being recorded
+    static void index(String index) {
+        Operation op = CURRENT.get();
+        if (op != null) op.index(index);
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * One running operation. Counters are plain fields: an operation is
+     * updated by the thread that began it, which also merges its morsels.
+     */
+    public static final class Operation implements AutoCloseable {
+        private final String operator;
+        private final String detail;
+        private final Operation parent;
+        private final Event event;
+        private final long startNanos;
+        private final long startAllocated;
+        private String index = "none";
+        private int bytesPerRow;
+        private long rowsScanned, blocksScanned, blocksSkipped, bytesRead, rowsQualified, childAllocated;
+
+        private Operation(String operator, String detail, Operation parent) {
+            this.operator = operator;
+            this.detail = detail;
+            this.parent = parent;
+            Event event = operator == QUERY ? new QueryEvent() : new OperatorEvent();
+            this.event = event.isEnabled() ? event : null;
+            CURRENT.set(this);
+            if (this.event != null) this.event.begin();
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        public Operation index(String index) {
+            this.index = index;
+            return this;
+        }
+
+        // Width of the column values read per scanned row, for bytesRead
+        public Operation bytesPerRow(int bytes) {
+            this.bytesPerRow = bytes;
+            return this;
+        }
+
+        // Bytes read other than by scanning rows, e.g. a column loaded from disk
+        public Operation read(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        public Operation scanned(long rows, int blocks, int skippedBlocks) {
+            rowsScanned += rows;
+            blocksScanned += blocks;
+            blocksSkipped += skippedBlocks;
+            bytesRead += rows * bytesPerRow;
+            return this;
+        }
+
+        // Number of rows the operation produced or aggregated, reported when it closes
+        public Operation qualified(long rows) {
+            this.rowsQualified = rows;
+            return this;
+        }
+
+        // Finish: make the enclosing operation current again and report this one
+        @Override
+        public void close() {
+            long wallNanos = System.nanoTime() - startNanos;
+            long allocated = allocatedBytes();
+            allocated = allocated >= 0 && startAllocated >= 0 ? allocated - startAllocated : childAllocated;
+            if (parent != null) {
+                parent.rowsScanned += rowsScanned;
+                parent.blocksScanned += blocksScanned;
+                parent.blocksSkipped += blocksSkipped;
+                parent.bytesRead += bytesRead;
+                parent.childAllocated += allocated;
+                CURRENT.set(parent);
+            } else {
+                CURRENT.remove();
+            }
+            if (event != null) commit(allocated);
+            if (enabled) {
+                TOTALS.computeIfAbsent(operator + '\u0000' + detail + '\u0000' + index,
+                    k -> new Totals(operator, detail, index)).add(this, wallNanos, allocated);
+            }
+        }
+
+        private void commit(long allocated) {
+            event.end();
+            if (!event.shouldCommit()) return;
+            if (event instanceof QueryEvent) {
+                QueryEvent e = (QueryEvent) event;
+                e.detail = detail;
+                e.rowsScanned = rowsScanned;
+                e.rowsQualified = rowsQualified;
+                e.blocksSkipped = blocksSkipped;
+                e.bytesRead = bytesRead;
+                e.allocated = allocated;
+            } else {
+                OperatorEvent e = (OperatorEvent) event;
+                e.operator = operator;
+                e.detail = detail;
+                e.index = index;
+                e.rowsScanned = rowsScanned;
+                e.rowsQualified = rowsQualified;
+                e.blocksScanned = blocksScanned;
+                e.blocksSkipped = blocksSkipped;
+                e.bytesRead = bytesRead;
+                e.allocated = allocated;
+            }
+            event.commit();
+        }
+    }
+
+    private static final class Totals {
+        final String operator, detail, index;
+        final LongAdder calls = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder rowsScanned = new LongAdder();
+        final LongAdder rowsQualified = new LongAdder();
+        final LongAdder blocksScanned = new LongAdder();
+        final LongAdder blocksSkipped = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+
+        Totals(String operator, String detail, String index) {
+            this.operator = operator;
+            this.detail = detail;
+            this.index = index;
+        }
+
+        void add(Operation op, long wall, long allocated) {
+            calls.increment();
+            wallNanos.add(wall);
+            rowsScanned.add(op.rowsScanned);
+            rowsQualified.add(op.rowsQualified);
+            blocksScanned.add(op.blocksScanned);
+            blocksSkipped.add(op.blocksSkipped);
+            bytesRead.add(op.bytesRead);
+            allocatedBytes.add(Math.max(0, allocated));
+        }
+    }
+
+    // Forget the recorded totals
+    public static void reset() {
+        TOTALS.clear();
+    }
+
+    /**
+     * The registry as JSON: one object per (operator, detail, index) with
+     * call count and summed counters, ordered by operator then detail.
+     */
+    public static String toJson() {
+        List<Totals> totals = new ArrayList<>(TOTALS.values());
+        totals.sort((a, b) -> a.operator.equals(b.operator)
+            ? (a.detail + a.index).compareTo(b.detail + b.index) : a.operator.compareTo(b.operator));
+        StringBuilder sb = new StringBuilder(256 + 256 * totals.size());
+        sb.append("{\"enabled\":").append(enabled).append(",\"operators\":[");
+        for (int i = 0; i < totals.size(); i++) {
+            Totals t = totals.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("\n  {\"operator\":");
+            appendString(sb, t.operator);
+            sb.append(",\"detail\":");
+            appendString(sb, t.detail);
+            sb.append(",\"index\":");
+            appendString(sb, t.index);
+            sb.append(",\"calls\":").append(t.calls.sum())
+              .append(",\"wallNanos\":").append(t.wallNanos.sum())
+              .append(",\"rowsScanned\":").append(t.rowsScanned.sum())
+              .append(",\"rowsQualified\":").append(t.rowsQualified.sum())
+              .append(",\"blocksScanned\":").append(t.blocksScanned.sum())
+              .append(",\"blocksSkipped\":").append(t.blocksSkipped.sum())
+              .append(",\"bytesRead\":").append(t.bytesRead.sum())
+              .append(",\"allocatedBytes\":").append(t.allocatedBytes.sum()).append('}');
+        }
+        return sb.append(totals.isEmpty() ? "]}" : "\n]}").toString();
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    @Name("hdb.Query")
+    @Label("HDB Query")
+    @Category({"HDB", "Query"})
+    @Description("One query from start to result, including the operators it ran")
+    @StackTrace(false)
+    static final class QueryEvent extends Event {
+        @Label("Detail") String detail;
+        @Label("Rows Scanned") long rowsScanned;
+        @Label("Rows Qualified") long rowsQualified;
+        @Label("Blocks Skipped") long blocksSkipped;
+        @Label("Bytes Read") @DataAmount long bytesRead;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+
+    @Name("hdb.Operator")
+    @Label("HDB Operator")
+    @Category({"HDB", "Query"})
+    @Description("One index lookup, scan, filter, aggregate or load")
+    @StackTrace(false)
+    static final class OperatorEvent extends Event {
+        @Label("Operator") String operator;
+        @Label("Detail") String detail;
+        @Label("Index Used") String index;
+        @Label("Rows Scanned") long rowsScanned;
+        @Label("Rows Qualified") long rowsQualified;
+        @Label("Blocks Scanned") long blocksScanned;
+        @Label("Blocks Skipped") long blocksSkipped;
+        @Label("Bytes Read") @DataAmount long bytesRead;
+        @Label("Allocated") @DataAmount long allocated;
+    }
+}
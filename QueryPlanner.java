@@ -0,0 +1,258 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cost-based choice between the six access paths of DataAnalyzer.
+ *
+ * Cardinalities come from TableStatistics (exact per (year, month, town)
+ * key, histogram for floor area) and from the block zone maps, which tell
+ * exactly how many rows a pruned full scan reads. Each available path gets
+ * an estimated cost in nanoseconds and only the cheapest one is executed.
+ * plan(...).explain() shows the estimates and the choice.
+ *
+ * The per-row constants are rough figures from AccessPathBenchmark at 1M
+ * rows (benchmarks/); only their ratios matter.
+ */
+public class QueryPlanner {
+    private static final double MASK_PREDICATE_VECTOR_NS = 0.3; // One SIMD predicate, per row
+    private static final double MASK_PREDICATE_SCALAR_NS = 3.0;
+    private static final double SEQUENTIAL_ROW_NS = 3.0; // Decode and test a row in order
+    private static final double INDEXED_ROW_NS = 6.0; // Test a row through a selection vector
+    private static final double SELECTION_ROW_NS = 9.0; // Append a row to a selection list and re-test it
+    private static final double BITMAP_ROW_NS = 5.0; // Visit a bitmap member and test it
+    private static final double BITMAP_AND_ROW_NS = 0.7; // Per member of the smallest bitmap operand
+    private static final double BITMAP_WORD_NS = 2.0; // Per 64 rows of a dense bitmap operand
+    private static final double AREA_INDEX_BUILD_ROW_NS = 20.0;
+    private static final double HASH_PROBE_NS = 100.0;
+    private static final double EMIT_ROW_NS = 1.0;
+    private static final double MORSEL_STARTUP_NS = 20_000.0; // Handing morsels to the scan executor
+
+
+    public enum AccessPath {
+        MONTH_INDEX_SHARED_SCAN("monthIndexSharedScan"),
+        YEAR_INDEX_SHARED_SCAN("yearIndexSharedScan"),
+        YEAR_INDEX("yearIndexNoSharedScan"),
+        NO_INDEX_SHARED_SCAN("noIndexSharedScan"),
+        NO_INDEX("noIndexNoSharedScan"),
+        HASH_INDEX("hashingIndexSharedScan");
+
+        private final String label;
+
+        AccessPath(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Estimated cost of one access path; unavailable paths carry the reason.
+     */
+    public static class Estimate {
+        private final AccessPath path;
+        private final double costNanos;
+        private final long rowsRead;
+        private final String detail;
+
+        Estimate(AccessPath path, double costNanos, long rowsRead, String detail) {
+            this.path = path;
+            this.costNanos = costNanos;
+            this.rowsRead = rowsRead;
+            this.detail = detail;
+        }
+
+        static Estimate unavailable(AccessPath path, String reason) {
+            return new Estimate(path, Double.POSITIVE_INFINITY, 0, reason);
+        }
+
+        public AccessPath getPath() { return path; }
+        public double getCostNanos() { return costNanos; }
+        public long getRowsRead() { return rowsRead; }
+        public String getDetail() { return detail; }
+
+        public boolean isAvailable() {
+            return costNanos != Double.POSITIVE_INFINITY;
+        }
+    }
+
+    /**
+     * The chosen access path for one query together with all estimates.
+     */
+    public static class Plan {
+        private final String town;
+        private final int year;
+        private final int startMonth;
+        private final long estimatedRows;
+        private final List<Estimate> estimates; // Cheapest first, unavailable last
+
+        Plan(String town, int year, int startMonth, long estimatedRows, List<Estimate> estimates) {
+            this.town = town;
+            this.year = year;
+            this.startMonth = startMonth;
+            this.estimatedRows = estimatedRows;
+            this.estimates = estimates;
+        }
+
+        public String getTown() { return town; }
+        public int getYear() { return year; }
+        public int getStartMonth() { return startMonth; }
+        public long getEstimatedRows() { return estimatedRows; }
+        public List<Estimate> getEstimates() { return estimates; }
+
+        public AccessPath getAccessPath() {
+            return estimates.get(0).getPath();
+        }
+
+        public String explain() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("EXPLAIN town=%s window=%s..%s minArea=%.0f estimatedRows=%d%n",
+                town, YearMonths.format(YearMonths.pack(year, startMonth)),
+                YearMonths.format(YearMonths.pack(year, startMonth) + 1), DataAnalyzer.MIN_AREA, estimatedRows));
+            for (int i = 0; i < estimates.size(); i++) {
+                Estimate e = estimates.get(i);
+                String marker = i == 0 ? "->" : "  ";
+                if (e.isAvailable()) {
+                    sb.append(String.format("  %s %-24s cost %12.1f us  rows read %10d  (%s)%n",
+                        marker, e.getPath().getLabel(), e.getCostNanos() / 1000, e.getRowsRead(), e.getDetail()));
+                } else {
+                    sb.append(String.format("  %s %-24s unavailable: %s%n", marker, e.getPath().getLabel(), e.getDetail()));
+                }
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            return explain();
+        }
+    }
+
+    private final DataAnalyzer analyzer;
+
+    public QueryPlanner(DataAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    public String explain(String town, int year, int startMonth) {
+        return plan(town, year, startMonth).explain();
+    }
+
+    public Plan plan(String town, int year, int startMonth) {
+        TableStatistics stats = analyzer.getTableStatistics();
+        BlockStatistics blocks = analyzer.getBlockStatistics();
+        int townCode = analyzer.getTowns().lookup(town);
+        int windowStart = YearMonths.pack(year, startMonth);
+        int windowEnd = windowStart + 1;
+        double areaFraction = stats.areaAtLeastFraction(DataAnalyzer.MIN_AREA);
+
+        long townRows = stats.rowsInTown(townCode);
+        long windowRows = stats.rowsInYearMonth(windowStart) + stats.rowsInYearMonth(windowEnd);
+        long keyRows = stats.rowsInKey(windowStart, townCode) + stats.rowsInKey(windowEnd, townCode);
+        long estimatedRows = Math.round(keyRows * areaFraction);
+        double emit = estimatedRows * EMIT_ROW_NS;
+        double maskRow = FilterKernels.isVectorized() ? MASK_PREDICATE_VECTOR_NS : MASK_PREDICATE_SCALAR_NS;
+        int workers = analyzer.getScanParallelism();
+        boolean yearIndexReady = analyzer.hasTownZoneMapper();
+
+        List<Estimate> estimates = new ArrayList<>();
+
+        // Bitmap AND of town, year, months and area
+        if (!yearIndexReady) {
+            estimates.add(Estimate.unavailable(AccessPath.MONTH_INDEX_SHARED_SCAN, "year/month index not built"));
+        } else {
+            double cost = townRows * BITMAP_AND_ROW_NS + (double) stats.getRowCount() / 64 * BITMAP_WORD_NS + emit;
+            String detail = "AND of " + townRows + " town rows with year, month and area bitmaps";
+            if (!analyzer.hasAreaIndex()) {
+                cost += stats.getRowCount() * AREA_INDEX_BUILD_ROW_NS;
+                detail += ", builds area index";
+            }
+            estimates.add(new Estimate(AccessPath.MONTH_INDEX_SHARED_SCAN, cost, townRows, detail));
+        }
+
+        // Year-index paths read the row range [first, last] of the window's year (and of the next one
+        // for December); after appends it also holds rows of other years, and the range scan skips the
+        // blocks whose zone maps rule the window out
+        if (!yearIndexReady) {
+            estimates.add(Estimate.unavailable(AccessPath.YEAR_INDEX_SHARED_SCAN, "year/month index not built"));
+            estimates.add(Estimate.unavailable(AccessPath.YEAR_INDEX, "year/month index not built"));
+        } else {
+            TownZoneMapper dates = analyzer.getTownZoneMapper();
+            RowBitmap yearRows = dates.getYearBitmap(year);
+            if (startMonth == 12) yearRows = yearRows.or(dates.getYearBitmap(year + 1));
+            long yearCount = yearRows.cardinality();
+            long yearSpan = yearRows.isEmpty() ? 0 : yearRows.last() - yearRows.first() + 1;
+            int yearMorsels = morsels(blocks, yearSpan);
+            estimates.add(new Estimate(AccessPath.YEAR_INDEX_SHARED_SCAN,
+                parallel(yearCount * BITMAP_ROW_NS, yearMorsels, workers) + emit, yearCount,
+                "visit " + yearCount + " rows of year " + year + (startMonth == 12 ? " and " + (year + 1) : "")));
+            long spanRows = 0;
+            int spanBlocks = 0;
+            if (!yearRows.isEmpty()) {
+                for (int b = blocks.blockOf(yearRows.first()); b <= blocks.blockOf(yearRows.last()); b++) {
+                    if (!blocks.mayMatch(b, windowStart, windowEnd, DataAnalyzer.MIN_AREA)) continue;
+                    spanRows += Math.min(yearRows.last() + 1, blocks.blockEnd(b)) - Math.max(yearRows.first(), blocks.blockStart(b));
+                    spanBlocks++;
+                }
+            }
+            // Window pass over those blocks, then town and area passes over the window rows
+            double work = spanRows * SEQUENTIAL_ROW_NS + windowRows * INDEXED_ROW_NS + keyRows * INDEXED_ROW_NS;
+            estimates.add(new Estimate(AccessPath.YEAR_INDEX, parallel(work, spanBlocks, workers) + emit, spanRows,
+                "scan " + spanRows + " rows of year range in " + spanBlocks + " blocks, compact "
+                    + windowRows + " window rows"));
+        }
+
+        // Full scans skip the blocks their zone maps rule out
+        long townBlockRows = 0, windowBlockRows = 0;
+        int townBlocks = 0, windowBlocks = 0;
+        for (int b = 0; b < blocks.getBlockCount(); b++) {
+            if (!blocks.mayMatch(b, windowStart, windowEnd, DataAnalyzer.MIN_AREA)) continue;
+            int rows = blocks.blockEnd(b) - blocks.blockStart(b);
+            windowBlocks++;
+            windowBlockRows += rows;
+            if (blocks.containsTown(b, townCode)) {
+                townBlocks++;
+                townBlockRows += rows;
+            }
+        }
+        estimates.add(new Estimate(AccessPath.NO_INDEX_SHARED_SCAN,
+            parallel(townBlockRows * 3 * maskRow, townBlocks, workers) + emit, townBlockRows,
+            "3 predicates over " + townBlocks + " of " + blocks.getBlockCount() + " blocks"));
+        long windowAreaRows = Math.round(windowRows * areaFraction);
+        estimates.add(new Estimate(AccessPath.NO_INDEX,
+            parallel(windowBlockRows * 2 * maskRow + windowAreaRows * SELECTION_ROW_NS, windowBlocks, workers) + emit,
+            windowBlockRows, "2 predicates over " + windowBlocks + " blocks, town check on " + windowAreaRows + " rows"));
+
+        // Composite (yearMonth, town) hash index: two probes plus the matching rows
+        if (!analyzer.hasCompositeIndex()) {
+            estimates.add(Estimate.unavailable(AccessPath.HASH_INDEX, "composite index not built"));
+        } else {
+            estimates.add(new Estimate(AccessPath.HASH_INDEX, 2 * HASH_PROBE_NS + keyRows * INDEXED_ROW_NS + emit,
+                keyRows, "probe 2 keys, check area on " + keyRows + " rows"));
+        }
+
+        estimates.sort(Comparator.comparingDouble(Estimate::getCostNanos));
+        return new Plan(town, year, startMonth, estimatedRows, estimates);
+    }
+
+    // Work split over the morsels that actually run, plus the hand-off cost
+    private static double parallel(double work, int morsels, int workers) {
+        int effective = Math.max(1, Math.min(workers, morsels));
+        return effective == 1 ? work : work / effective + MORSEL_STARTUP_NS;
+    }
+
+    private static int morsels(BlockStatistics blocks, long rows) {
+        return (int) ((rows + blocks.getBlockRows() - 1) / blocks.getBlockRows());
+    }
+
+    // Run only the chosen access path; repeated queries are answered from the analyzer's result cache
+    public SelectionVector execute(Plan plan) {
+        return analyzer.select(plan.getAccessPath(), plan.getTown(), plan.getYear(), plan.getStartMonth());
+    }
+
+    public SelectionVector execute(String town, int year, int startMonth) {
+        return execute(plan(town, year, startMonth));
+    }
+}
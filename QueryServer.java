@@ -0,0 +1,230 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Long-running query endpoint: the store is loaded once and every request is
+ * answered from memory over HTTP on the loopback interface.
+ *
+ *   GET  /query?matric=U2223931F                  ScanResult CSV, as Main writes it
+ *   GET  /query?town=BEDOK&year=2019&month=3      same, optionally with &minArea=80
+ *   GET  /query?...&percentiles=true              adds p10, median and p90 price (QuantileSketch)
+ *   GET  /explain?town=BEDOK&year=2019&month=3    access path estimates (EXPLAIN)
+ *   GET  /stats                                   rows, snapshots, result cache and latency
+ *   GET  /metrics                                 per-operator totals as JSON (-Dquery.metrics=true)
+ *   POST /append?csv=path/to/delta.csv            ingest a delta CSV as a new segment
+ *
+ * Each request runs on its own virtual thread and reads the storage's current
+ * DataAnalyzer once, so it works on one snapshot from start to end. An append
+ * builds the next snapshot next to the current one and publishes it with a
+ * single volatile write (ColumnarStorage.appendCSV); queries never wait for it.
+ */
+public class QueryServer {
+
+    private final ColumnarStorage storage;
+    private final String storeDir;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final AtomicLong snapshots = new AtomicLong(1);
+
+    public QueryServer(ColumnarStorage storage, String storeDir, int port) throws IOException {
+        this.storage = storage;
+        this.storeDir = storeDir;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(requestExecutor);
+        server.createContext("/query", this::handleQuery);
+        server.createContext("/explain", this::handleExplain);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/append", this::handleAppend);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Query server listening on http://" + server.getAddress().getHostString() + ":"
+            + server.getAddress().getPort() + "/query");
+    }
+
+    public void stop() {
+        server.stop(0);
+        requestExecutor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleQuery(HttpExchange exchange) throws IOException {
+        long startTime = System.nanoTime();
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.QUERY, "http")) {
+            Map<String, String> params = parameters(exchange);
+            BatchQueryExecutor.Query query = parseQuery(params);
+            double minArea = params.containsKey("minArea") ? Double.parseDouble(params.get("minArea")) : DataAnalyzer.MIN_AREA;
+            DataAnalyzer analyzer = storage.getDataAnalyzer(); // One snapshot for the whole request
+            PriceAggregate stats = analyzer.aggregateWindow(query.getTown(), query.getYear(), query.getMonth(), minArea);
+            if (op != null) op.qualified(stats.getCount());
+            StringBuilder sb = new StringBuilder(256);
+            BatchQueryExecutor.appendScanResult(sb, query, stats);
+            if (Boolean.parseBoolean(params.get("percentiles"))) {
+                BatchQueryExecutor.appendQuantiles(sb, query,
+                    analyzer.quantileWindow(query.getTown(), query.getYear(), query.getMonth(), minArea));
+            }
+            respond(exchange, 200, "text/csv", sb.toString());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        } finally {
+            queryLatency.record(System.nanoTime() - startTime);
+        }
+    }
+
+    private void handleExplain(HttpExchange exchange) throws IOException {
+        try {
+            BatchQueryExecutor.Query query = parseQuery(parameters(exchange));
+            QueryPlanner planner = new QueryPlanner(storage.getDataAnalyzer());
+            respond(exchange, 200, "text/plain", planner.explain(query.getTown(), query.getYear(), query.getMonth()));
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        DataAnalyzer analyzer = storage.getDataAnalyzer();
+        String body = "rows " + analyzer.size() + "\n"
+            + "snapshots " + snapshots.get() + "\n"
+            + "cache " + analyzer.getResultCache() + "\n"
+            + "latency " + queryLatency + "\n";
+        respond(exchange, 200, "text/plain", body);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "application/json", QueryMetrics.toJson() + "\n");
+    }
+
+    // Appends are serialized by ColumnarStorage; queries keep running on the previous snapshot meanwhile
+    private void handleAppend(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "text/plain", "Use POST to append\n");
+            return;
+        }
+        String csvPath = parameters(exchange).get("csv");
+        if (csvPath == null) {
+            respond(exchange, 400, "text/plain", "Missing parameter csv\n");
+            return;
+        }
+        int rows = storage.appendCSV(csvPath, storeDir);
+        if (rows > 0) snapshots.incrementAndGet();
+        respond(exchange, 200, "text/plain", "appended " + rows + " rows, table has "
+            + storage.getDataAnalyzer().size() + " rows\n");
+    }
+
+    // A matriculation number, or an explicit town, year and starting month
+    private static BatchQueryExecutor.Query parseQuery(Map<String, String> params) {
+        String matric = params.get("matric");
+        if (matric != null) {
+            // The town, month and year digits sit before the check letter
+            if (matric.length() < 4) throw new IllegalArgumentException("Invalid matriculation number " + matric);
+            for (int i = matric.length() - 4; i <= matric.length() - 2; i++) {
+                char c = matric.charAt(i);
+                if (c < '0' || c > '9') throw new IllegalArgumentException("Invalid matriculation number " + matric);
+            }
+            BatchQueryExecutor.Query query = BatchQueryExecutor.Query.fromMatriculation(matric);
+            if (query.getMonth() < 1 || query.getMonth() > 12) {
+                throw new IllegalArgumentException("Invalid month in matriculation number " + matric);
+            }
+            return query;
+        }
+        String town = params.get("town");
+        String year = params.get("year");
+        String month = params.get("month");
+        if (town == null || year == null || month == null) {
+            throw new IllegalArgumentException("Expected matric=... or town=...&year=...&month=...");
+        }
+        int startMonth = Integer.parseInt(month);
+        if (startMonth < 1 || startMonth > 12) throw new IllegalArgumentException("Invalid month " + month);
+        return new BatchQueryExecutor.Query(null, town.toUpperCase(), Integer.parseInt(year), startMonth);
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Lock-free latency histogram with eight linear sub-buckets per power of
+     * two, so a reported percentile is at most 12.5% above the true value.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BUCKET_BITS);
+        private final AtomicLong total = new AtomicLong();
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucket(Math.max(1, nanos)));
+            total.incrementAndGet();
+        }
+
+        private static int bucket(long value) {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent < SUB_BUCKET_BITS) return (int) value;
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+            return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) | sub;
+        }
+
+        // Largest value that falls into bucket b
+        private static long upperBound(int b) {
+            if (b < (1 << SUB_BUCKET_BITS)) return b;
+            int exponent = (b >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long sub = b & ((1 << SUB_BUCKET_BITS) - 1);
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (1L << exponent) + (sub + 1) * width - 1;
+        }
+
+        long percentile(double p) {
+            long count = total.get();
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length(); b++) {
+                seen += counts.get(b);
+                if (seen >= rank) return upperBound(b);
+            }
+            return upperBound(counts.length() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", total.get(),
+                percentile(50) / 1000.0, percentile(99) / 1000.0, percentile(99.9) / 1000.0, percentile(100) / 1000.0);
+        }
+    }
+}
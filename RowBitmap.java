@@ -0,0 +1,559 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of row indices in the style of Roaring bitmaps.
+ *
+ * The row space is split into 65536-row chunks keyed by the high 16 bits.
+ * Each chunk is stored either as a sorted array of the low 16 bits (sparse,
+ * up to 4096 rows) or as a 1024-word bitset (dense), whichever is smaller.
+ * AND/OR work chunk by chunk, so combining a town bitmap with a year bitmap
+ * only touches the chunks both of them populate, and cardinality is known
+ * without materialising any row list.
+ *
+ * freeze() makes a bitmap read-only so it can be shared, e.g. by the year
+ * and month indexes; copy() a frozen bitmap to extend it, or appendable()
+ * when only rows above its last one are added.
+ */
+public class RowBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    private char[] keys;
+    private Container[] containers;
+    private int size;
+    private boolean frozen;
+    private int shared; // Leading containers shared with the bitmap this was made appendable from
+
+    public RowBitmap() {
+        keys = new char[4];
+        containers = new Container[4];
+    }
+
+    // Build from ascending row indices
+    public static RowBitmap fromSorted(int[] rows, int count) {
+        RowBitmap bitmap = new RowBitmap();
+        for (int i = 0; i < count; i++) {
+            bitmap.add(rows[i]);
+        }
+        return bitmap;
+    }
+
+    // Every row in [from, to)
+    public static RowBitmap range(int from, int to) {
+        RowBitmap bitmap = new RowBitmap();
+        for (int row = from; row < to; row++) {
+            bitmap.add(row);
+        }
+        return bitmap;
+    }
+
+    public void add(int row) {
+        if (frozen) throw new IllegalStateException("Bitmap is frozen; copy() it to extend it");
+        char high = (char) (row >>> 16);
+        int i = findKey(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertKey(i, high, new ArrayContainer());
+        }
+        if (i < shared) throw new IllegalStateException("Row " + row + " is below the rows this bitmap can append");
+        containers[i] = containers[i].add((char) row);
+    }
+
+    public boolean contains(int row) {
+        int i = findKey((char) (row >>> 16));
+        return i >= 0 && containers[i].contains((char) row);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality();
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Smallest row, or -1 when empty
+    public int first() {
+        return size == 0 ? -1 : (keys[0] << 16) | containers[0].first();
+    }
+
+    // Largest row, or -1 when empty
+    public int last() {
+        return size == 0 ? -1 : (keys[size - 1] << 16) | containers[size - 1].last();
+    }
+
+    public RowBitmap and(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(other.containers[j]);
+                if (c.cardinality() > 0) result.appendKey(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public RowBitmap or(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendKey(keys[i], containers[i].copy());
+                i++;
+            } else if (i == size || keys[i] > other.keys[j]) {
+                result.appendKey(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendKey(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Join bitmaps of consecutive row ranges that start on 65536-row
+     * boundaries, e.g. the partials of a morsel-parallel build. Containers
+     * are taken over, not copied, so the parts must not be used afterwards;
+     * those of frozen parts are copied.
+     */
+    public static RowBitmap concat(List<RowBitmap> parts) {
+        RowBitmap result = new RowBitmap();
+        for (RowBitmap part : parts) {
+            if (part == null) continue;
+            for (int i = 0; i < part.size; i++) {
+                if (result.size > 0 && result.keys[result.size - 1] >= part.keys[i]) {
+                    throw new IllegalArgumentException("Bitmap parts overlap or are out of order");
+                }
+                boolean keep = !part.frozen && i >= part.shared;
+                result.appendKey(part.keys[i], keep ? part.containers[i] : part.containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy that can only be extended with rows above last(), e.g. appended
+     * rows. Every container but the last is shared with this bitmap, so the
+     * cost is proportional to the number of 65536-row chunks, not rows.
+     */
+    public RowBitmap appendable() {
+        RowBitmap result = new RowBitmap();
+        for (int i = 0; i < size; i++) {
+            result.appendKey(keys[i], i == size - 1 ? containers[i].copy() : containers[i]);
+        }
+        result.shared = Math.max(0, size - 1);
+        return result;
+    }
+
+    // Make this bitmap read-only; returns this
+    public RowBitmap freeze() {
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // Independent copy that can be extended without affecting this bitmap
+    public RowBitmap copy() {
+        RowBitmap result = new RowBitmap();
+        for (int i = 0; i < size; i++) {
+            result.appendKey(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    // Rows in this bitmap that are not in other
+    public RowBitmap andNot(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) j++;
+            Container c = (j < other.size && other.keys[j] == keys[i])
+                ? containers[i].andNot(other.containers[j])
+                : containers[i].copy();
+            if (c.cardinality() > 0) result.appendKey(keys[i], c);
+        }
+        return result;
+    }
+
+    // Visit every row in ascending order
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    // Visit the rows in [from, to) in ascending order
+    public void forEachInRange(int from, int to, IntConsumer action) {
+        if (from >= to) return;
+        int last = to - 1;
+        int i = Arrays.binarySearch(keys, 0, size, (char) (from >>> 16));
+        if (i < 0) i = -i - 1;
+        for (; i < size && keys[i] <= (last >>> 16); i++) {
+            int base = keys[i] << 16;
+            int lo = Math.max(from, base) & 0xFFFF;
+            int hi = Math.min(last, base | 0xFFFF) & 0xFFFF;
+            containers[i].forEachInRange(base, lo, hi, action);
+        }
+    }
+
+    // Materialise as an ascending int[] selection vector
+    public int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            pos = containers[i].fill(keys[i] << 16, rows, pos);
+        }
+        return rows;
+    }
+
+    // Approximate heap footprint, for sizing decisions
+    public long estimatedBytes() {
+        long bytes = 16 + keys.length * 2L + containers.length * 8L;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].bytes();
+        }
+        return bytes;
+    }
+
+    private int findKey(char high) {
+        // Rows are usually appended in order, so check the last key first
+        if (size > 0 && keys[size - 1] == high) return size - 1;
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertKey(int i, char high, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = c;
+        size++;
+    }
+
+    private void appendKey(char high, Container c) {
+        insertKey(size, high, c);
+    }
+
+    private abstract static class Container {
+        abstract Container add(char value);
+        abstract boolean contains(char value);
+        abstract int cardinality();
+        abstract int first();
+        abstract int last();
+        abstract Container and(Container other);
+        abstract Container or(Container other);
+        abstract Container andNot(Container other);
+        abstract Container copy();
+        abstract void forEach(int base, IntConsumer action);
+        abstract void forEachInRange(int base, int lo, int hi, IntConsumer action); // lo..hi inclusive
+        abstract int fill(int base, int[] out, int pos);
+        abstract long bytes();
+    }
+
+    // Sparse chunk: sorted low 16 bits
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int card;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        @Override
+        Container add(char value) {
+            int i;
+            if (card == 0 || values[card - 1] < value) {
+                i = card;
+            } else {
+                i = Arrays.binarySearch(values, 0, card, value);
+                if (i >= 0) return this;
+                i = -i - 1;
+            }
+            if (card == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            if (card == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, card - i);
+            values[i] = value;
+            card++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, card, value) >= 0;
+        }
+
+        @Override int cardinality() { return card; }
+        @Override int first() { return values[0]; }
+        @Override int last() { return values[card - 1]; }
+
+        @Override
+        Container and(Container other) {
+            char[] out = new char[card];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < card && j < o.card) {
+                    if (values[i] < o.values[j]) i++;
+                    else if (values[i] > o.values[j]) j++;
+                    else { out[n++] = values[i]; i++; j++; }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(values[i])) out[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            if (card + o.card > ARRAY_MAX) {
+                BitmapContainer bitmap = toBitmap();
+                for (int j = 0; j < o.card; j++) bitmap.set(o.values[j]);
+                return bitmap;
+            }
+            char[] out = new char[card + o.card];
+            int i = 0, j = 0, n = 0;
+            while (i < card || j < o.card) {
+                if (j == o.card || (i < card && values[i] < o.values[j])) out[n++] = values[i++];
+                else if (i == card || values[i] > o.values[j]) out[n++] = o.values[j++];
+                else { out[n++] = values[i]; i++; j++; }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] out = new char[card];
+            int n = 0;
+            for (int i = 0; i < card; i++) {
+                if (!other.contains(values[i])) out[n++] = values[i];
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(card, 1)), card);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int i = 0; i < card; i++) action.accept(base | values[i]);
+        }
+
+        @Override
+        void forEachInRange(int base, int lo, int hi, IntConsumer action) {
+            int i = Arrays.binarySearch(values, 0, card, (char) lo);
+            if (i < 0) i = -i - 1;
+            for (; i < card && values[i] <= hi; i++) action.accept(base | values[i]);
+        }
+
+        @Override
+        int fill(int base, int[] out, int pos) {
+            for (int i = 0; i < card; i++) out[pos++] = base | values[i];
+            return pos;
+        }
+
+        @Override long bytes() { return 24 + values.length * 2L; }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < card; i++) bitmap.set(values[i]);
+            return bitmap;
+        }
+    }
+
+    // Dense chunk: one bit per row
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        int card;
+
+        BitmapContainer() {
+            words = new long[WORDS];
+        }
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        void set(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            words[value >>> 6] = after;
+            if (before != after) card++;
+        }
+
+        @Override
+        Container add(char value) {
+            set(value);
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override int cardinality() { return card; }
+
+        @Override
+        int first() {
+            for (int w = 0; w < WORDS; w++) {
+                if (words[w] != 0) return w * 64 + Long.numberOfTrailingZeros(words[w]);
+            }
+            return -1;
+        }
+
+        @Override
+        int last() {
+            for (int w = WORDS - 1; w >= 0; w--) {
+                if (words[w] != 0) return w * 64 + 63 - Long.numberOfLeadingZeros(words[w]);
+            }
+            return -1;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] out = new long[WORDS];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                out[w] = words[w] & o[w];
+                n += Long.bitCount(out[w]);
+            }
+            return shrink(out, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] out = words.clone();
+            BitmapContainer result = new BitmapContainer(out, card);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) result.set(o.values[i]);
+                return result;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                out[w] |= o[w];
+                n += Long.bitCount(out[w]);
+            }
+            result.card = n;
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            long[] out = words.clone();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) out[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int w = 0; w < WORDS; w++) out[w] &= ~o[w];
+            }
+            int n = 0;
+            for (long word : out) n += Long.bitCount(word);
+            return shrink(out, n);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        @Override
+        void forEach(int base, IntConsumer action) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    action.accept(base | (w * 64 + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void forEachInRange(int base, int lo, int hi, IntConsumer action) {
+            for (int w = lo >>> 6; w <= hi >>> 6; w++) {
+                long word = words[w];
+                if (w == lo >>> 6) word &= -1L << lo;
+                if (w == hi >>> 6) word &= -1L >>> (63 - (hi & 63));
+                while (word != 0) {
+                    action.accept(base | (w * 64 + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int fill(int base, int[] out, int pos) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[pos++] = base | (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+
+        @Override long bytes() { return 24 + WORDS * 8L; }
+
+        // Fall back to the sparse form once the chunk no longer pays for a bitset
+        private static Container shrink(long[] words, int card) {
+            if (card > ARRAY_MAX) return new BitmapContainer(words, card);
+            char[] values = new char[Math.max(card, 1)];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, card);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Key -> rows lookup shared by the persisted index of one store directory
+ * (RowIndexFile) and the concatenation of several appended segments
+ * (SegmentedRowIndex). Rows are table row numbers in ascending order.
+ */
+public interface RowIndex {
+    boolean containsKey(long key);
+
+    // Number of rows for key, without decoding them
+    int count(long key);
+
+    int[] rows(long key);
+
+    // Distinct keys in ascending order
+    long[] getKeys();
+
+    default RowBitmap bitmap(long key) {
+        int[] rows = rows(key);
+        return RowBitmap.fromSorted(rows, rows.length);
+    }
+}
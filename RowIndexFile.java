@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * Persisted key -> rows index (town, year, month or the composite
+ * (yearMonth, town) key), stored as a ROW_INDEX ColumnFile and memory-mapped.
+ *
+ * Payload layout (little-endian), K = key count, N = table rows:
+ *   long keys[K]        ascending
+ *   int  offsets[K + 1] rows of keys[k] are rows[offsets[k] .. offsets[k + 1])
+ *   int  rows[N]        ascending within each key
+ *
+ * The header row count is the table's row count and the source checksum
+ * combines the checksums of the column files the index was built from, so
+ * an index left over from different data is detected without reading it.
+ * Opening reads only the header; each lookup decodes just that key's rows.
+ */
+public class RowIndexFile implements RowIndex {
+    private final ColumnFile file;
+    private final ByteBuffer payload;
+    private final int keyCount;
+    private final int offsetsStart;
+    private final int rowsStart;
+
+    private RowIndexFile(ColumnFile file) {
+        this.file = file;
+        this.payload = file.payload();
+        this.keyCount = file.getEntryCount();
+        this.offsetsStart = keyCount * 8;
+        this.rowsStart = offsetsStart + (keyCount + 1) * 4;
+    }
+
+    public static RowIndexFile open(String filePath) throws IOException {
+        ColumnFile file = ColumnFile.open(filePath);
+        if (file.getType() != ColumnFile.TYPE_ROW_INDEX) {
+            throw new IOException("Not a row index file: " + filePath);
+        }
+        return new RowIndexFile(file);
+    }
+
+    // Checksum to store for an index derived from the given column files
+    public static long sourceChecksum(ColumnFile... sources) {
+        long combined = 17;
+        for (ColumnFile source : sources) {
+            combined = combined * 31 + source.getChecksum();
+        }
+        return combined;
+    }
+
+    // True if this index was built from exactly these column files
+    public boolean matches(ColumnFile... sources) {
+        return file.getRowCount() == sources[0].getRowCount() && file.getSourceChecksum() == sourceChecksum(sources);
+    }
+
+    public int getRowCount() {
+        return file.getRowCount();
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public long getKey(int k) {
+        return payload.getLong(k * 8);
+    }
+
+    @Override
+    public long[] getKeys() {
+        long[] keys = new long[keyCount];
+        for (int k = 0; k < keyCount; k++) keys[k] = getKey(k);
+        return keys;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public int count(long key) {
+        int k = find(key);
+        return k < 0 ? 0 : offset(k + 1) - offset(k);
+    }
+
+    // Rows for key in ascending order, copied out of the mapping
+    @Override
+    public int[] rows(long key) {
+        return rows(key, 0);
+    }
+
+    // As above with rowOffset added to every row, for a segment that starts at table row rowOffset
+    public int[] rows(long key, int rowOffset) {
+        int k = find(key);
+        if (k < 0) return new int[0];
+        int from = offset(k);
+        int[] rows = new int[offset(k + 1) - from];
+        payload.slice(rowsStart + from * 4, rows.length * 4).order(payload.order()).asIntBuffer().get(rows);
+        if (rowOffset != 0) {
+            for (int i = 0; i < rows.length; i++) rows[i] += rowOffset;
+        }
+        return rows;
+    }
+
+    private int offset(int k) {
+        return payload.getInt(offsetsStart + k * 4);
+    }
+
+    // Binary search over the mapped keys
+    private int find(long key) {
+        int lo = 0, hi = keyCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKey = getKey(mid);
+            if (midKey < key) lo = mid + 1;
+            else if (midKey > key) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Write the index of rows 0..rows-1 grouped by keyOf(row). Rows are bucketed
+     * with a counting sort, so the cost is two passes plus sorting the distinct keys.
+     */
+    public static void write(String filePath, int rows, IntToLongFunction keyOf, long sourceChecksum) throws IOException {
+        long[] rowKeys = new long[rows];
+        for (int i = 0; i < rows; i++) rowKeys[i] = keyOf.applyAsLong(i);
+        long[] keys = distinct(rowKeys);
+
+        int[] offsets = new int[keys.length + 1];
+        int[] slot = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            slot[i] = Arrays.binarySearch(keys, rowKeys[i]);
+            offsets[slot[i] + 1]++;
+        }
+        for (int k = 0; k < keys.length; k++) offsets[k + 1] += offsets[k];
+        int[] next = Arrays.copyOf(offsets, keys.length);
+        int[] sorted = new int[rows];
+        for (int i = 0; i < rows; i++) sorted[next[slot[i]]++] = i;
+
+        try (ColumnFile.Writer writer = new ColumnFile.Writer(filePath, ColumnFile.TYPE_ROW_INDEX)) {
+            for (long key : keys) writer.putLong(key);
+            for (int offset : offsets) writer.putInt(offset);
+            for (int row : sorted) writer.putInt(row);
+            writer.finish(rows, keys.length, sourceChecksum);
+        }
+    }
+
+    /**
+     * Writes the same file as write() from keys handed over row by row, for
+     * tables that are not in memory. The caller makes two passes over its
+     * rows in the same order: count(key) for every row, then, after start(),
+     * add(key) for every row. Only one counter per distinct key is kept on
+     * the heap; the rows are placed straight into a writable mapping of the
+     * file.
+     */
+    static final class StreamWriter implements AutoCloseable {
+        private final String filePath;
+        private final Map<Long, int[]> cursors = new HashMap<>(); // Row count of each key, then its next slot
+        private int rows;
+        private int placed;
+        private long[] keys;
+        private FileChannel channel;
+        private MappedByteBuffer payload;
+        private int rowsStart;
+
+        StreamWriter(String filePath) {
+            this.filePath = filePath;
+        }
+
+        // First pass
+        void count(long key) {
+            if (channel != null) throw new IllegalStateException("Index rows are already being placed");
+            cursors.computeIfAbsent(key, k -> new int[1])[0]++;
+            rows++;
+        }
+
+        // Lay out keys and offsets; the rows follow through add()
+        void start() throws IOException {
+            keys = new long[cursors.size()];
+            int k = 0;
+            for (long key : cursors.keySet()) keys[k++] = key;
+            Arrays.sort(keys);
+            int offsetsStart = keys.length * 8;
+            rowsStart = offsetsStart + (keys.length + 1) * 4;
+            long payloadBytes = rowsStart + 4L * rows;
+            if (payloadBytes > Integer.MAX_VALUE) throw new IOException("Row index exceeds 2 GB: " + filePath);
+
+            channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            payload = channel.map(FileChannel.MapMode.READ_WRITE, ColumnFile.HEADER_BYTES, payloadBytes);
+            payload.order(ByteOrder.LITTLE_ENDIAN);
+            int offset = 0;
+            for (k = 0; k < keys.length; k++) {
+                int[] cursor = cursors.get(keys[k]);
+                payload.putLong(k * 8, keys[k]);
+                payload.putInt(offsetsStart + k * 4, offset);
+                int count = cursor[0];
+                cursor[0] = offset;
+                offset += count;
+            }
+            payload.putInt(offsetsStart + keys.length * 4, offset);
+        }
+
+        // Second pass, rows in the same order as count()
+        void add(long key) {
+            int[] cursor = cursors.get(key);
+            if (cursor == null || placed == rows) {
+                throw new IllegalStateException("Second pass does not match the counted keys at row " + placed);
+            }
+            payload.putInt(rowsStart + cursor[0]++ * 4, placed++);
+        }
+
+        void finish(long sourceChecksum) throws IOException {
+            if (placed != rows) throw new IllegalStateException("Placed " + placed + " of " + rows + " rows");
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate().clear());
+            payload.force();
+            ColumnFile.writeHeader(channel, ColumnFile.TYPE_ROW_INDEX, rows, payload.capacity(), crc.getValue(),
+                keys.length, sourceChecksum);
+        }
+
+        @Override
+        public void close() throws IOException {
+            payload = null;
+            if (channel != null) channel.close();
+        }
+    }
+
+    private static long[] distinct(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+}
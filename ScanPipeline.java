@@ -0,0 +1,692 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A ColumnPredicate compiled against one DataAnalyzer.
+ *
+ * The top-level AND terms become steps ordered by estimated selectivity
+ * and per-row cost (ascending cost / (1 - selectivity), which minimizes the
+ * expected work for independent predicates). Selectivities are exact where
+ * TableStatistics or an index knows them (town, month, floor area) and
+ * sampled from 1024 evenly spaced rows otherwise.
+ *
+ * Execution takes one of two routes:
+ *   index  terms answered by an already built index (town bitmaps, year and
+ *          month bitmaps, the floor-area index) are ANDed as bitmaps when
+ *          together they keep at most 1/8 of the rows; the other terms are
+ *          checked on the surviving rows only
+ *   scan   morsel by morsel, blocks whose zone maps rule out any term are
+ *          skipped, the first step fills a selection mask with a column
+ *          kernel and every later step only reads its column for the rows
+ *          that are still selected
+ * Prices and areas are read for the final rows only (late materialization).
+ * On a lazily opened store, compiling reads the columns the predicate names
+ * and aggregating reads price and area; no other column is loaded.
+ */
+public class ScanPipeline {
+    private static final int SAMPLE_ROWS = 1024;
+    // Bitmap AND plus random access beats a sequential scan below this selectivity
+    private static final double INDEX_MAX_SELECTIVITY = 1.0 / 8;
+    private static final double INDEX_MAX_TERM_SELECTIVITY = 0.5;
+
+    private final DataAnalyzer analyzer;
+    private final ColumnPredicate predicate;
+    private final List<Step> steps; // Evaluation order
+    private final List<Step> indexed; // Steps answered by bitmaps on the index route, empty on the scan route
+
+    private ScanPipeline(DataAnalyzer analyzer, ColumnPredicate predicate, List<Step> steps, List<Step> indexed) {
+        this.analyzer = analyzer;
+        this.predicate = predicate;
+        this.steps = steps;
+        this.indexed = indexed;
+    }
+
+    public static ScanPipeline compile(DataAnalyzer analyzer, ColumnPredicate predicate) {
+        analyzer.loadColumns(predicate.columns());
+        List<Step> steps = new ArrayList<>();
+        for (ColumnPredicate term : predicate.conjuncts()) {
+            Step step = term.bind(analyzer);
+            step.estimate(analyzer);
+            steps.add(step);
+        }
+        steps.sort(Comparator.comparingDouble(Step::rank));
+
+        List<Step> indexed = new ArrayList<>();
+        double indexedSelectivity = 1;
+        for (Step step : steps) {
+            // A weak term is cheaper to check on the few rows the earlier bitmaps leave than to AND in
+            if (step.hasIndex() && (indexed.isEmpty() || step.selectivity <= INDEX_MAX_TERM_SELECTIVITY)) {
+                indexed.add(step);
+                indexedSelectivity *= step.selectivity;
+            }
+        }
+        if (indexedSelectivity > INDEX_MAX_SELECTIVITY) indexed.clear();
+        return new ScanPipeline(analyzer, predicate, steps, indexed);
+    }
+
+    public boolean usesIndex() {
+        return !indexed.isEmpty();
+    }
+
+    // Estimated number of qualifying rows, assuming the terms are independent
+    public long estimatedRows() {
+        double selectivity = 1;
+        for (Step step : steps) selectivity *= step.selectivity;
+        return Math.round(selectivity * analyzer.size());
+    }
+
+    // Qualifying rows in ascending order
+    public SelectionVector select() {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.FILTER, predicate)) {
+            if (op == null) return SelectionVector.wrap(usesIndex() ? selectIndexed() : selectScan());
+            if (usesIndex()) {
+                StringBuilder bitmaps = new StringBuilder("bitmaps:");
+                for (Step step : indexed) bitmaps.append(' ').append(step.label).append(';');
+                op.index(bitmaps.substring(0, bitmaps.length() - 1)).bytesPerRow(4);
+            } else {
+                op.index("zone maps").bytesPerRow(8); // The first step reads its column for every row
+            }
+            SelectionVector rows = SelectionVector.wrap(usesIndex() ? selectIndexed() : selectScan());
+            op.qualified(rows.size());
+            return rows;
+        }
+    }
+
+    // Min, mean, stddev and min price per sqm of the qualifying rows; reads price and area of those rows only
+    public PriceAggregate aggregate() {
+        analyzer.loadColumns(List.of(ColumnPredicate.RESALE_PRICE, ColumnPredicate.FLOOR_AREA));
+        return analyzer.aggregate(select());
+    }
+
+    // Price percentiles of the qualifying rows; reads the price of those rows only
+    public QuantileSketch quantiles() {
+        try (QueryMetrics.Operation op = QueryMetrics.begin(QueryMetrics.AGGREGATE, "quantiles")) {
+            double[] prices = analyzer.getResalePrices();
+            QuantileSketch sketch = new QuantileSketch();
+            SelectionVector rows = select();
+            rows.forEach(row -> sketch.add(prices[row]));
+            if (op != null) op.read(8L * rows.size()).qualified(sketch.getCount());
+            return sketch.freeze();
+        }
+    }
+
+    public int count() {
+        if (usesIndex() && indexed.size() == steps.size()) return indexBitmap().cardinality();
+        return select().size();
+    }
+
+    private RowBitmap indexBitmap() {
+        RowBitmap rows = null;
+        for (Step step : indexed) {
+            RowBitmap bitmap = step.index();
+            rows = rows == null ? bitmap : rows.and(bitmap);
+        }
+        return rows;
+    }
+
+    private int[] selectIndexed() {
+        int[] rows = indexBitmap().toArray();
+        QueryMetrics.Operation op = QueryMetrics.current();
+        if (op != null) op.scanned(rows.length, 0, 0); // Rows the other steps check
+        int count = rows.length;
+        for (Step step : steps) {
+            if (!indexed.contains(step)) count = step.refine(rows, count);
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    private int[] selectScan() {
+        BlockStatistics stats = analyzer.getBlockStatistics();
+        Step first = steps.get(0);
+        List<int[]> parts = analyzer.mapMorsels(0, analyzer.size(), (b, from, to, mask, scratch) -> {
+            for (Step step : steps) {
+                if (!step.mayMatch(stats, b)) return null;
+            }
+            first.mask(from, to, mask, scratch);
+            int[] rows = new int[FilterKernels.count(mask, FilterKernels.words(from, to))];
+            int count = 0;
+            for (int w = 0; w < FilterKernels.words(from, to); w++) {
+                for (long bits = mask[w]; bits != 0; bits &= bits - 1) {
+                    rows[count++] = from + (w << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            for (int s = 1; s < steps.size() && count > 0; s++) count = steps.get(s).refine(rows, count);
+            return Arrays.copyOf(rows, count);
+        });
+        int total = 0;
+        for (int[] part : parts) if (part != null) total += part.length;
+        int[] rows = new int[total];
+        int pos = 0;
+        for (int[] part : parts) {
+            if (part == null) continue;
+            System.arraycopy(part, 0, rows, pos, part.length);
+            pos += part.length;
+        }
+        return rows;
+    }
+
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("EXPLAIN %s estimatedRows=%d%n", predicate, estimatedRows()));
+        sb.append("  columns: ").append(String.join(", ", predicate.columns())).append('\n');
+        if (usesIndex()) {
+            sb.append("  route: index, AND of ").append(indexed.size()).append(" bitmap(s), then check the rest per row\n");
+        } else {
+            sb.append("  route: scan ").append(analyzer.getBlockStatistics().getBlockCount())
+              .append(" blocks, skipping those the zone maps rule out\n");
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            String how = indexed.contains(step) ? "bitmap" : i == 0 && !usesIndex() ? "column kernel" : "selected rows";
+            sb.append(String.format("  %d. %-50s selectivity %.4f%s  (%s)%n", i + 1, step.label, step.selectivity,
+                step.exact ? "" : "~", how));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    /**
+     * One bound predicate. The base class evaluates it row by row through
+     * test(); subclasses override mask() with a column kernel, mayMatch()
+     * with a zone map check and index() when an index can answer them.
+     */
+    abstract static class Step {
+        final String label;
+        double selectivity = 1;
+        boolean exact; // selectivity known exactly rather than sampled
+        private int size;
+
+        Step(String label) {
+            this.label = label;
+        }
+
+        abstract boolean test(int row);
+
+        // Relative cost of testing one row
+        double cost() {
+            return 1;
+        }
+
+        // Exact selectivity when statistics or an index know it, NaN to sample instead
+        double knownSelectivity(DataAnalyzer analyzer) {
+            return Double.NaN;
+        }
+
+        void estimate(DataAnalyzer analyzer) {
+            size = analyzer.size();
+            double known = knownSelectivity(analyzer);
+            if (!Double.isNaN(known)) {
+                selectivity = known;
+                exact = true;
+                return;
+            }
+            selectivity = sample(size);
+        }
+
+        double sample(int rows) {
+            if (rows == 0) return 0;
+            int samples = Math.min(rows, SAMPLE_ROWS);
+            double stride = (double) rows / samples;
+            int matched = 0;
+            for (int s = 0; s < samples; s++) {
+                if (test((int) (s * stride + stride / 2))) matched++;
+            }
+            // Half a match when none are seen, so rare values still rank as very selective rather than free
+            return Math.max(matched, 0.5) / samples;
+        }
+
+        double rank() {
+            return selectivity >= 1 ? Double.MAX_VALUE : cost() / (1 - selectivity);
+        }
+
+        // mask = rows of [from, to) that satisfy this step; scratch is free for intermediate masks
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            FilterKernels.clear(mask, from, to);
+            for (int i = from; i < to; i++) {
+                if (test(i)) mask[(i - from) >>> 6] |= 1L << (i - from);
+            }
+        }
+
+        // Keep the rows among rows[0..count) that satisfy this step, in order; returns the new count
+        int refine(int[] rows, int count) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (test(rows[i])) rows[kept++] = rows[i];
+            }
+            return kept;
+        }
+
+        boolean mayMatch(BlockStatistics stats, int block) {
+            return true;
+        }
+
+        // True if index() can answer this step from an index that is already built
+        boolean hasIndex() {
+            return false;
+        }
+
+        // Only called when hasIndex() is true
+        RowBitmap index() {
+            throw new IllegalStateException(label + " has no index");
+        }
+    }
+
+    // Dictionary column IN-list, resolved to a set of codes once
+    private static final class StringInStep extends Step {
+        private final int[] codes;
+        private final boolean[] accepted;
+        private final int[] acceptedCodes;
+        private final boolean town;
+        private final DataAnalyzer analyzer;
+        private final String[] values;
+
+        StringInStep(String label, DataAnalyzer analyzer, DictionaryColumn column, String[] values, boolean town) {
+            super(label);
+            this.analyzer = analyzer;
+            this.codes = column.codes();
+            this.accepted = new boolean[column.cardinality()];
+            this.town = town;
+            this.values = values;
+            int[] found = new int[values.length];
+            int n = 0;
+            for (String value : values) {
+                int code = column.lookup(value);
+                if (code >= 0 && !accepted[code]) {
+                    accepted[code] = true;
+                    found[n++] = code;
+                }
+            }
+            this.acceptedCodes = Arrays.copyOf(found, n);
+        }
+
+        @Override
+        boolean test(int row) {
+            return accepted[codes[row]];
+        }
+
+        @Override
+        double knownSelectivity(DataAnalyzer analyzer) {
+            if (acceptedCodes.length == 0) return 0;
+            if (!town || analyzer.size() == 0) return Double.NaN;
+            TableStatistics stats = analyzer.getTableStatistics();
+            long rows = 0;
+            for (int code : acceptedCodes) rows += stats.rowsInTown(code);
+            return (double) rows / analyzer.size();
+        }
+
+        @Override
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            if (acceptedCodes.length == 1) {
+                FilterKernels.equalsMask(codes, from, to, acceptedCodes[0], mask);
+            } else {
+                super.mask(from, to, mask, scratch);
+            }
+        }
+
+        @Override
+        boolean mayMatch(BlockStatistics stats, int block) {
+            if (!town) return acceptedCodes.length > 0;
+            for (int code : acceptedCodes) {
+                if (stats.containsTown(block, code)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasIndex() {
+            return town;
+        }
+
+        @Override
+        RowBitmap index() {
+            RowBitmap rows = new RowBitmap();
+            for (String value : values) rows = rows.or(analyzer.getTownBitmap(value));
+            return rows;
+        }
+    }
+
+    private static final class MonthRangeStep extends Step {
+        private final DataAnalyzer analyzer;
+        private final int[] yearMonths;
+        private final int lo, hi;
+
+        MonthRangeStep(String label, DataAnalyzer analyzer, int lo, int hi) {
+            super(label);
+            this.analyzer = analyzer;
+            this.yearMonths = analyzer.getYearMonths();
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        boolean test(int row) {
+            int ym = yearMonths[row];
+            return ym >= lo && ym <= hi;
+        }
+
+        @Override
+        double knownSelectivity(DataAnalyzer analyzer) {
+            if (analyzer.size() == 0) return 0;
+            TableStatistics stats = analyzer.getTableStatistics();
+            long rows = 0;
+            for (int ym = lo; ym <= hi; ym++) rows += stats.rowsInYearMonth(ym);
+            return (double) rows / analyzer.size();
+        }
+
+        @Override
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            analyzer.yearMonthMask(from, to, lo, hi, mask); // Run-level on compressed months
+        }
+
+        @Override
+        boolean mayMatch(BlockStatistics stats, int block) {
+            return stats.getMaxYearMonth(block) >= lo && stats.getMinYearMonth(block) <= hi;
+        }
+
+        @Override
+        boolean hasIndex() {
+            return analyzer.hasTownZoneMapper();
+        }
+
+        // Whole years from the year bitmaps, partial years as year AND months
+        @Override
+        RowBitmap index() {
+            TownZoneMapper dates = analyzer.getTownZoneMapper();
+            RowBitmap rows = new RowBitmap();
+            for (int year = YearMonths.year(lo); year <= YearMonths.year(hi); year++) {
+                int first = Math.max(lo, YearMonths.pack(year, 1));
+                int last = Math.min(hi, YearMonths.pack(year, 12));
+                RowBitmap yearRows = dates.getYearBitmap(year);
+                if (last - first == 11) {
+                    rows = rows.or(yearRows);
+                    continue;
+                }
+                RowBitmap months = new RowBitmap();
+                for (int ym = first; ym <= last; ym++) months = months.or(dates.getMonthBitmap(YearMonths.month(ym)));
+                rows = rows.or(yearRows.and(months));
+            }
+            return rows;
+        }
+    }
+
+    // lo <= value <= hi on a double column; floor area and price have zone maps, floor area an index
+    private static final class RangeStep extends Step {
+        private final DataAnalyzer analyzer;
+        private final String column;
+        private final double[] values;
+        private final double lo, hi;
+
+        RangeStep(String label, DataAnalyzer analyzer, String column, double[] values, double lo, double hi) {
+            super(label);
+            this.analyzer = analyzer;
+            this.column = column;
+            this.values = values;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        boolean test(int row) {
+            double v = values[row];
+            return v >= lo && v <= hi;
+        }
+
+        @Override
+        double knownSelectivity(DataAnalyzer analyzer) {
+            if (!column.equals(ColumnPredicate.FLOOR_AREA) || hi != Double.POSITIVE_INFINITY) return Double.NaN;
+            return analyzer.getTableStatistics().areaAtLeastFraction(lo);
+        }
+
+        @Override
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            FilterKernels.rangeMask(values, from, to, lo, hi, mask);
+        }
+
+        @Override
+        boolean mayMatch(BlockStatistics stats, int block) {
+            if (column.equals(ColumnPredicate.FLOOR_AREA)) {
+                return stats.getMaxArea(block) >= lo && stats.getMinArea(block) <= hi;
+            }
+            if (column.equals(ColumnPredicate.RESALE_PRICE)) {
+                return stats.getMaxPrice(block) >= lo && stats.getMinPrice(block) <= hi;
+            }
+            return true;
+        }
+
+        @Override
+        boolean hasIndex() {
+            return column.equals(ColumnPredicate.FLOOR_AREA) && hi == Double.POSITIVE_INFINITY && analyzer.hasAreaIndex();
+        }
+
+        @Override
+        RowBitmap index() {
+            return analyzer.getAreaAtLeastBitmap(lo);
+        }
+    }
+
+    private static final class NumberInStep extends Step {
+        private final double[] values;
+        private final double[] accepted; // Sorted
+
+        NumberInStep(String label, double[] values, double[] accepted) {
+            super(label);
+            this.values = values;
+            this.accepted = accepted;
+        }
+
+        @Override
+        boolean test(int row) {
+            return Arrays.binarySearch(accepted, values[row]) >= 0;
+        }
+
+        @Override
+        double cost() {
+            return 1 + Math.log(accepted.length + 1) / Math.log(2);
+        }
+    }
+
+    private static final class AndStep extends Step {
+        private final List<Step> terms;
+
+        AndStep(String label, List<Step> terms) {
+            super(label);
+            this.terms = terms;
+        }
+
+        @Override
+        void estimate(DataAnalyzer analyzer) {
+            selectivity = 1;
+            exact = false;
+            for (Step term : terms) {
+                term.estimate(analyzer);
+                selectivity *= term.selectivity;
+            }
+            terms.sort(Comparator.comparingDouble(Step::rank));
+        }
+
+        @Override
+        boolean test(int row) {
+            for (Step term : terms) {
+                if (!term.test(row)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        double cost() {
+            double cost = 0, reach = 1;
+            for (Step term : terms) {
+                cost += reach * term.cost();
+                reach *= term.selectivity;
+            }
+            return cost;
+        }
+
+        @Override
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            long[] term = new long[mask.length];
+            terms.get(0).mask(from, to, mask, scratch);
+            for (int t = 1; t < terms.size(); t++) {
+                terms.get(t).mask(from, to, term, scratch);
+                FilterKernels.and(mask, term, FilterKernels.words(from, to));
+            }
+        }
+
+        @Override
+        int refine(int[] rows, int count) {
+            for (Step term : terms) count = term.refine(rows, count);
+            return count;
+        }
+
+        @Override
+        boolean mayMatch(BlockStatistics stats, int block) {
+            for (Step term : terms) {
+                if (!term.mayMatch(stats, block)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        boolean hasIndex() {
+            for (Step term : terms) {
+                if (!term.hasIndex()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        RowBitmap index() {
+            RowBitmap rows = terms.get(0).index();
+            for (int t = 1; t < terms.size(); t++) rows = rows.and(terms.get(t).index());
+            return rows;
+        }
+    }
+
+    private static final class OrStep extends Step {
+        private final List<Step> terms;
+
+        OrStep(String label, List<Step> terms) {
+            super(label);
+            this.terms = terms;
+        }
+
+        @Override
+        void estimate(DataAnalyzer analyzer) {
+            double none = 1;
+            exact = true;
+            for (Step term : terms) {
+                term.estimate(analyzer);
+                none *= 1 - term.selectivity;
+                exact &= term.exact;
+            }
+            exact &= terms.size() == 1;
+            selectivity = 1 - none;
+            // Most likely terms first, so test() stops early
+            terms.sort(Comparator.comparingDouble(term -> -term.selectivity));
+        }
+
+        @Override
+        boolean test(int row) {
+            for (Step term : terms) {
+                if (term.test(row)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        double cost() {
+            double cost = 0;
+            for (Step term : terms) cost += term.cost();
+            return cost;
+        }
+
+        @Override
+        void mask(int from, int to, long[] mask, long[] scratch) {
+            long[] term = new long[mask.length];
+            int words = FilterKernels.words(from, to);
+            terms.get(0).mask(from, to, mask, scratch);
+            for (int t = 1; t < terms.size(); t++) {
+                terms.get(t).mask(from, to, term, scratch);
+                for (int w = 0; w < words; w++) mask[w] |= term[w];
+            }
+        }
+
+        @Override
+        boolean mayMatch(BlockStatistics stats, int block) {
+            for (Step term : terms) {
+                if (term.mayMatch(stats, block)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean hasIndex() {
+            for (Step term : terms) {
+                if (!term.hasIndex()) return false;
+            }
+            return true;
+        }
+
+        @Override
+        RowBitmap index() {
+            RowBitmap rows = terms.get(0).index();
+            for (int t = 1; t < terms.size(); t++) rows = rows.or(terms.get(t).index());
+            return rows;
+        }
+    }
+
+    // Binding of ColumnPredicate leaves to the analyzer's columns
+
+    static Step stringIn(DataAnalyzer analyzer, String column, String[] values, String label) {
+        DictionaryColumn dictionary;
+        switch (column) {
+            case ColumnPredicate.TOWN: dictionary = analyzer.getTowns(); break;
+            case ColumnPredicate.FLAT_TYPE: dictionary = analyzer.getFlatTypes(); break;
+            case ColumnPredicate.BLOCK: dictionary = analyzer.getBlocks(); break;
+            case ColumnPredicate.STREET_NAME: dictionary = analyzer.getStreetNames(); break;
+            case ColumnPredicate.STOREY_RANGE: dictionary = analyzer.getStoreyRanges(); break;
+            case ColumnPredicate.FLAT_MODEL: dictionary = analyzer.getFlatModels(); break;
+            default: throw new IllegalArgumentException("Not a string column: " + column);
+        }
+        if (dictionary.size() != analyzer.size()) throw new IllegalArgumentException("Column not loaded: " + column);
+        return new StringInStep(label, analyzer, dictionary, values, column.equals(ColumnPredicate.TOWN));
+    }
+
+    static Step numberIn(DataAnalyzer analyzer, String column, double[] values, String label) {
+        return new NumberInStep(label, numberColumn(analyzer, column), values);
+    }
+
+    static Step range(DataAnalyzer analyzer, String column, double lo, double hi, String label) {
+        return new RangeStep(label, analyzer, column, numberColumn(analyzer, column), lo, hi);
+    }
+
+    static Step monthRange(DataAnalyzer analyzer, int lo, int hi, String label) {
+        return new MonthRangeStep(label, analyzer, lo, hi);
+    }
+
+    static Step and(List<Step> terms, String label) {
+        return terms.size() == 1 ? terms.get(0) : new AndStep(label, terms);
+    }
+
+    static Step or(List<Step> terms, String label) {
+        return terms.size() == 1 ? terms.get(0) : new OrStep(label, terms);
+    }
+
+    private static double[] numberColumn(DataAnalyzer analyzer, String column) {
+        double[] values;
+        switch (column) {
+            case ColumnPredicate.FLOOR_AREA: values = analyzer.getFloorAreas(); break;
+            case ColumnPredicate.RESALE_PRICE: values = analyzer.getResalePrices(); break;
+            case ColumnPredicate.LEASE_COMMENCE_DATE: values = analyzer.getLeaseCommenceDates(); break;
+            default: throw new IllegalArgumentException("Not a numeric column: " + column);
+        }
+        if (values.length < analyzer.size()) throw new IllegalArgumentException("Column not loaded: " + column);
+        return values;
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One logical index over a column store made of a base directory plus
+ * appended segments. Each segment keeps its own RowIndexFile with rows
+ * numbered from 0; lookups concatenate the per-segment rows shifted by the
+ * segment's first table row, so appending a segment never rewrites the
+ * indexes of the rows before it.
+ */
+public class SegmentedRowIndex implements RowIndex {
+    private final List<RowIndexFile> segments = new ArrayList<>();
+    private final List<Integer> rowOffsets = new ArrayList<>();
+    private int rowCount;
+
+    // Add the index of the next segment, whose rows follow all rows added so far
+    public void addSegment(RowIndexFile index) {
+        segments.add(index);
+        rowOffsets.add(rowCount);
+        rowCount += index.getRowCount();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        for (RowIndexFile segment : segments) {
+            if (segment.containsKey(key)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int count(long key) {
+        int count = 0;
+        for (RowIndexFile segment : segments) count += segment.count(key);
+        return count;
+    }
+
+    // Segments are in row order, so concatenating keeps the rows ascending
+    @Override
+    public int[] rows(long key) {
+        if (segments.size() == 1) return segments.get(0).rows(key);
+        int[] rows = new int[count(key)];
+        int pos = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            int[] part = segments.get(s).rows(key, rowOffsets.get(s));
+            System.arraycopy(part, 0, rows, pos, part.length);
+            pos += part.length;
+        }
+        return rows;
+    }
+
+    @Override
+    public long[] getKeys() {
+        if (segments.size() == 1) return segments.get(0).getKeys();
+        long[] all = new long[0];
+        for (RowIndexFile segment : segments) {
+            long[] keys = segment.getKeys();
+            int n = all.length;
+            all = Arrays.copyOf(all, n + keys.length);
+            System.arraycopy(keys, 0, all, n, keys.length);
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) all[distinct++] = all[i];
+        }
+        return Arrays.copyOf(all, distinct);
+    }
+}
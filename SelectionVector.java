@@ -0,0 +1,48 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Read-only list of qualifying row indexes, as returned by the cached query
+ * paths of DataAnalyzer. The same instance may be handed to many callers,
+ * so the rows can only be read, never changed in place.
+ */
+public final class SelectionVector {
+    private static final SelectionVector EMPTY = new SelectionVector(new int[0]);
+
+    private final int[] rows;
+
+    private SelectionVector(int[] rows) {
+        this.rows = rows;
+    }
+
+    // Takes ownership of rows; the caller must not modify the array afterwards
+    public static SelectionVector wrap(int[] rows) {
+        return rows.length == 0 ? EMPTY : new SelectionVector(rows);
+    }
+
+    public int size() {
+        return rows.length;
+    }
+
+    public boolean isEmpty() {
+        return rows.length == 0;
+    }
+
+    public int get(int index) {
+        return rows[index];
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int row : rows) action.accept(row);
+    }
+
+    // Fresh copy the caller may modify
+    public int[] toArray() {
+        return Arrays.copyOf(rows, rows.length);
+    }
+
+    // Heap footprint: object header, array header and the rows
+    public long estimatedBytes() {
+        return 16 + 16 + 4L * rows.length;
+    }
+}
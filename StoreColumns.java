@@ -0,0 +1,114 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handle on column files that have not been read yet: for each column, the
+ * files of the base and of every segment that together hold its rows, in
+ * row order. Opening a file maps it and checks its header only, so a handle
+ * costs the same for 1K or 10M rows; DataAnalyzer reads a column through it
+ * the first time a query asks for the column.
+ *
+ * Columns are named as in the CSV header (see ColumnPredicate). A handle is
+ * immutable; concat() lays two of them end to end and keeps only the columns
+ * both have, just like DataAnalyzer.append keeps descriptive columns.
+ */
+public final class StoreColumns {
+    private final int rows;
+    private final Map<String, List<ColumnFile>> files;
+
+    private StoreColumns(int rows, Map<String, List<ColumnFile>> files) {
+        this.rows = rows;
+        this.files = files;
+    }
+
+    /**
+     * Handle on the given columns of one store directory, mapping column name
+     * to file name. Missing files are left out; a file with another row count
+     * or the wrong kind of values is reported and left out too.
+     */
+    public static StoreColumns open(String dir, int rows, Map<String, String> fileNames) throws IOException {
+        Map<String, List<ColumnFile>> files = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : fileNames.entrySet()) {
+            File file = new File(dir, entry.getValue());
+            if (!file.exists()) continue;
+            ColumnFile column = ColumnFile.open(file.getPath());
+            boolean kind = isNumeric(entry.getKey()) ? column.isDoubleColumn() : column.isDictionaryColumn();
+            if (column.getRowCount() != rows || !kind) {
+                System.err.println("Ignoring mismatched column file: " + file);
+                continue;
+            }
+            files.put(entry.getKey(), Collections.singletonList(column));
+        }
+        return new StoreColumns(rows, files);
+    }
+
+    private static boolean isNumeric(String column) {
+        return column.equals(ColumnPredicate.FLOOR_AREA) || column.equals(ColumnPredicate.RESALE_PRICE)
+            || column.equals(ColumnPredicate.LEASE_COMMENCE_DATE);
+    }
+
+    // This handle's rows followed by other's; columns only one of them has are dropped
+    public StoreColumns concat(StoreColumns other) {
+        Map<String, List<ColumnFile>> joined = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ColumnFile>> entry : files.entrySet()) {
+            List<ColumnFile> tail = other.files.get(entry.getKey());
+            if (tail == null) continue;
+            List<ColumnFile> parts = new ArrayList<>(entry.getValue());
+            parts.addAll(tail);
+            joined.put(entry.getKey(), Collections.unmodifiableList(parts));
+        }
+        return new StoreColumns(rows + other.rows, joined);
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public boolean contains(String column) {
+        return files.containsKey(column);
+    }
+
+    public List<String> columns() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    // Read a numeric column, decoding compressed blocks
+    public double[] readDoubles(String column) {
+        List<ColumnFile> parts = parts(column);
+        if (parts.size() == 1) return parts.get(0).readDoubles();
+        double[] values = new double[rows];
+        int offset = 0;
+        for (ColumnFile file : parts) {
+            double[] part = file.readDoubles();
+            System.arraycopy(part, 0, values, offset, part.length);
+            offset += part.length;
+        }
+        return values;
+    }
+
+    // Read a string column; later parts are re-encoded into the first one's dictionary
+    public DictionaryColumn readDictionary(String column) {
+        List<ColumnFile> parts = parts(column);
+        DictionaryColumn values = parts.get(0).readDictionaryColumn();
+        for (int p = 1; p < parts.size(); p++) {
+            values.appendAll(parts.get(p).readDictionaryColumn());
+        }
+        return values;
+    }
+
+    private List<ColumnFile> parts(String column) {
+        List<ColumnFile> parts = files.get(column);
+        if (parts == null) throw new IllegalArgumentException("Column not in store: " + column);
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows, unread columns " + files.keySet();
+    }
+}
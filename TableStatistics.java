@@ -0,0 +1,128 @@
+/**
+ * Cardinality statistics for the query planner, gathered in one pass over
+ * the loaded columns: rows per year, per month of the year, per town, per
+ * (year, month, town) key and a floor-area histogram.
+ *
+ * Keys are dense: yearMonths between the minimum and maximum in the data
+ * times the town dictionary, which is a few thousand counters for the HDB
+ * data. The area histogram is gathered on its first use, so estimating
+ * town and month predicates does not read the floor-area column.
+ */
+public class TableStatistics {
+    // Width of the floor-area histogram buckets, in square meters
+    public static final int AREA_BUCKET_SQM = 10;
+
+    private final int rows;
+    private final int minYearMonth;
+    private final int yearMonthCount;
+    private final int townCount;
+    private final int[] rowsPerYearMonth;
+    private final int[] rowsPerMonth = new int[13]; // Index 1..12
+    private final int[] rowsPerTown;
+    private final int[] rowsPerKey; // [(yearMonth - minYearMonth) * townCount + townCode]
+    private final DataAnalyzer analyzer; // Source of the floor areas for the histogram
+    private volatile int[] areaHistogram; // areaHistogram[k] = rows with k*bucket <= area < (k+1)*bucket
+
+    private TableStatistics(DataAnalyzer analyzer, int rows, int minYearMonth, int yearMonthCount, int townCount) {
+        this.analyzer = analyzer;
+        this.rows = rows;
+        this.minYearMonth = minYearMonth;
+        this.yearMonthCount = yearMonthCount;
+        this.townCount = townCount;
+        rowsPerYearMonth = new int[yearMonthCount];
+        rowsPerTown = new int[townCount];
+        rowsPerKey = new int[yearMonthCount * townCount];
+    }
+
+    public static TableStatistics build(DataAnalyzer analyzer) {
+        int rows = analyzer.size();
+        int[] yearMonths = analyzer.getYearMonths();
+        int[] townCodes = analyzer.getTowns().codes();
+        int minYm = Integer.MAX_VALUE, maxYm = Integer.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            minYm = Math.min(minYm, yearMonths[i]);
+            maxYm = Math.max(maxYm, yearMonths[i]);
+        }
+        if (rows == 0) {
+            minYm = 0;
+            maxYm = -1;
+        }
+        TableStatistics stats = new TableStatistics(analyzer, rows, minYm, maxYm - minYm + 1,
+            analyzer.getTowns().cardinality());
+        for (int i = 0; i < rows; i++) {
+            int ym = yearMonths[i] - minYm;
+            int town = townCodes[i];
+            stats.rowsPerYearMonth[ym]++;
+            stats.rowsPerMonth[YearMonths.month(yearMonths[i])]++;
+            stats.rowsPerTown[town]++;
+            stats.rowsPerKey[ym * stats.townCount + town]++;
+        }
+        return stats;
+    }
+
+    private int[] areaHistogram() {
+        int[] histogram = areaHistogram;
+        if (histogram != null) return histogram;
+        double[] floorAreas = analyzer.getFloorAreas();
+        double maxArea = 0;
+        for (int i = 0; i < rows; i++) {
+            if (floorAreas[i] > maxArea) maxArea = floorAreas[i]; // NaN areas never qualify and are not counted
+        }
+        histogram = new int[bucketOf(maxArea) + 1];
+        for (int i = 0; i < rows; i++) {
+            if (!Double.isNaN(floorAreas[i])) histogram[bucketOf(floorAreas[i])]++;
+        }
+        areaHistogram = histogram; // Racing threads compute the same counts
+        return histogram;
+    }
+
+    private static int bucketOf(double area) {
+        return area > 0 ? (int) (area / AREA_BUCKET_SQM) : 0;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public int rowsInYearMonth(int yearMonth) {
+        int ym = yearMonth - minYearMonth;
+        return ym < 0 || ym >= yearMonthCount ? 0 : rowsPerYearMonth[ym];
+    }
+
+    public int rowsInYear(int year) {
+        int total = 0;
+        for (int month = 1; month <= 12; month++) {
+            total += rowsInYearMonth(YearMonths.pack(year, month));
+        }
+        return total;
+    }
+
+    public int rowsInMonth(int month) {
+        return month < 1 || month > 12 ? 0 : rowsPerMonth[month];
+    }
+
+    public int rowsInTown(int townCode) {
+        return townCode < 0 || townCode >= townCount ? 0 : rowsPerTown[townCode];
+    }
+
+    // Exact count for a (year, month, town) key
+    public int rowsInKey(int yearMonth, int townCode) {
+        int ym = yearMonth - minYearMonth;
+        if (ym < 0 || ym >= yearMonthCount || townCode < 0 || townCode >= townCount) return 0;
+        return rowsPerKey[ym * townCount + townCode];
+    }
+
+    // Fraction of rows with floor area >= minArea; the bucket containing minArea is interpolated
+    public double areaAtLeastFraction(double minArea) {
+        if (rows == 0) return 0;
+        int[] areaHistogram = areaHistogram();
+        int bucket = bucketOf(minArea);
+        long above = 0;
+        for (int k = bucket + 1; k < areaHistogram.length; k++) above += areaHistogram[k];
+        if (bucket < areaHistogram.length) {
+            double within = (bucket + 1) * AREA_BUCKET_SQM - minArea;
+            above += Math.round(areaHistogram[bucket] * within / AREA_BUCKET_SQM);
+        }
+        return Math.min(1.0, (double) above / rows);
+    }
+}
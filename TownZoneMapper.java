@@ -1,66 +1,217 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Year and month-of-year bitmap indexes of one loaded table, owned by the
+ * DataAnalyzer that holds its rows.
+ *
+ * An instance is either built from the packed months column (build) or
+ * backed by the persisted year and month indexes (load), and never changes
+ * afterwards: appends create a new instance (appended) that shares every
+ * bitmap the new rows do not touch. File-backed bitmaps are decoded on first
+ * use and memoized with a compare-and-set, so concurrent queries read
+ * without locking and at worst decode the same bitmap twice. Every stored
+ * bitmap is frozen (RowBitmap.freeze), as mappers and snapshots share them.
+ */
+public final class TownZoneMapper {
+    // One bitmap container per build morsel, so the partials join without merging
+    private static final int BUILD_MORSEL_ROWS = 1 << 16;
 
-public class TownZoneMapper {
-    // Stores only the start and end index for each year
-    private static final Map<Integer, List<Integer>> yearIndexMap = new HashMap<>();
-    // Stores list of row indices for each month-of-year (1-12)
-    private static final Map<Integer, List<Integer>> monthIndexMap = new HashMap<>();
+    private final int rowCount;
+    private final int firstYear;
+    private final AtomicReferenceArray<RowBitmap> years; // years[y - firstYear], null until decoded
+    private final AtomicReferenceArray<RowBitmap> months; // months[m] for m = 1..12
+    private final RowIndex yearIndexFile; // Persisted indexes to decode from, null when built in memory
+    private final RowIndex monthIndexFile;
+
+    private TownZoneMapper(int rowCount, int firstYear, int yearSlots, RowIndex yearIndexFile, RowIndex monthIndexFile) {
+        this.rowCount = rowCount;
+        this.firstYear = firstYear;
+        this.years = new AtomicReferenceArray<>(yearSlots);
+        this.months = new AtomicReferenceArray<>(13);
+        this.yearIndexFile = yearIndexFile;
+        this.monthIndexFile = monthIndexFile;
+    }
 
     /**
-     * Initialize the year index bounds (start and end index for each year)
-     * @param months Array of month strings in the format "YYYY-MM"
+     * Build the year and month bitmaps of rows 0..rows-1 of the packed
+     * year-month column (see YearMonths) in one pass.
      */
-    public static void initialize(String[] months) {
-        if (months == null) return;
-        yearIndexMap.clear();
-        monthIndexMap.clear();
-        for (int i = 0; i < months.length; i++) {
-            String m = months[i];
-            if (!m.contains("-")) continue;
-            String[] parts = m.split("-");
-            try {
-                int year = Integer.parseInt(parts[0]);
-                int monthVal = Integer.parseInt(parts[1]);
-                yearIndexMap.computeIfAbsent(year, k -> new ArrayList<>()).add(i);
-                monthIndexMap.computeIfAbsent(monthVal, k -> new ArrayList<>()).add(i);
-            } catch (NumberFormatException e) {
-                System.err.println("Invalid date format in: " + m);
+    public static TownZoneMapper build(int[] yearMonths, int rows) {
+        return build(yearMonths, rows, null);
+    }
+
+    // As above, with 64K-row morsels spread over executor's workers; serial when executor is null
+    public static TownZoneMapper build(int[] yearMonths, int rows, MorselExecutor executor) {
+        int minYear = Integer.MAX_VALUE, maxYear = Integer.MIN_VALUE;
+        for (int i = 0; i < rows; i++) {
+            int year = YearMonths.year(yearMonths[i]);
+            if (year < minYear) minYear = year;
+            if (year > maxYear) maxYear = year;
+        }
+        if (rows == 0) minYear = maxYear = 0;
+        int firstYear = minYear;
+        int yearSlots = maxYear - minYear + 1;
+
+        // Partial bitmaps per morsel: slots 0..yearSlots-1 are years, the next 12 are months
+        int morsels = (rows + BUILD_MORSEL_ROWS - 1) / BUILD_MORSEL_ROWS;
+        List<RowBitmap[]> partials = run(executor, morsels, m -> {
+            RowBitmap[] bitmaps = new RowBitmap[yearSlots + 12];
+            int to = Math.min(rows, (m + 1) * BUILD_MORSEL_ROWS);
+            for (int i = m * BUILD_MORSEL_ROWS; i < to; i++) {
+                int ym = yearMonths[i];
+                int y = YearMonths.year(ym) - firstYear;
+                int mo = yearSlots + YearMonths.month(ym) - 1;
+                if (bitmaps[y] == null) bitmaps[y] = new RowBitmap();
+                if (bitmaps[mo] == null) bitmaps[mo] = new RowBitmap();
+                bitmaps[y].add(i);
+                bitmaps[mo].add(i);
             }
+            return bitmaps;
+        });
+
+        TownZoneMapper mapper = new TownZoneMapper(rows, firstYear, yearSlots, null, null);
+        RowBitmap[] column = new RowBitmap[partials.size()];
+        for (int slot = 0; slot < yearSlots + 12; slot++) {
+            for (int m = 0; m < column.length; m++) column[m] = partials.get(m)[slot];
+            RowBitmap bitmap = RowBitmap.concat(Arrays.asList(column)).freeze();
+            if (slot < yearSlots) mapper.years.set(slot, bitmap);
+            else mapper.months.set(slot - yearSlots + 1, bitmap);
         }
-        // Debug: Print mapping from year to list of indices
-        // System.out.println("Year indices initialized:");
-        // for (Map.Entry<Integer, List<Integer>> entry : yearIndexMap.entrySet()) {
-        //     System.out.println("Year: " + entry.getKey() + " Indices: " + entry.getValue());
-        // }
+        return mapper;
+    }
+
+    private static <T> List<T> run(MorselExecutor executor, int morsels, IntFunction<T> task) {
+        if (executor != null) return executor.map(morsels, task);
+        List<T> result = new ArrayList<>(morsels);
+        for (int m = 0; m < morsels; m++) result.add(task.apply(m));
+        return result;
     }
 
     /**
-     * Returns list of all row indices for the given year.
+     * Use persisted year and month indexes instead of scanning the months column.
+     * Nothing is decoded here; each bitmap is read from its index on first use.
      */
-    public static List<Integer> getYearIndices(int year) {
-        return yearIndexMap.getOrDefault(year, Collections.emptyList());
+    public static TownZoneMapper load(RowIndex yearIndex, RowIndex monthIndex, int rows) {
+        long[] keys = yearIndex.getKeys();
+        int firstYear = keys.length == 0 ? 0 : (int) keys[0];
+        int yearSlots = keys.length == 0 ? 1 : (int) (keys[keys.length - 1] - keys[0]) + 1;
+        return new TownZoneMapper(rows, firstYear, yearSlots, yearIndex, monthIndex);
     }
 
     /**
-     * Returns list of all row indices for the given month-of-year (1-12).
+     * Index of this table plus rows from..to-1 of yearMonths. Bitmaps of the
+     * years and months those rows fall into are copied and extended; all
+     * others are shared with this instance.
      */
-    public static List<Integer> getMonthIndices(int month) {
-        return monthIndexMap.getOrDefault(month, Collections.emptyList());
+    public TownZoneMapper appended(int[] yearMonths, int from, int to) {
+        int minYear = rowCount > 0 ? firstYear : Integer.MAX_VALUE;
+        int maxYear = rowCount > 0 ? firstYear + years.length() - 1 : Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            int year = YearMonths.year(yearMonths[i]);
+            if (year < minYear) minYear = year;
+            if (year > maxYear) maxYear = year;
+        }
+        if (minYear > maxYear) return this;
+        TownZoneMapper mapper = new TownZoneMapper(to, minYear, maxYear - minYear + 1, null, null);
+        RowBitmap[] yearBitmaps = new RowBitmap[maxYear - minYear + 1];
+        RowBitmap[] monthBitmaps = new RowBitmap[13];
+        boolean[] yearTouched = new boolean[yearBitmaps.length];
+        boolean[] monthTouched = new boolean[13];
+        for (int y = minYear; y <= maxYear; y++) {
+            if (hasYear(y)) yearBitmaps[y - minYear] = getYearBitmap(y);
+        }
+        for (int m = 1; m <= 12; m++) {
+            RowBitmap bitmap = getMonthBitmap(m);
+            if (!bitmap.isEmpty()) monthBitmaps[m] = bitmap;
+        }
+        for (int i = from; i < to; i++) {
+            int y = YearMonths.year(yearMonths[i]) - minYear;
+            int m = YearMonths.month(yearMonths[i]);
+            if (!yearTouched[y]) {
+                yearBitmaps[y] = yearBitmaps[y] == null ? new RowBitmap() : yearBitmaps[y].copy();
+                yearTouched[y] = true;
+            }
+            if (!monthTouched[m]) {
+                monthBitmaps[m] = monthBitmaps[m] == null ? new RowBitmap() : monthBitmaps[m].copy();
+                monthTouched[m] = true;
+            }
+            yearBitmaps[y].add(i);
+            monthBitmaps[m].add(i);
+        }
+        for (int y = 0; y < yearBitmaps.length; y++) {
+            mapper.years.set(y, yearBitmaps[y] == null ? null : yearBitmaps[y].freeze());
+        }
+        for (int m = 1; m <= 12; m++) {
+            mapper.months.set(m, monthBitmaps[m] == null ? null : monthBitmaps[m].freeze());
+        }
+        return mapper;
     }
 
-    public static boolean hasYear(int year) {
-        return yearIndexMap.containsKey(year);
+    // Number of table rows the bitmaps cover
+    public int getRowCount() {
+        return rowCount;
     }
 
-    public static Integer[] getAllYears() {
-        return yearIndexMap.keySet().toArray(new Integer[0]);
+    public boolean isFileBacked() {
+        return yearIndexFile != null;
     }
 
-    public static Map<Integer, List<Integer>> getYearIndexMap() {
-        return yearIndexMap;
+    /**
+     * Returns the bitmap of all row indices for the given year. The bitmap is
+     * shared and frozen; copy() it to modify it.
+     */
+    public RowBitmap getYearBitmap(int year) {
+        int slot = year - firstYear;
+        if (slot < 0 || slot >= years.length()) return new RowBitmap();
+        return lookup(years, slot, yearIndexFile, year);
+    }
+
+    /**
+     * Returns the bitmap of all row indices for the given month-of-year (1-12).
+     * The bitmap is shared and frozen; copy() it to modify it.
+     */
+    public RowBitmap getMonthBitmap(int month) {
+        if (month < 1 || month > 12) return new RowBitmap();
+        return lookup(months, month, monthIndexFile, month);
+    }
+
+    private static RowBitmap lookup(AtomicReferenceArray<RowBitmap> slots, int slot, RowIndex file, int key) {
+        RowBitmap bitmap = slots.get(slot);
+        if (bitmap != null) return bitmap;
+        if (file == null || !file.containsKey(key)) return new RowBitmap();
+        slots.compareAndSet(slot, null, file.bitmap(key).freeze());
+        return slots.get(slot);
+    }
+
+    /**
+     * Returns all row indices for the given year, in ascending order.
+     */
+    public int[] getYearIndices(int year) {
+        return getYearBitmap(year).toArray();
+    }
+
+    /**
+     * Returns all row indices for the given month-of-year (1-12), in ascending order.
+     */
+    public int[] getMonthIndices(int month) {
+        return getMonthBitmap(month).toArray();
+    }
+
+    public boolean hasYear(int year) {
+        return !getYearBitmap(year).isEmpty();
+    }
+
+    // Years with at least one row, ascending
+    public int[] getYears() {
+        int count = 0;
+        int[] result = new int[years.length()];
+        for (int y = 0; y < years.length(); y++) {
+            if (hasYear(firstYear + y)) result[count++] = firstYear + y;
+        }
+        return Arrays.copyOf(result, count);
     }
 }
@@ -0,0 +1,162 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementations behind FilterKernels. Only loaded when the
+ * jdk.incubator.vector module is present; call through FilterKernels.
+ *
+ * Lane counts are powers of two no larger than 64, so each vector
+ * comparison fills a whole, aligned slice of one mask word.
+ */
+final class VectorKernels {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    private VectorKernels() {}
+
+    static void rangeMask(double[] col, int from, int to, double lo, double hi, long[] mask) {
+        FilterKernels.clear(mask, from, to);
+        int lanes = DOUBLES.length();
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            DoubleVector v = DoubleVector.fromArray(DOUBLES, col, i);
+            long bits = v.compare(VectorOperators.GE, lo).and(v.compare(VectorOperators.LE, hi)).toLong();
+            mask[(i - from) >>> 6] |= bits << (i - from);
+        }
+        for (; i < to; i++) {
+            double v = col[i];
+            mask[(i - from) >>> 6] |= (v >= lo && v <= hi ? 1L : 0L) << (i - from);
+        }
+    }
+
+    static void rangeMask(int[] col, int from, int to, int lo, int hi, long[] mask) {
+        FilterKernels.clear(mask, from, to);
+        int lanes = INTS.length();
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            IntVector v = IntVector.fromArray(INTS, col, i);
+            long bits = v.compare(VectorOperators.GE, lo).and(v.compare(VectorOperators.LE, hi)).toLong();
+            mask[(i - from) >>> 6] |= bits << (i - from);
+        }
+        for (; i < to; i++) {
+            int v = col[i];
+            mask[(i - from) >>> 6] |= (v >= lo && v <= hi ? 1L : 0L) << (i - from);
+        }
+    }
+
+    static void equalsMask(int[] col, int from, int to, int value, long[] mask) {
+        FilterKernels.clear(mask, from, to);
+        int lanes = INTS.length();
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            long bits = IntVector.fromArray(INTS, col, i).compare(VectorOperators.EQ, value).toLong();
+            mask[(i - from) >>> 6] |= bits << (i - from);
+        }
+        for (; i < to; i++) {
+            mask[(i - from) >>> 6] |= (col[i] == value ? 1L : 0L) << (i - from);
+        }
+    }
+
+    // Lanes of the mask word slice starting at row i
+    private static VectorMask<Double> laneMask(long[] mask, int offset) {
+        long bits = mask[offset >>> 6] >>> (offset & 63);
+        return VectorMask.fromLong(DOUBLES, bits);
+    }
+
+    // Lanes of m whose value is not NaN: vector MIN/MAX propagate NaN, the scalar comparisons skip it
+    private static VectorMask<Double> notNaN(DoubleVector v, VectorMask<Double> m) {
+        return m.andNot(v.test(VectorOperators.IS_NAN));
+    }
+
+    static double maskedSum(double[] col, int from, int to, long[] mask) {
+        int lanes = DOUBLES.length();
+        DoubleVector acc = DoubleVector.zero(DOUBLES);
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            VectorMask<Double> m = laneMask(mask, i - from);
+            if (m.anyTrue()) acc = acc.add(DoubleVector.fromArray(DOUBLES, col, i), m);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            if (FilterKernels.isSet(mask, i - from)) sum += col[i];
+        }
+        return sum;
+    }
+
+    static double maskedSumOfSquares(double[] col, int from, int to, long[] mask, double center) {
+        int lanes = DOUBLES.length();
+        DoubleVector acc = DoubleVector.zero(DOUBLES);
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            VectorMask<Double> m = laneMask(mask, i - from);
+            if (!m.anyTrue()) continue;
+            DoubleVector d = DoubleVector.fromArray(DOUBLES, col, i).sub(center);
+            acc = acc.add(d.mul(d), m);
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            if (FilterKernels.isSet(mask, i - from)) {
+                double d = col[i] - center;
+                sum += d * d;
+            }
+        }
+        return sum;
+    }
+
+    static double maskedMin(double[] col, int from, int to, long[] mask) {
+        int lanes = DOUBLES.length();
+        DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            VectorMask<Double> m = laneMask(mask, i - from);
+            if (!m.anyTrue()) continue;
+            DoubleVector v = DoubleVector.fromArray(DOUBLES, col, i);
+            acc = acc.lanewise(VectorOperators.MIN, v, notNaN(v, m));
+        }
+        double min = acc.reduceLanes(VectorOperators.MIN);
+        for (; i < to; i++) {
+            if (FilterKernels.isSet(mask, i - from) && col[i] < min) min = col[i];
+        }
+        return min;
+    }
+
+    static double maskedMax(double[] col, int from, int to, long[] mask) {
+        int lanes = DOUBLES.length();
+        DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            VectorMask<Double> m = laneMask(mask, i - from);
+            if (!m.anyTrue()) continue;
+            DoubleVector v = DoubleVector.fromArray(DOUBLES, col, i);
+            acc = acc.lanewise(VectorOperators.MAX, v, notNaN(v, m));
+        }
+        double max = acc.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++) {
+            if (FilterKernels.isSet(mask, i - from) && col[i] > max) max = col[i];
+        }
+        return max;
+    }
+
+    static double maskedMinRatio(double[] num, double[] den, int from, int to, long[] mask) {
+        int lanes = DOUBLES.length();
+        DoubleVector acc = DoubleVector.broadcast(DOUBLES, Double.POSITIVE_INFINITY);
+        int i = from;
+        for (int bound = to - lanes; i <= bound; i += lanes) {
+            VectorMask<Double> m = laneMask(mask, i - from);
+            if (!m.anyTrue()) continue;
+            DoubleVector ratio = DoubleVector.fromArray(DOUBLES, num, i).div(DoubleVector.fromArray(DOUBLES, den, i));
+            acc = acc.lanewise(VectorOperators.MIN, ratio, notNaN(ratio, m));
+        }
+        double min = acc.reduceLanes(VectorOperators.MIN);
+        for (; i < to; i++) {
+            if (FilterKernels.isSet(mask, i - from)) {
+                double r = num[i] / den[i];
+                if (r < min) min = r;
+            }
+        }
+        return min;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Packs "YYYY-MM" month strings into a single int, year * 12 + (month - 1).
+ * Consecutive months are consecutive ints, so a window spanning December and
+ * January is still a plain range check.
+ */
+public final class YearMonths {
+    public static final int INVALID = -1;
+
+    private YearMonths() {}
+
+    public static int pack(int year, int month) {
+        return year * 12 + (month - 1);
+    }
+
+    public static int year(int yearMonth) {
+        return yearMonth / 12;
+    }
+
+    public static int month(int yearMonth) {
+        return yearMonth % 12 + 1;
+    }
+
+    // Parse "YYYY-MM" once at load time; returns INVALID for anything else
+    public static int parse(String value) {
+        int dash = value.indexOf('-');
+        if (dash <= 0 || dash == value.length() - 1) return INVALID;
+        try {
+            int year = Integer.parseInt(value.substring(0, dash));
+            int month = Integer.parseInt(value.substring(dash + 1));
+            if (month < 1 || month > 12 || year < 0) return INVALID;
+            return pack(year, month);
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+
+    public static String format(int yearMonth) {
+        return String.format("%04d-%02d", year(yearMonth), month(yearMonth));
+    }
+}
@@ -0,0 +1,100 @@
+import benchmarks.HdbEngine;
+
+/**
+ * Default-package bridge from the JMH benchmarks to ColumnarStorage and
+ * DataAnalyzer. See benchmarks.HdbEngine.
+ */
+public class HdbEngineAdapter implements HdbEngine {
+    private ColumnarStorage storage = new ColumnarStorage();
+
+    private DataAnalyzer analyzer() {
+        return storage.getDataAnalyzer();
+    }
+
+    // Benchmarks measure the scans themselves, so results are never served from the cache
+    private void disableResultCache() {
+        analyzer().setResultCacheBytes(0);
+    }
+
+    @Override
+    public void loadCSV(String csvPath, int parallelism) {
+        storage = new ColumnarStorage();
+        storage.loadCSV(csvPath, parallelism);
+        disableResultCache();
+    }
+
+    @Override
+    public void createColumnStore(String dir) {
+        storage.createColumnStore(dir);
+    }
+
+    @Override
+    public void loadColumnStore(String dir) {
+        storage = new ColumnarStorage();
+        storage.loadColumnStore(dir);
+        disableResultCache();
+    }
+
+    @Override
+    public int size() {
+        return analyzer().size();
+    }
+
+    @Override
+    public void setScanParallelism(int threads) {
+        analyzer().setScanParallelism(threads);
+    }
+
+    @Override
+    public void buildYearMonthIndexes() {
+        DataAnalyzer d = analyzer();
+        d.setTownZoneMapper(TownZoneMapper.build(d.getYearMonths(), d.size()));
+    }
+
+    @Override
+    public void buildCompositeIndex() {
+        analyzer().buildYearMonthTownIndex();
+    }
+
+    @Override
+    public Object buildBlockStatistics() {
+        DataAnalyzer d = analyzer();
+        return BlockStatistics.build(d.getYearMonths(), d.getFloorAreas(), d.getResalePrices(), d.getTowns().codes(),
+            d.size(), d.getTowns().cardinality(), BlockStatistics.DEFAULT_BLOCK_ROWS);
+    }
+
+    @Override
+    public int[] monthIndexSharedScan(String town, int year, int month) {
+        return analyzer().fpMonthIndexSharedScan(town, year, month);
+    }
+
+    @Override
+    public int[] yearIndexSharedScan(String town, int year, int month) {
+        return analyzer().filterPricesWithYearIndexSharedScan(town, year, month);
+    }
+
+    @Override
+    public int[] yearIndex(String town, int year, int month) {
+        return analyzer().filterPricesWithYearIndex(town, year, month);
+    }
+
+    @Override
+    public int[] noIndexSharedScan(String town, int year, int month) {
+        return analyzer().filterPricesWithoutYearIndexSharedScan(town, year, month);
+    }
+
+    @Override
+    public int[] noIndex(String town, int year, int month) {
+        return analyzer().filterPricesWithoutYearIndex(town, year, month);
+    }
+
+    @Override
+    public int[] hashing(String town, int year, int month) {
+        return analyzer().filterWithHashing(town, year, month);
+    }
+
+    @Override
+    public double aggregateWindow(String town, int year, int month) {
+        return analyzer().aggregateWindow(town, year, month, DataAnalyzer.MIN_AREA).getAveragePrice();
+    }
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The six access paths Main used to race with one System.nanoTime() each,
+ * plus the fused aggregate, on a warmed-up JVM. Every query asks for the
+ * same two-month window; selectivity picks how common the town is.
+ *
+ * threads only affects the morsel-parallel paths (year-index, no-index and
+ * aggregateWindow); the bitmap and hashing paths always run on one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx8g"})
+public class AccessPathBenchmark {
+    static final int YEAR = 2019;
+    static final int MONTH = 3;
+
+    @Param({"100000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"high", "medium", "low"})
+    public String selectivity;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private HdbEngine engine;
+    private String town;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        engine = HdbEngine.create();
+        engine.loadCSV(SyntheticHdbData.csv(rows), Runtime.getRuntime().availableProcessors());
+        engine.buildYearMonthIndexes();
+        engine.buildCompositeIndex();
+        engine.setScanParallelism(threads);
+        town = SyntheticHdbData.townFor(selectivity);
+    }
+
+    @Benchmark
+    public int[] monthIndexSharedScan() {
+        return engine.monthIndexSharedScan(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public int[] yearIndexSharedScan() {
+        return engine.yearIndexSharedScan(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public int[] yearIndex() {
+        return engine.yearIndex(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public int[] noIndexSharedScan() {
+        return engine.noIndexSharedScan(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public int[] noIndex() {
+        return engine.noIndex(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public int[] hashing() {
+        return engine.hashing(town, YEAR, MONTH);
+    }
+
+    @Benchmark
+    public double aggregateWindow() {
+        return engine.aggregateWindow(town, YEAR, MONTH);
+    }
+}
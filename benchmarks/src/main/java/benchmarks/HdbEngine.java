@@ -0,0 +1,41 @@
+package benchmarks;
+
+/**
+ * The operations under benchmark. The engine classes live in the default
+ * package, which named packages (and therefore JMH benchmarks) cannot
+ * import, so the default-package HdbEngineAdapter implements this interface
+ * and is instantiated once per trial with create().
+ */
+public interface HdbEngine {
+    static HdbEngine create() {
+        try {
+            return (HdbEngine) Class.forName("HdbEngineAdapter").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("HdbEngineAdapter not on the classpath", e);
+        }
+    }
+
+    // Loaders; parallelism 1 selects the serial CSV parser
+    void loadCSV(String csvPath, int parallelism);
+    void createColumnStore(String dir);
+    void loadColumnStore(String dir);
+
+    int size();
+    void setScanParallelism(int threads);
+
+    // Index builds
+    void buildYearMonthIndexes();
+    void buildCompositeIndex();
+    Object buildBlockStatistics();
+
+    // The six access paths compared by Main
+    int[] monthIndexSharedScan(String town, int year, int month);
+    int[] yearIndexSharedScan(String town, int year, int month);
+    int[] yearIndex(String town, int year, int month);
+    int[] noIndexSharedScan(String town, int year, int month);
+    int[] noIndex(String town, int year, int month);
+    int[] hashing(String town, int year, int month);
+
+    // Fused filter and aggregate over the same window
+    double aggregateWindow(String town, int year, int month);
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of building each index from the loaded columns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx8g"})
+public class IndexBuildBenchmark {
+    @Param({"100000", "1000000", "10000000"})
+    public int rows;
+
+    private HdbEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        engine = HdbEngine.create();
+        engine.loadCSV(SyntheticHdbData.csv(rows), Runtime.getRuntime().availableProcessors());
+    }
+
+    // TownZoneMapper year and month bitmaps
+    @Benchmark
+    public void yearMonthIndexes() {
+        engine.buildYearMonthIndexes();
+    }
+
+    // (yearMonth, town) -> rows hash index used by filterWithHashing
+    @Benchmark
+    public void compositeIndex() {
+        engine.buildCompositeIndex();
+    }
+
+    // Block zone maps
+    @Benchmark
+    public Object blockStatistics() {
+        return engine.buildBlockStatistics();
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV parsing (serial when threads is 1, ParallelCsvLoader otherwise) and
+ * binary column store loading. Input files are generated once and cached,
+ * so the first trial for a new size also pays for generation in setup.
+ * The fork reads every store column up front (-Dcolumnstore.lazy=false);
+ * lazily, loadColumnStore would only read months and towns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx8g", "-Dcolumnstore.lazy=false"})
+public class LoaderBenchmark {
+    @Param({"100000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private String csv;
+    private String store;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        csv = SyntheticHdbData.csv(rows);
+        store = SyntheticHdbData.columnStore(rows);
+    }
+
+    @Benchmark
+    public int loadCsv() {
+        HdbEngine engine = HdbEngine.create();
+        engine.loadCSV(csv, threads);
+        return engine.size();
+    }
+
+    // Memory-mapped binary columns; independent of threads
+    @Benchmark
+    public int loadColumnStore() {
+        HdbEngine engine = HdbEngine.create();
+        engine.loadColumnStore(store);
+        return engine.size();
+    }
+}
@@ -0,0 +1,143 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator for HDB resale CSVs of any size, with the schema of
+ * ResalePricesSingapore.csv. Rows are in month order over 2014-01..2023-12,
+ * like the published data, so zone maps behave as they do in production.
+ *
+ * Towns are drawn from a skewed distribution. This gives the benchmarks a
+ * high-, a medium- and a low-selectivity town to query (HIGH_TOWN,
+ * MEDIUM_TOWN and LOW_TOWN: about 9%, 3.5% and 0.6% of rows).
+ *
+ * Usage: java -cp benchmarks.jar benchmarks.SyntheticHdbData <rows> <out.csv>
+ */
+public final class SyntheticHdbData {
+    public static final String HIGH_TOWN = "SENGKANG";
+    public static final String MEDIUM_TOWN = "BEDOK";
+    public static final String LOW_TOWN = "BUKIT TIMAH";
+
+    static final int FIRST_YEAR = 2014;
+    static final int YEARS = 10;
+
+    private static final String[] TOWNS = {
+        "SENGKANG", "PUNGGOL", "WOODLANDS", "JURONG WEST", "TAMPINES", "YISHUN", "BEDOK", "HOUGANG",
+        "CHOA CHU KANG", "ANG MO KIO", "BUKIT BATOK", "BUKIT MERAH", "BUKIT PANJANG", "TOA PAYOH",
+        "PASIR RIS", "KALLANG/WHAMPOA", "SEMBAWANG", "GEYLANG", "QUEENSTOWN", "CLEMENTI", "JURONG EAST",
+        "SERANGOON", "BISHAN", "CENTRAL AREA", "MARINE PARADE", "BUKIT TIMAH"
+    };
+    // Relative frequency of each town, per mille
+    private static final int[] TOWN_WEIGHTS = {
+        90, 80, 75, 70, 65, 60, 35, 55, 50, 45, 40, 40, 35, 30, 30, 30, 30, 25, 25, 25, 20, 20, 15, 10, 9, 6
+    };
+    private static final String[] FLAT_TYPES = {"2 ROOM", "3 ROOM", "4 ROOM", "5 ROOM", "EXECUTIVE"};
+    private static final String[] MODELS = {
+        "Improved", "New Generation", "Model A", "Standard", "Simplified", "Premium Apartment", "Maisonette"
+    };
+    private static final String[] STOREYS = {"01 TO 03", "04 TO 06", "07 TO 09", "10 TO 12", "13 TO 15"};
+    private static final double[] AREAS = {45, 60, 67, 68, 73, 82, 91, 92, 104, 110, 121, 130, 145};
+
+    private SyntheticHdbData() {}
+
+    public static String townFor(String selectivity) {
+        switch (selectivity) {
+            case "high": return HIGH_TOWN;
+            case "medium": return MEDIUM_TOWN;
+            case "low": return LOW_TOWN;
+            default: throw new IllegalArgumentException("Unknown selectivity: " + selectivity);
+        }
+    }
+
+    // Cached CSV with the given row count under bench.data.dir, generated on first use
+    public static String csv(int rows) throws IOException {
+        File file = new File(dataDir(), "hdb-" + rows + ".csv");
+        if (!file.exists()) {
+            File tmp = new File(file.getPath() + ".tmp");
+            write(rows, tmp.toPath());
+            Files.move(tmp.toPath(), file.toPath());
+        }
+        return file.getPath();
+    }
+
+    // Column store built from csv(rows), for the store loader benchmark
+    public static String columnStore(int rows) throws IOException {
+        File dir = new File(dataDir(), "hdb-" + rows + "-store");
+        if (!new File(dir, "months.bin").exists()) {
+            HdbEngine engine = HdbEngine.create();
+            engine.loadCSV(csv(rows), Runtime.getRuntime().availableProcessors());
+            engine.createColumnStore(dir.getPath());
+        }
+        return dir.getPath();
+    }
+
+    private static File dataDir() throws IOException {
+        File dir = new File(System.getProperty("bench.data.dir", "bench-data"));
+        Files.createDirectories(dir.toPath());
+        return dir;
+    }
+
+    public static void write(int rows, Path out) throws IOException {
+        int[] cumulative = new int[TOWN_WEIGHTS.length];
+        int total = 0;
+        for (int t = 0; t < TOWN_WEIGHTS.length; t++) {
+            total += TOWN_WEIGHTS[t];
+            cumulative[t] = total;
+        }
+        SplittableRandom random = new SplittableRandom(42);
+        int months = YEARS * 12;
+        StringBuilder line = new StringBuilder(128);
+        try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("month,town,flat_type,block,street_name,storey_range,floor_area_sqm,flat_model,lease_commence_date,resale_price\n");
+            for (int m = 0; m < months; m++) {
+                // Spread the remainder over the first months so exactly rows lines are written
+                int perMonth = rows / months + (m < rows % months ? 1 : 0);
+                int year = FIRST_YEAR + m / 12;
+                int month = m % 12 + 1;
+                for (int i = 0; i < perMonth; i++) {
+                    line.setLength(0);
+                    line.append(year).append('-');
+                    if (month < 10) line.append('0');
+                    line.append(month).append(',');
+                    line.append(TOWNS[pickTown(random, cumulative, total)]).append(',');
+                    line.append(FLAT_TYPES[random.nextInt(FLAT_TYPES.length)]).append(',');
+                    line.append(1 + random.nextInt(999));
+                    int suffix = random.nextInt(3);
+                    if (suffix > 0) line.append((char) ('A' + suffix - 1));
+                    line.append(",STREET ").append(1 + random.nextInt(300)).append(',');
+                    line.append(STOREYS[random.nextInt(STOREYS.length)]).append(',');
+                    double area = AREAS[random.nextInt(AREAS.length)] + (random.nextInt(3) == 0 ? 0.5 : 0);
+                    line.append(area).append(',');
+                    line.append(MODELS[random.nextInt(MODELS.length)]).append(',');
+                    line.append(1966 + random.nextInt(54)).append(',');
+                    line.append((200 + random.nextInt(1001)) * 1000).append('\n');
+                    writer.append(line);
+                }
+            }
+        }
+    }
+
+    private static int pickTown(SplittableRandom random, int[] cumulative, int total) {
+        int r = random.nextInt(total);
+        for (int t = 0; t < cumulative.length; t++) {
+            if (r < cumulative[t]) return t;
+        }
+        return cumulative.length - 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SyntheticHdbData <rows> <out.csv>");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        write(Integer.parseInt(args[0]), Path.of(args[1]));
+        System.out.println("Wrote " + args[0] + " rows to " + args[1] + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}